@@ -22,7 +22,7 @@ package org.openremote.agent.protocol;
 import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
-import org.openremote.container.concurrent.GlobalLock;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerContext;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.timer.TimerService;
@@ -44,25 +44,24 @@ import org.openremote.model.value.Values;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 
 /**
  * Thread-safe base implementation for protocols.
  * <p>
- * Subclasses should use the {@link GlobalLock#withLock} and {@link GlobalLock#withLockReturning} methods
- * to guard critical sections when modifying shared state:
+ * Subclasses should use the {@link #withLock} and {@link #withLockReturning} methods to guard critical sections
+ * when modifying shared state, these obtain the {@link ScopedLock} of this protocol instance:
  * <blockquote><pre>{@code
  * withLock(getProtocolName(), () -> {
  *     // Critical section
  * });
  * }</pre></blockquote>
  * <blockquote><pre>{@code
- * return withLockReturning(() -> {
+ * return withLockReturning(getProtocolName(), () -> {
  *     // Critical section
  *     return ...;
  * });
@@ -70,7 +69,11 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * <p>
  * All <code>abstract</code> methods are always called within lock scope. An implementation can rely on this lock
  * and safely modify internal, protocol-specific shared state. However, if a protocol implementation schedules
- * an asynchronous task, this task must obtain the lock to call any protocol operations.
+ * an asynchronous task, this task must obtain the lock to call any protocol operations. Pure lookups can use the
+ * shared {@link #withReadLock} and {@link #withReadLockReturning} methods.
+ * <p>
+ * The protocol lock may be held while calling the {@link ProtocolAssetService}, never call the protocol lock while
+ * holding a lock of another service.
  */
 public abstract class AbstractProtocol implements Protocol {
 
@@ -111,7 +114,9 @@ public abstract class AbstractProtocol implements Protocol {
     public static final int PRIORITY = MessageBrokerService.PRIORITY + 100;
     protected final Map<AttributeRef, AssetAttribute> linkedAttributes = new HashMap<>();
     protected final Set<AttributeRef> dynamicAttributes = new HashSet<>();
+    protected final Map<AttributeRef, InboundValuePipeline> inboundValuePipelines = new HashMap<>();
     protected final Map<AttributeRef, LinkedProtocolInfo> linkedProtocolConfigurations = new HashMap<>();
+    protected final ScopedLock protocolLock = new ScopedLock("protocol:" + getClass().getSimpleName());
     protected MessageBrokerContext messageBrokerContext;
     protected ProducerTemplate producerTemplate;
     protected TimerService timerService;
@@ -169,6 +174,7 @@ public abstract class AbstractProtocol implements Protocol {
     final public void stop(Container container) {
         withLock(getProtocolName() + "::stop", () -> {
             linkedAttributes.clear();
+            inboundValuePipelines.clear();
             try {
                 messageBrokerContext.stopRoute("Actuator-" + getProtocolName(), 1, TimeUnit.MILLISECONDS);
                 messageBrokerContext.removeRoute("Actuator-" + getProtocolName());
@@ -229,6 +235,7 @@ public abstract class AbstractProtocol implements Protocol {
                 // Need to add to map before actual linking as protocols may want to update the value as part of
                 // linking process and without entry in the map any update would be blocked
                 linkedAttributes.put(attributeRef, attribute);
+                inboundValuePipelines.put(attributeRef, new InboundValuePipeline(attribute));
 
                 // Check for dynamic value placeholder
                 final String writeValue = Values.getMetaItemValueOrThrow(attribute, META_ATTRIBUTE_WRITE_VALUE, false, true)
@@ -243,6 +250,7 @@ public abstract class AbstractProtocol implements Protocol {
                 } catch (Exception e) {
                     LOG.log(Level.SEVERE, "Failed to link attribute to protocol: " + attribute, e);
                     linkedAttributes.remove(attributeRef);
+                    inboundValuePipelines.remove(attributeRef);
                 }
             });
         });
@@ -263,6 +271,7 @@ public abstract class AbstractProtocol implements Protocol {
                 AttributeRef attributeRef = attribute.getReferenceOrThrow();
                 linkedAttributes.remove(attributeRef);
                 dynamicAttributes.remove(attributeRef);
+                inboundValuePipelines.remove(attributeRef);
                 doUnlinkAttribute(attribute, protocolConfiguration);
             });
         });
@@ -272,7 +281,7 @@ public abstract class AbstractProtocol implements Protocol {
      * Gets a linked attribute by its attribute ref
      */
     protected AssetAttribute getLinkedAttribute(AttributeRef attributeRef) {
-        return withLockReturning(getProtocolName() + "::getLinkedAttribute", () -> linkedAttributes.get(attributeRef));
+        return withReadLockReturning(getProtocolName() + "::getLinkedAttribute", () -> linkedAttributes.get(attributeRef));
     }
 
     /**
@@ -284,7 +293,7 @@ public abstract class AbstractProtocol implements Protocol {
     }
 
     protected AssetAttribute getLinkedProtocolConfiguration(AttributeRef protocolConfigurationRef) {
-        return withLockReturning(getProtocolName() + "::getLinkedProtocolConfigurations", () -> {
+        return withReadLockReturning(getProtocolName() + "::getLinkedProtocolConfigurations", () -> {
             LinkedProtocolInfo linkedProtocolInfo = linkedProtocolConfigurations.get(protocolConfigurationRef);
             // Don't bother with null check if someone calls here with an attribute not linked to this protocol
             // then they're doing something wrong so fail hard and fast
@@ -331,7 +340,7 @@ public abstract class AbstractProtocol implements Protocol {
      * publish new sensor values, which performs additional verification and uses a different messaging queue.
      */
     final protected void sendAttributeEvent(AttributeEvent event) {
-        withLock(getProtocolName() + "::sendAttributeEvent", () -> {
+        withReadLock(getProtocolName() + "::sendAttributeEvent", () -> {
             // Don't allow updating linked attributes with this mechanism as it could cause an infinite loop
             if (linkedAttributes.containsKey(event.getAttributeRef())) {
                 LOG.warning("Cannot update an attribute linked to the same protocol; use updateLinkedAttribute for that: " + event);
@@ -342,25 +351,28 @@ public abstract class AbstractProtocol implements Protocol {
     }
 
     /**
-     * Update the value of a linked attribute. Call this to publish new sensor values. This will call
-     * {@link #doInboundValueProcessing} before sending on the sensor queue.
+     * Update the value of a linked attribute. Call this to publish new sensor values. This will apply the
+     * {@link InboundValuePipeline} of the attribute before sending on the sensor queue.
      */
     final protected void updateLinkedAttribute(final AttributeState state, long timestamp) {
-        AssetAttribute attribute = linkedAttributes.get(state.getAttributeRef());
+        AttributeRef attributeRef = state.getAttributeRef();
+        InboundValuePipeline pipeline = withReadLockReturning(
+            getProtocolName() + "::getInboundValuePipeline", () -> inboundValuePipelines.get(attributeRef)
+        );
 
-        if (attribute == null) {
+        if (pipeline == null) {
             LOG.severe("Update linked attribute called for un-linked attribute: " + state);
             return;
         }
 
-        Pair<Boolean, Value> ignoreAndConverted = Protocol.doInboundValueProcessing(attribute, state.getValue().orElse(null), assetService);
+        Pair<Boolean, Value> ignoreAndConverted = pipeline.process(state.getValue().orElse(null), assetService);
 
         if (ignoreAndConverted.key) {
-            LOG.fine("Value conversion returned ignore so attribute will not be updated: " + attribute.getReferenceOrThrow());
+            LOG.fine("Value conversion returned ignore so attribute will not be updated: " + attributeRef);
             return;
         }
 
-        AttributeEvent attributeEvent = new AttributeEvent(new AttributeState(attribute.getReferenceOrThrow(), ignoreAndConverted.value), timestamp);
+        AttributeEvent attributeEvent = new AttributeEvent(new AttributeState(attributeRef, ignoreAndConverted.value), timestamp);
         LOG.fine("Sending on sensor queue: " + attributeEvent);
         producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
     }
@@ -405,12 +417,40 @@ public abstract class AbstractProtocol implements Protocol {
      * Gets the current runtime status of a protocol configuration.
      */
     final protected ConnectionStatus getStatus(AssetAttribute protocolConfiguration) {
-        return withLockReturning(getProtocolName() + "::getStatus", () -> {
+        return withReadLockReturning(getProtocolName() + "::getStatus", () -> {
             LinkedProtocolInfo linkedProtocolInfo = linkedProtocolConfigurations.get(protocolConfiguration.getReferenceOrThrow());
             return linkedProtocolInfo.getCurrentConnectionStatus();
         });
     }
 
+    /**
+     * Obtain the exclusive lock of this protocol instance, see {@link ScopedLock#withLock}.
+     */
+    protected void withLock(String info, Runnable runnable) {
+        protocolLock.withLock(info, runnable);
+    }
+
+    /**
+     * Obtain the exclusive lock of this protocol instance, see {@link ScopedLock#withLockReturning}.
+     */
+    protected <R> R withLockReturning(String info, Supplier<R> supplier) {
+        return protocolLock.withLockReturning(info, supplier);
+    }
+
+    /**
+     * Obtain the shared lock of this protocol instance, see {@link ScopedLock#withReadLock}.
+     */
+    protected void withReadLock(String info, Runnable runnable) {
+        protocolLock.withReadLock(info, runnable);
+    }
+
+    /**
+     * Obtain the shared lock of this protocol instance, see {@link ScopedLock#withReadLockReturning}.
+     */
+    protected <R> R withReadLockReturning(String info, Supplier<R> supplier) {
+        return protocolLock.withReadLockReturning(info, supplier);
+    }
+
     @Override
     final public ProtocolDescriptor getProtocolDescriptor() {
         return new ProtocolDescriptor(
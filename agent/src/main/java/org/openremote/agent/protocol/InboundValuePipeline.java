@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.agent.protocol;
+
+import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.attribute.AttributeValueDescriptor;
+import org.openremote.model.syslog.SyslogCategory;
+import org.openremote.model.util.Pair;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.ValueFilter;
+import org.openremote.model.value.ValueType;
+import org.openremote.model.value.Values;
+
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import static org.openremote.agent.protocol.Protocol.META_ATTRIBUTE_VALUE_CONVERTER;
+import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
+
+/**
+ * The inbound value processing of a linked attribute (see {@link Protocol#doInboundValueProcessing}), with the
+ * {@link Protocol#META_ATTRIBUTE_VALUE_FILTERS}, the {@link Protocol#META_ATTRIBUTE_VALUE_CONVERTER} and the
+ * attribute value type read once when the attribute is linked instead of for every value.
+ */
+public class InboundValuePipeline {
+
+    private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, InboundValuePipeline.class);
+
+    final protected AttributeRef attributeRef;
+    final protected ValueFilter[] filters;
+    final protected ObjectValue converter;
+    final protected ValueType attributeValueType;
+
+    public InboundValuePipeline(AssetAttribute attribute) {
+        this.attributeRef = attribute.getReferenceOrThrow();
+        this.filters = Protocol.getLinkedAttributeValueFilters(attribute).orElse(null);
+        this.converter = Values.getMetaItemValueOrThrow(
+            attribute,
+            META_ATTRIBUTE_VALUE_CONVERTER,
+            false,
+            false)
+            .flatMap(Values::getObject)
+            .orElse(null);
+        this.attributeValueType = attribute.getType().map(AttributeValueDescriptor::getValueType).orElse(null);
+    }
+
+    /**
+     * @return A pair of whether the value should be ignored and the processed value.
+     */
+    public Pair<Boolean, Value> process(Value value, ProtocolAssetService assetService) {
+
+        // filtering
+        if (filters != null) {
+            value = assetService.applyValueFilters(value, filters);
+        }
+
+        // value conversion
+        if (converter != null) {
+            LOG.fine("Applying attribute value converter to attribute: " + attributeRef);
+
+            Pair<Boolean, Value> convertedValue = Protocol.applyValueConverter(value, converter);
+
+            if (convertedValue.key) {
+                return convertedValue;
+            }
+
+            value = convertedValue.value;
+        }
+
+        // built in value conversion
+        if (value != null && attributeValueType != null && attributeValueType != value.getType()) {
+            LOG.fine("Trying to convert value: " + value.getType() + " -> " + attributeValueType);
+            Optional<Value> convertedValue = Values.convertToValue(value, attributeValueType);
+
+            if (!convertedValue.isPresent()) {
+                LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType);
+                LOG.warning("Cannot send linked attribute update");
+                return new Pair<>(true, null);
+            }
+
+            value = convertedValue.get();
+        }
+
+        return new Pair<>(false, value);
+    }
+}
@@ -45,6 +45,7 @@ import java.util.Collection;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -616,54 +617,13 @@ public interface Protocol extends ContainerService {
         return new Pair<>(false, value);
     }
 
+    /**
+     * Will perform recommended value processing for inbound values (Protocol -> Linked Attribute); protocols should
+     * use an {@link InboundValuePipeline} created when the attribute is linked instead, this reads the meta items of
+     * the attribute on every call.
+     */
     static Pair<Boolean, Value> doInboundValueProcessing(AssetAttribute attribute, Value value, ProtocolAssetService assetService) {
-
-        // filtering
-        ValueFilter[] filters = Protocol.getLinkedAttributeValueFilters(attribute).orElse(null);
-        if (filters != null) {
-            value = assetService.applyValueFilters(value, filters);
-        }
-
-        // value conversion
-        ObjectValue converter = Values.getMetaItemValueOrThrow(
-            attribute,
-            META_ATTRIBUTE_VALUE_CONVERTER,
-            false,
-            false)
-            .flatMap(Values::getObject)
-            .orElse(null);
-
-        if (converter != null) {
-            LOG.fine("Applying attribute value converter to attribute: " + attribute.getReferenceOrThrow());
-
-            Pair<Boolean, Value> convertedValue = applyValueConverter(value, converter);
-
-            if (convertedValue.key) {
-                return convertedValue;
-            }
-
-            value = convertedValue.value;
-        }
-
-        // built in value conversion
-        Optional<ValueType> attributeValueType = attribute.getType().map(AttributeValueDescriptor::getValueType);
-
-        if (value != null && attributeValueType.isPresent()) {
-            if (attributeValueType.get() != value.getType()) {
-                LOG.fine("Trying to convert value: " + value.getType() + " -> " + attributeValueType.get());
-                Optional<Value> convertedValue = Values.convertToValue(value, attributeValueType.get());
-
-                if (!convertedValue.isPresent()) {
-                    LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType.get());
-                    LOG.warning("Cannot send linked attribute update");
-                    return new Pair<>(true, null);
-                }
-
-                value = convertedValue.get();
-            }
-        }
-
-        return new Pair<>(false, value);
+        return new InboundValuePipeline(attribute).process(value, assetService);
     }
 
     static Pair<Boolean, Value> applyValueConverter(Value value, ObjectValue converter) {
@@ -729,13 +689,14 @@ public interface Protocol extends ContainerService {
         }
 
         AttributeRef attributeRef = attribute.getReferenceOrThrow();
+        Predicate<String> messagePredicate = StringPredicate.asPredicate(matchPredicate);
 
         return message -> {
             if (!TextUtil.isNullOrEmpty(message)) {
                 StringValue stringValue = Values.create(message);
                 Value val = assetService.applyValueFilters(stringValue, matchFilters);
                 if (val != null) {
-                    if (StringPredicate.asPredicate(matchPredicate).test(message)) {
+                    if (messagePredicate.test(message)) {
                         LOG.finest("Message matches attribute so writing state to state consumer for attribute: " + attributeRef);
                         stateConsumer.accept(new AttributeState(attributeRef, stringValue));
                     }
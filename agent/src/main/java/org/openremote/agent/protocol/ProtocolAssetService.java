@@ -169,6 +169,9 @@ public interface ProtocolAssetService extends ContainerService {
      * When an agent is unlinked from a protocol then all subscriptions will be automatically removed also; it is safe
      * to call this method multiple times for the same agentId and assetChangeConsumer and only a single subscription
      * would actually be created.
+     * <p>
+     * The consumer is called without holding any lock, a protocol must obtain its own lock (see {@link
+     * AbstractProtocol#withLock}) to access its state.
      */
     void subscribeChildAssetChange(String agentId, Consumer<PersistenceEvent<Asset>> assetChangeConsumer);
 
@@ -53,8 +53,6 @@ import java.util.logging.Logger;
 
 import static org.openremote.container.web.WebTargetBuilder.CONNECTION_POOL_SIZE;
 import static org.openremote.container.web.WebTargetBuilder.createClient;
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.Constants.PROTOCOL_NAMESPACE;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 import static org.openremote.model.util.TextUtil.*;
@@ -48,8 +48,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
-import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.model.Constants.PROTOCOL_NAMESPACE;
 import static org.openremote.model.attribute.MetaItemType.RANGE_MAX;
 import static org.openremote.model.attribute.MetaItemType.RANGE_MIN;
@@ -475,7 +473,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Call this to get the current value of an attribute.
      */
     public Optional<Value> getValue(AttributeRef attributeRef) {
-        return withLockReturning(getProtocolName() + "::getValue", () -> {
+        return withReadLockReturning(getProtocolName() + "::getValue", () -> {
             SimulatorElement element = elements.get(attributeRef);
             return element != null ? element.getValue() : Optional.empty();
         });
@@ -499,7 +497,7 @@ public class SimulatorProtocol extends AbstractProtocol {
      * Read a state snapshot.
      */
     public Optional<SimulatorState> getSimulatorState(AttributeRef protocolConfigurationRef) {
-        return withLockReturning(getProtocolName() + "::getSimulatorState", () -> {
+        return withReadLockReturning(getProtocolName() + "::getSimulatorState", () -> {
             LOG.info("Getting simulator state for protocol configuration: " + protocolConfigurationRef);
             if (!instances.containsKey(protocolConfigurationRef))
                 return Optional.empty();
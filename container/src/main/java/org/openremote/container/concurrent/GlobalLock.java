@@ -19,67 +19,38 @@
  */
 package org.openremote.container.concurrent;
 
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
-import java.util.logging.Logger;
-
-import static java.util.logging.Level.FINEST;
 
 /**
  * A global reentrant exclusive lock, use convenience methods {@link #withLock} and {@link #withLockReturning}.
+ * <p>
+ * This is the root of all {@link ScopedLock}s, obtaining the global lock waits until no scoped lock is held and
+ * blocks all scoped locks while it is held. Use it only for changes that span several components (e.g. linking
+ * protocols or deploying rulesets), shared state of a single component should be guarded by its own
+ * {@link ScopedLock}.
  */
 public class GlobalLock {
 
-    private static final Logger LOG = Logger.getLogger(GlobalLock.class.getName());
-
-    /**
-     * At least getOwner() is protected and not private...
-     */
-    static class CustomReentrantLock extends ReentrantLock {
-
-        String info;
-
-        public CustomReentrantLock() {
-            super(true);
-        }
-
-        String owner() {
-            Thread lockOwner;
-            if ((lockOwner = super.getOwner()) != null) {
-                return lockOwner.getName() + " executing " + info;
-            }
-            return "Unknown executing " + info;
-        }
-
-        public boolean tryLock(String info, long timeout, TimeUnit unit) throws InterruptedException {
-            boolean result = super.tryLock(timeout, unit);
-            if (result) {
-                this.info = info;
-            }
-            return result;
-        }
-
-        @Override
-        public void unlock() {
-            super.unlock();
-            info = null;
-        }
-    }
-
     // Provides exclusive access to shared state
-    static protected final CustomReentrantLock lock = new CustomReentrantLock();
+    static protected final ScopedLock lock = new ScopedLock("global", null, true);
 
     protected GlobalLock() {
     }
 
     /**
-     * @return Defaults to 10 seconds.
+     * @return Defaults to 30 seconds.
      */
     static public int getLockTimeoutMillis() {
         return 30000;
     }
 
+    /**
+     * @return The root lock scope, e.g. to obtain contention statistics.
+     */
+    static public ScopedLock getLock() {
+        return lock;
+    }
+
     /**
      * Obtain the lock within {@link #getLockTimeoutMillis()} or throw {@link IllegalStateException}.
      *
@@ -87,10 +58,7 @@ public class GlobalLock {
      * @param runnable The guarded code to execute while holding the lock.
      */
     static public void withLock(String info, Runnable runnable) {
-        withLockReturning(info, () -> {
-            runnable.run();
-            return null;
-        });
+        lock.withLock(info, runnable);
     }
 
     /**
@@ -100,27 +68,6 @@ public class GlobalLock {
      * @param supplier The guarded code to execute while holding the lock.
      */
     static public <R> R withLockReturning(String info, Supplier<R> supplier) {
-        try {
-            if (lock.tryLock(info, getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
-                LOG.finest("+ Acquired lock (count: " + lock.getHoldCount() + "): " + info);
-                try {
-                    return supplier.get();
-                } finally {
-                    LOG.finest("- Releasing lock (count: " + lock.getHoldCount() + "): " + info);
-                    if (!lock.isHeldByCurrentThread()) {
-                        LOG.severe("Lock is held by another thread, ensure the same thread acquires and releases the lock!");
-                    } else {
-                        lock.unlock();
-                    }
-                }
-            } else {
-                throw new IllegalStateException(
-                    "Could not acquire lock owned by " + lock.owner() + " after waiting " + getLockTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
-                );
-            }
-        } catch (InterruptedException ex) {
-            LOG.log(FINEST, "Interrupted while waiting for lock: " + info);
-            return null;
-        }
+        return lock.withLockReturning(info, supplier);
     }
-}
\ No newline at end of file
+}
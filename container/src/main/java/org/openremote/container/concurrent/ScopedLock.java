@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINEST;
+
+/**
+ * A named, reentrant read/write lock that guards the shared state of a single component (a protocol instance, a
+ * rules engine, a service), use convenience methods {@link #withLock}, {@link #withLockReturning}, {@link
+ * #withReadLock} and {@link #withReadLockReturning}.
+ * <p>
+ * Scoped locks are nested in the {@link GlobalLock}: holding a scoped lock (read or write) also holds the global lock
+ * in shared mode, so code guarded by {@link GlobalLock#withLock} still has exclusive access to the whole system while
+ * unrelated scopes no longer block each other. Consequently a thread holding a scoped lock can not acquire the global
+ * lock, this fails immediately with an {@link IllegalStateException} instead of dead-locking.
+ * <p>
+ * When scoped locks are nested they must always be acquired in the same order, e.g. a protocol may call the agent
+ * service while holding its lock but the agent service must not call a protocol while holding its lock.
+ * <p>
+ * Each lock records contention statistics (wait and hold times, current owner) that can be obtained with {@link
+ * #getStatus()}, all live locks can be found with {@link #getScopes()}.
+ */
+public class ScopedLock {
+
+    private static final Logger LOG = Logger.getLogger(ScopedLock.class.getName());
+
+    static protected final Set<ScopedLock> SCOPES = Collections.synchronizedSet(
+        Collections.newSetFromMap(new WeakHashMap<>())
+    );
+
+    final protected String name;
+    final protected ScopedLock parent;
+    final protected ReentrantReadWriteLock lock;
+    final protected AtomicLong acquiredCount = new AtomicLong();
+    final protected AtomicLong contendedCount = new AtomicLong();
+    final protected AtomicLong totalWaitNanos = new AtomicLong();
+    final protected AtomicLong maxWaitNanos = new AtomicLong();
+    final protected AtomicLong totalHoldNanos = new AtomicLong();
+    final protected AtomicLong maxHoldNanos = new AtomicLong();
+    protected volatile Thread writeOwner;
+    protected volatile String writeOwnerInfo;
+
+    /**
+     * Creates a non-fair lock scope nested in the {@link GlobalLock}.
+     */
+    public ScopedLock(String name) {
+        this(name, GlobalLock.lock, false);
+    }
+
+    protected ScopedLock(String name, ScopedLock parent, boolean fair) {
+        this.name = name;
+        this.parent = parent;
+        this.lock = new ReentrantReadWriteLock(fair);
+        SCOPES.add(this);
+    }
+
+    /**
+     * @return All live lock scopes, including the global lock.
+     */
+    public static List<ScopedLock> getScopes() {
+        synchronized (SCOPES) {
+            return new ArrayList<>(SCOPES);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtain the exclusive lock within {@link GlobalLock#getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the lock.
+     */
+    public void withLock(String info, Runnable runnable) {
+        withLockReturning(info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the exclusive lock within {@link GlobalLock#getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the lock.
+     */
+    public <R> R withLockReturning(String info, Supplier<R> supplier) {
+        return guard(info, true, supplier);
+    }
+
+    /**
+     * Obtain the shared lock within {@link GlobalLock#getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     * Only use this for lookups, the shared lock can not be upgraded to the exclusive lock.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the lock.
+     */
+    public void withReadLock(String info, Runnable runnable) {
+        withReadLockReturning(info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the shared lock within {@link GlobalLock#getLockTimeoutMillis()} or throw {@link IllegalStateException}.
+     * Only use this for lookups, the shared lock can not be upgraded to the exclusive lock.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the lock.
+     */
+    public <R> R withReadLockReturning(String info, Supplier<R> supplier) {
+        return guard(info, false, supplier);
+    }
+
+    /**
+     * @return <code>true</code> if the current thread holds this lock in shared or exclusive mode.
+     */
+    public boolean isHeldByCurrentThread() {
+        return lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+    }
+
+    protected <R> R guard(String info, boolean exclusive, Supplier<R> supplier) {
+        if (exclusive && !lock.isWriteLockedByCurrentThread() && lock.getReadHoldCount() > 0) {
+            throw new IllegalStateException(
+                "Can not upgrade shared lock '" + name + "' to exclusive lock: " + Thread.currentThread().getName() + " executing " + info
+            );
+        }
+
+        if (parent == null) {
+            return guardLocal(info, exclusive, supplier);
+        }
+
+        // Scoped locks hold their parent in shared mode, only the parent itself can grant exclusive access to everything
+        return parent.guard(info, false, () -> guardLocal(info, exclusive, supplier));
+    }
+
+    protected <R> R guardLocal(String info, boolean exclusive, Supplier<R> supplier) {
+        Lock target = exclusive ? lock.writeLock() : lock.readLock();
+        boolean reentrant = exclusive ? lock.isWriteLockedByCurrentThread() : isHeldByCurrentThread();
+        long waitStart = System.nanoTime();
+
+        try {
+            // The untimed tryLock() barges ahead of queued threads, a zero timeout respects the fairness of the global lock
+            boolean acquired = target.tryLock(0, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                contendedCount.incrementAndGet();
+                acquired = target.tryLock(GlobalLock.getLockTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (!acquired) {
+                throw new IllegalStateException(
+                    "Could not acquire " + (exclusive ? "exclusive" : "shared") + " lock '" + name + "' owned by "
+                        + getOwner() + " after waiting " + GlobalLock.getLockTimeoutMillis() + "ms: "
+                        + Thread.currentThread().getName() + " executing " + info
+                );
+            }
+        } catch (InterruptedException ex) {
+            LOG.log(FINEST, "Interrupted while waiting for lock '" + name + "': " + info);
+            return null;
+        }
+
+        long holdStart = System.nanoTime();
+        if (!reentrant) {
+            recordWait(holdStart - waitStart);
+        }
+        if (exclusive && !reentrant) {
+            writeOwner = Thread.currentThread();
+            writeOwnerInfo = info;
+        }
+        if (LOG.isLoggable(FINEST)) {
+            LOG.finest("+ Acquired " + (exclusive ? "exclusive" : "shared") + " lock '" + name + "': " + info);
+        }
+
+        try {
+            return supplier.get();
+        } finally {
+            if (LOG.isLoggable(FINEST)) {
+                LOG.finest("- Releasing " + (exclusive ? "exclusive" : "shared") + " lock '" + name + "': " + info);
+            }
+            if (exclusive && !reentrant) {
+                writeOwner = null;
+                writeOwnerInfo = null;
+            }
+            if (!reentrant) {
+                recordHold(System.nanoTime() - holdStart);
+            }
+            target.unlock();
+        }
+    }
+
+    protected void recordWait(long waitNanos) {
+        acquiredCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    protected void recordHold(long holdNanos) {
+        totalHoldNanos.addAndGet(holdNanos);
+        maxHoldNanos.accumulateAndGet(holdNanos, Math::max);
+    }
+
+    /**
+     * @return Informal description of the thread currently holding the exclusive lock.
+     */
+    public String getOwner() {
+        Thread owner = writeOwner;
+        if (owner != null) {
+            return owner.getName() + " executing " + writeOwnerInfo;
+        }
+        return lock.getReadLockCount() > 0 ? "shared owners (" + lock.getReadLockCount() + ")" : "Unknown";
+    }
+
+    public ObjectValue getStatus() {
+        long acquired = acquiredCount.get();
+        ObjectValue value = Values.createObject();
+        value.put("acquiredCount", acquired);
+        value.put("contendedCount", contendedCount.get());
+        value.put("queueLength", lock.getQueueLength());
+        value.put("averageWaitMillis", acquired > 0 ? totalWaitNanos.get() / acquired / 1000000d : 0d);
+        value.put("maxWaitMillis", maxWaitNanos.get() / 1000000d);
+        value.put("averageHoldMillis", acquired > 0 ? totalHoldNanos.get() / acquired / 1000000d : 0d);
+        value.put("maxHoldMillis", maxHoldNanos.get() / 1000000d);
+        if (lock.isWriteLocked() || lock.getReadLockCount() > 0) {
+            value.put("owner", getOwner());
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", acquiredCount=" + acquiredCount.get() +
+            ", contendedCount=" + contendedCount.get() +
+            '}';
+    }
+}
@@ -40,12 +40,17 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 public class MessageBrokerService implements ContainerService {
 
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN = "MESSAGE_SESSION_ALLOWED_ORIGIN";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT = null;
+    public static final String MESSAGE_SESSION_QUEUE_SIZE = "MESSAGE_SESSION_QUEUE_SIZE";
+    public static final int MESSAGE_SESSION_QUEUE_SIZE_DEFAULT = WebsocketComponent.SEND_QUEUE_SIZE_DEFAULT;
+    public static final String MESSAGE_SESSION_MAX_LAG_MILLIS = "MESSAGE_SESSION_MAX_LAG_MILLIS";
+    public static final int MESSAGE_SESSION_MAX_LAG_MILLIS_DEFAULT = (int) WebsocketComponent.SEND_QUEUE_MAX_LAG_MILLIS_DEFAULT;
     private static final Logger LOG = Logger.getLogger(MessageBrokerService.class.getName());
     public static final int PRIORITY = ContainerService.HIGH_PRIORITY;
 
@@ -138,6 +143,12 @@ public class MessageBrokerService implements ContainerService {
             container.getService(WebService.class),
             allowedOrigin
         );
+        websocketComponent.setSendQueueSize(
+            getInteger(container.getConfig(), MESSAGE_SESSION_QUEUE_SIZE, MESSAGE_SESSION_QUEUE_SIZE_DEFAULT)
+        );
+        websocketComponent.setSendQueueMaxLagMillis(
+            getInteger(container.getConfig(), MESSAGE_SESSION_MAX_LAG_MILLIS, MESSAGE_SESSION_MAX_LAG_MILLIS_DEFAULT)
+        );
 
         context.addComponent(WebsocketComponent.NAME, websocketComponent);
     }
@@ -23,8 +23,10 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
 import org.apache.camel.util.ServiceHelper;
 
+import javax.websocket.Session;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public abstract class WebsocketComponent extends DefaultComponent {
@@ -33,8 +35,14 @@ public abstract class WebsocketComponent extends DefaultComponent {
 
     public static final String NAME = "websocket";
 
+    public static final int SEND_QUEUE_SIZE_DEFAULT = 1000;
+    public static final long SEND_QUEUE_MAX_LAG_MILLIS_DEFAULT = 30000;
+
     final protected Map<String, WebsocketConsumer> consumers = new HashMap<>();
     final protected WebsocketSessions websocketSessions;
+    final protected Map<String, WebsocketSendQueue> sendQueues = new ConcurrentHashMap<>();
+    protected int sendQueueSize = SEND_QUEUE_SIZE_DEFAULT;
+    protected long sendQueueMaxLagMillis = SEND_QUEUE_MAX_LAG_MILLIS_DEFAULT;
 
     public WebsocketComponent() {
         this.websocketSessions = new MemoryWebsocketSessions();
@@ -57,6 +65,8 @@ public abstract class WebsocketComponent extends DefaultComponent {
     protected void doStop() throws Exception {
         super.doStop();
         ServiceHelper.stopService(getWebsocketSessions());
+        sendQueues.values().forEach(WebsocketSendQueue::close);
+        sendQueues.clear();
         undeploy();
     }
 
@@ -64,6 +74,37 @@ public abstract class WebsocketComponent extends DefaultComponent {
         return websocketSessions;
     }
 
+    public void setSendQueueSize(int sendQueueSize) {
+        this.sendQueueSize = sendQueueSize;
+    }
+
+    public void setSendQueueMaxLagMillis(long sendQueueMaxLagMillis) {
+        this.sendQueueMaxLagMillis = sendQueueMaxLagMillis;
+    }
+
+    public WebsocketSendQueue getSendQueue(Session session) {
+        return sendQueues.computeIfAbsent(
+            session.getId(),
+            id -> new WebsocketSendQueue(
+                session,
+                sendQueueSize,
+                sendQueueMaxLagMillis,
+                sendQueue -> sendQueues.remove(id, sendQueue)
+            )
+        );
+    }
+
+    public void removeSendQueue(Session session) {
+        WebsocketSendQueue sendQueue = sendQueues.remove(session.getId());
+        if (sendQueue != null) {
+            sendQueue.close();
+        }
+    }
+
+    public Map<String, WebsocketSendQueue> getSendQueues() {
+        return sendQueues;
+    }
+
     public Map<String, WebsocketConsumer> getConsumers() {
         return consumers;
     }
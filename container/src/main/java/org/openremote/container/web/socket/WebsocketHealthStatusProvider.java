@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import org.openremote.container.Container;
+import org.openremote.container.ContainerHealthStatusProvider;
+import org.openremote.container.ContainerService;
+import org.openremote.container.message.MessageBrokerService;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+
+/**
+ * Reports the outbound queue of each websocket session, see {@link WebsocketSendQueue}.
+ */
+public class WebsocketHealthStatusProvider implements ContainerHealthStatusProvider {
+
+    public static final String NAME = "websocket";
+    public static final String VERSION = "1.0";
+    protected MessageBrokerService messageBrokerService;
+
+    @Override
+    public int getPriority() {
+        return ContainerService.DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public void init(Container container) throws Exception {
+        messageBrokerService = container.getService(MessageBrokerService.class);
+    }
+
+    @Override
+    public void start(Container container) throws Exception {
+
+    }
+
+    @Override
+    public void stop(Container container) throws Exception {
+
+    }
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Value getHealthStatus() {
+        if (messageBrokerService.getContext() == null) {
+            return null;
+        }
+        WebsocketComponent component = messageBrokerService.getContext().getComponent(WebsocketComponent.NAME, WebsocketComponent.class);
+        if (component == null) {
+            return null;
+        }
+
+        ObjectValue sessions = Values.createObject();
+        int totalQueueSize = 0;
+        long totalDroppedCount = 0;
+        for (WebsocketSendQueue sendQueue : component.getSendQueues().values()) {
+            sessions.put(sendQueue.session.getId(), sendQueue.getStatus());
+            totalQueueSize += sendQueue.getQueueSize();
+            totalDroppedCount += sendQueue.getDroppedCount();
+        }
+
+        ObjectValue value = Values.createObject();
+        value.put("sessions", component.getSendQueues().size());
+        value.put("totalQueueSize", totalQueueSize);
+        value.put("totalDroppedCount", totalDroppedCount);
+        value.put("sessionQueues", sessions);
+        return value;
+    }
+}
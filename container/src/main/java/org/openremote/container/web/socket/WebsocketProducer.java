@@ -24,10 +24,13 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultProducer;
 import org.openremote.container.web.ConnectionConstants;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.event.TriggeredEventSubscription;
 
 import javax.websocket.Session;
-import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,16 +51,17 @@ public class WebsocketProducer extends DefaultProducer {
     public void process(Exchange exchange) throws Exception {
         Message in = exchange.getIn();
         Object message = in.getMandatoryBody();
+        String conflationKey = getConflationKey(message);
         if (!(message == null || message instanceof String || message instanceof byte[])) {
             message = in.getMandatoryBody(String.class);
         }
         if (isSendToAllSet(in)) {
-            sendToAll(message, exchange);
+            sendToAll(message, conflationKey, exchange);
         } else {
             String sessionKey = in.getHeader(ConnectionConstants.SESSION_KEY, String.class);
             if (sessionKey != null) {
                 Session websocket = getEndpoint().getComponent().getWebsocketSessions().get(sessionKey);
-                sendMessage(websocket, message);
+                sendMessage(websocket, message, conflationKey);
             } else {
                 throw new IllegalArgumentException("Failed to send message to Websocket session; session key not set.");
             }
@@ -73,7 +77,7 @@ public class WebsocketProducer extends DefaultProducer {
         return value == null ? false : value;
     }
 
-    protected void sendToAll(Object message, Exchange exchange) throws Exception {
+    protected void sendToAll(Object message, String conflationKey, Exchange exchange) throws Exception {
         Collection<Session> sessions = getEndpoint().getComponent().getWebsocketSessions().getAll();
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("Sending to all sessions (" + sessions.size() + "): " + message);
@@ -81,7 +85,7 @@ public class WebsocketProducer extends DefaultProducer {
         Exception exception = null;
         for (Session session : sessions) {
             try {
-                sendMessage(session, message);
+                sendMessage(session, message, conflationKey);
             } catch (Exception e) {
                 if (exception == null) {
                     exception = new CamelExchangeException("Failed to deliver message to one or more recipients.", exchange, e);
@@ -93,13 +97,38 @@ public class WebsocketProducer extends DefaultProducer {
         }
     }
 
-    protected void sendMessage(Session session, Object message) throws IOException {
+    /**
+     * Queue the message for asynchronous sending, see {@link WebsocketSendQueue}.
+     */
+    protected void sendMessage(Session session, Object message, String conflationKey) {
         if (session != null && session.isOpen()) {
             if (message instanceof String) {
                 if (LOG.isLoggable(Level.FINE))
                     LOG.fine("Sending to session " + session.getId() + ": " + message);
-                session.getBasicRemote().sendText((String) message);
+                WebsocketComponent component = getEndpoint().getComponent();
+                component.getSendQueue(session).offer((String) message, conflationKey);
+                // The session might have been closed and its queue removed concurrently
+                if (!session.isOpen()) {
+                    component.removeSendQueue(session);
+                }
             }
         }
     }
+
+    /**
+     * A triggered subscription of a single attribute event supersedes the queued one of the same subscription and
+     * attribute, clients only need the latest value.
+     */
+    protected String getConflationKey(Object message) {
+        if (!(message instanceof TriggeredEventSubscription)) {
+            return null;
+        }
+        TriggeredEventSubscription<?> triggeredEventSubscription = (TriggeredEventSubscription<?>) message;
+        List<?> events = triggeredEventSubscription.getEvents();
+        if (events == null || events.size() != 1 || !(events.get(0) instanceof AttributeEvent)) {
+            return null;
+        }
+        AttributeRef attributeRef = ((AttributeEvent) events.get(0)).getAttributeRef();
+        return triggeredEventSubscription.getSubscriptionId() + ":" + attributeRef.getEntityId() + ":" + attributeRef.getAttributeName();
+    }
 }
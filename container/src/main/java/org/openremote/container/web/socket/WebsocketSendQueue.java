@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded queue of outbound messages of a websocket session, sent asynchronously one at a time so a slow client
+ * doesn't hold up the thread delivering messages to all sessions.
+ * <p>
+ * A queued message with a conflation key is replaced by a newer message with the same key, e.g. a superseded
+ * attribute value of a subscription. When the queue is full, or the oldest queued message waited longer than the
+ * maximum lag, the client can't keep up: the queued messages are dropped and the session is closed. The session is
+ * also closed when a send fails, in both cases the closed callback is called to deregister the queue.
+ */
+public class WebsocketSendQueue {
+
+    private static final Logger LOG = Logger.getLogger(WebsocketSendQueue.class.getName());
+
+    protected static class PendingMessage {
+        final protected String conflationKey;
+        final protected long queuedMillis;
+        protected String text;
+
+        protected PendingMessage(String conflationKey, String text, long queuedMillis) {
+            this.conflationKey = conflationKey;
+            this.text = text;
+            this.queuedMillis = queuedMillis;
+        }
+    }
+
+    final protected Session session;
+    final protected int maxSize;
+    final protected long maxLagMillis;
+    final protected Consumer<WebsocketSendQueue> closedCallback;
+    final protected ArrayDeque<PendingMessage> queue = new ArrayDeque<>();
+    final protected Map<String, PendingMessage> conflatable = new HashMap<>();
+    protected boolean sending;
+    protected boolean draining;
+    protected boolean closed;
+    // Set when a send failed while synchronized, the session is then closed after releasing the lock
+    protected String failureReason;
+    protected long sentCount;
+    protected long conflatedCount;
+    protected long droppedCount;
+
+    public WebsocketSendQueue(Session session, int maxSize, long maxLagMillis) {
+        this(session, maxSize, maxLagMillis, null);
+    }
+
+    /**
+     * @param closedCallback Called when the queue closes the session because of a slow consumer or a failed send, or
+     *                       <code>null</code>.
+     */
+    public WebsocketSendQueue(Session session, int maxSize, long maxLagMillis, Consumer<WebsocketSendQueue> closedCallback) {
+        this.session = session;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxLagMillis = maxLagMillis;
+        this.closedCallback = closedCallback;
+    }
+
+    /**
+     * @param conflationKey Replace a queued message with the same key, or <code>null</code>.
+     */
+    public void offer(String text, String conflationKey) {
+        String closeReason = null;
+
+        synchronized (this) {
+            if (closed) {
+                droppedCount++;
+                return;
+            }
+
+            PendingMessage pending = conflationKey != null ? conflatable.get(conflationKey) : null;
+            long now = System.currentTimeMillis();
+
+            if (pending != null) {
+                pending.text = text;
+                conflatedCount++;
+            } else if (queue.size() >= maxSize) {
+                closeReason = "Outbound queue full: " + queue.size();
+                droppedCount++;
+            } else {
+                pending = new PendingMessage(conflationKey, text, now);
+                queue.add(pending);
+                if (conflationKey != null) {
+                    conflatable.put(conflationKey, pending);
+                }
+            }
+
+            if (closeReason == null && maxLagMillis > 0 && !queue.isEmpty() && now - queue.peek().queuedMillis > maxLagMillis) {
+                closeReason = "Outbound queue lag exceeded: " + (now - queue.peek().queuedMillis) + "ms";
+            }
+
+            if (closeReason != null) {
+                clear();
+            } else if (!sending) {
+                sendNext();
+            }
+        }
+
+        if (closeReason != null) {
+            closeSlowConsumer(closeReason);
+        } else {
+            closeIfFailed();
+        }
+    }
+
+    /**
+     * Stop sending and drop all queued messages, called when the session was closed.
+     */
+    public synchronized void close() {
+        clear();
+    }
+
+    /**
+     * Must be called while synchronized on this queue, drops the queued messages and the message being sent.
+     */
+    protected void clear() {
+        droppedCount += queue.size() + (sending ? 1 : 0);
+        sending = false;
+        closed = true;
+        queue.clear();
+        conflatable.clear();
+    }
+
+    /**
+     * Must be called while synchronized on this queue. A send may complete on the calling thread, the loop then
+     * continues with the next message instead of recursing.
+     */
+    protected void sendNext() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        try {
+            PendingMessage pending;
+            while (!sending && !closed && (pending = queue.poll()) != null) {
+                if (pending.conflationKey != null) {
+                    conflatable.remove(pending.conflationKey);
+                }
+                sending = true;
+                try {
+                    session.getAsyncRemote().sendText(pending.text, this::onSent);
+                } catch (Exception ex) {
+                    sending = false;
+                    LOG.log(Level.FINE, "Failed to send to websocket session: " + session.getId(), ex);
+                    fail("Send failed: " + ex);
+                }
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    protected void onSent(SendResult result) {
+        synchronized (this) {
+            if (closed) {
+                // Already counted as dropped when the queue was closed
+                return;
+            }
+            sending = false;
+            if (!result.isOK()) {
+                LOG.log(Level.FINE, "Failed to send to websocket session: " + session.getId(), result.getException());
+                fail("Send failed: " + result.getException());
+            } else {
+                sentCount++;
+                sendNext();
+            }
+        }
+        closeIfFailed();
+    }
+
+    /**
+     * Must be called while synchronized on this queue, drops the queued messages and the message that failed.
+     */
+    protected void fail(String reason) {
+        droppedCount++;
+        clear();
+        failureReason = reason;
+    }
+
+    protected void closeIfFailed() {
+        String reason;
+        synchronized (this) {
+            reason = failureReason;
+            failureReason = null;
+        }
+        if (reason != null) {
+            closeSession(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "Send failed", reason);
+        }
+    }
+
+    protected void closeSlowConsumer(String reason) {
+        closeSession(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Slow consumer", reason);
+    }
+
+    protected void closeSession(CloseReason.CloseCode closeCode, String closePhrase, String reason) {
+        LOG.info("Closing websocket session " + session.getId() + ", " + reason);
+        try {
+            session.close(new CloseReason(closeCode, closePhrase));
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Failed to close websocket session: " + session.getId(), ex);
+        }
+        if (closedCallback != null) {
+            closedCallback.accept(this);
+        }
+    }
+
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("queueSize", queue.size());
+        value.put("sentCount", sentCount);
+        value.put("conflatedCount", conflatedCount);
+        value.put("droppedCount", droppedCount);
+        return value;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{" +
+            "session=" + session.getId() +
+            ", queueSize=" + queue.size() +
+            ", sentCount=" + sentCount +
+            ", droppedCount=" + droppedCount +
+            '}';
+    }
+}
@@ -30,6 +30,7 @@ import org.openremote.agent.protocol.Protocol;
 import org.openremote.agent.protocol.ProtocolAssetService;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
@@ -54,6 +55,7 @@ import org.openremote.model.value.*;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -100,9 +102,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected final Map<String, List<Consumer<PersistenceEvent<Asset>>>> childAssetSubscriptions = new HashMap<>();
     protected final Map<String, Protocol> protocols = new HashMap<>();
     protected final Map<AttributeRef, List<AssetAttribute>> linkedAttributes = new HashMap<>();
+    protected final ScopedLock agentLock = new ScopedLock(AgentService.class.getSimpleName());
     protected LocalAgentConnector localAgentConnector;
-    protected Map<String, Asset> agentMap;
+    // Loaded on first use, modified while holding the agent lock
+    protected volatile Map<String, Asset> agentMap;
     protected ParseContext jsonPathParser;
+    // Compiled JSON paths of value filters, one per distinct path configured in attribute meta
+    protected final Map<String, JsonPath> jsonPaths = new ConcurrentHashMap<>();
     protected boolean initDone;
     protected Container container;
 
@@ -668,7 +674,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void publishProtocolConnectionStatus(AttributeRef protocolRef, ConnectionStatus connectionStatus) {
-        withLock(getClass().getSimpleName() + "::publishProtocolConnectionStatus", () -> {
+        agentLock.withLock(getClass().getSimpleName() + "::publishProtocolConnectionStatus", () -> {
             Pair<AssetAttribute, ConnectionStatus> protocolDeploymentInfo = protocolConfigurations.get(protocolRef);
             if (protocolDeploymentInfo != null && protocolDeploymentInfo.value != connectionStatus) {
                 LOG.info("Agent protocol status updated to " + connectionStatus + ": " + protocolRef);
@@ -692,7 +698,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     public ConnectionStatus getProtocolConnectionStatus(AttributeRef protocolRef) {
-        return withLockReturning(getClass().getSimpleName() + "::getProtocolConnectionStatus", () ->
+        return agentLock.withReadLockReturning(getClass().getSimpleName() + "::getProtocolConnectionStatus", () ->
             Optional.ofNullable(protocolConfigurations.get(protocolRef))
                 .map(pair -> pair.value)
                 .orElse(null));
@@ -780,7 +786,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return false;
         }
 
-        Boolean result = withLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () ->
+        Boolean result = agentLock.withReadLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () ->
             AgentLink.getAgentLink(attribute)
                 .map(ref ->
                     getProtocolConfiguration(ref)
@@ -848,7 +854,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     public Optional<AssetAttribute> getProtocolConfiguration(AttributeRef protocolRef) {
-        return withLockReturning(getClass().getSimpleName() + "::getProtocolConfiguration", () -> {
+        return agentLock.withReadLockReturning(getClass().getSimpleName() + "::getProtocolConfiguration", () -> {
             Pair<AssetAttribute, ConnectionStatus> deploymentStatusPair = protocolConfigurations.get(protocolRef);
             return deploymentStatusPair == null ? Optional.empty() : Optional.of(deploymentStatusPair.key);
         });
@@ -868,23 +874,43 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         if (gatewayService.getLocallyRegisteredGatewayId(agent.getId(), agent.getParentId()) != null) {
             return false;
         }
-        withLock(getClass().getSimpleName() + "::addReplaceAgent", () -> getAgents().put(loadedAgent.getId(), loadedAgent));
+        Map<String, Asset> agents = loadAgents();
+        agentLock.withLock(getClass().getSimpleName() + "::addReplaceAgent", () -> agents.put(loadedAgent.getId(), loadedAgent));
         return true;
     }
 
     @SuppressWarnings("ConstantConditions")
     protected boolean removeAgent(Asset agent) {
-        return withLockReturning(getClass().getSimpleName() + "::removeAgent", () -> getAgents().remove(agent.getId()) != null);
+        Map<String, Asset> agents = loadAgents();
+        return agentLock.withLockReturning(getClass().getSimpleName() + "::removeAgent", () -> agents.remove(agent.getId()) != null);
     }
 
+    /**
+     * @return A read-only view of the agents, it reflects later changes and can be iterated concurrently.
+     */
     public Map<String, Asset> getAgents() {
-        return withLockReturning(getClass().getSimpleName() + "::getAgents", () -> {
+        return Collections.unmodifiableMap(loadAgents());
+    }
+
+    /**
+     * @return The live map of agents, loaded from the database on first use without holding the agent lock; if
+     * several threads load concurrently only the first map is kept.
+     */
+    protected Map<String, Asset> loadAgents() {
+        Map<String, Asset> agents = agentMap;
+        if (agents != null) {
+            return agents;
+        }
+
+        Map<String, Asset> loadedAgents = new ConcurrentHashMap<>();
+        assetStorageService.findAll(new AssetQuery().types(AssetType.AGENT))
+            .stream()
+            .filter(asset -> gatewayService.getLocallyRegisteredGatewayId(asset.getId(), null) == null)
+            .forEach(agent -> loadedAgents.put(agent.getId(), agent));
+
+        return agentLock.withLockReturning(getClass().getSimpleName() + "::loadAgents", () -> {
             if (agentMap == null) {
-                agentMap = assetStorageService.findAll(new AssetQuery()
-                    .types(AssetType.AGENT))
-                    .stream()
-                    .filter(asset -> gatewayService.getLocallyRegisteredGatewayId(asset.getId(), null) == null)
-                    .collect(Collectors.toMap(Asset::getId, agent -> agent));
+                agentMap = loadedAgents;
             }
             return agentMap;
         });
@@ -965,7 +991,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::subscribeChildAssetChange", () -> {
+        agentLock.withLock(getClass().getSimpleName() + "::subscribeChildAssetChange", () -> {
             List<Consumer<PersistenceEvent<Asset>>> consumerList = childAssetSubscriptions
                 .computeIfAbsent(agentId, (id) -> new ArrayList<>());
             if (!consumerList.contains(assetChangeConsumer)) {
@@ -976,7 +1002,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
     @Override
     public void unsubscribeChildAssetChange(String agentId, Consumer<PersistenceEvent<Asset>> assetChangeConsumer) {
-        withLock(getClass().getSimpleName() + "::unsubscribeChildAssetChange", () ->
+        agentLock.withLock(getClass().getSimpleName() + "::unsubscribeChildAssetChange", () ->
             childAssetSubscriptions.computeIfPresent(agentId, (id, consumerList) -> {
                 consumerList.remove(assetChangeConsumer);
                 return consumerList.isEmpty() ? null : consumerList;
@@ -984,16 +1010,24 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void notifyChildAssetChange(String agentId, PersistenceEvent<Asset> assetPersistenceEvent) {
-        withLock(getClass().getSimpleName() + "::notifyChildAssetChange", () ->
-            childAssetSubscriptions.computeIfPresent(agentId, (id, consumerList) -> {
-                LOG.fine("Notifying child asset change consumers of change to agent child asset: Agent ID=" + id + ", Asset ID=" + assetPersistenceEvent.getEntity().getId());
-                try {
-                    consumerList.forEach(consumer -> consumer.accept(assetPersistenceEvent));
-                } catch (Exception e) {
-                    LOG.log(Level.WARNING, "Child asset change consumer threw an exception: Agent ID=" + id + ", Asset ID=" + assetPersistenceEvent.getEntity().getId(), e);
-                }
-                return consumerList;
-            }));
+        List<Consumer<PersistenceEvent<Asset>>> consumers = agentLock.withReadLockReturning(
+            getClass().getSimpleName() + "::notifyChildAssetChange", () -> {
+                List<Consumer<PersistenceEvent<Asset>>> consumerList = childAssetSubscriptions.get(agentId);
+                return consumerList != null ? new ArrayList<>(consumerList) : null;
+            });
+
+        if (consumers == null || consumers.isEmpty()) {
+            return;
+        }
+
+        // Consumers are protocols which guard their state with their own protocol lock, don't call them while holding
+        // the agent lock (protocols call the agent service while holding their lock) or the global lock
+        LOG.fine("Notifying child asset change consumers of change to agent child asset: Agent ID=" + agentId + ", Asset ID=" + assetPersistenceEvent.getEntity().getId());
+        try {
+            consumers.forEach(consumer -> consumer.accept(assetPersistenceEvent));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Child asset change consumer threw an exception: Agent ID=" + agentId + ", Asset ID=" + assetPersistenceEvent.getEntity().getId(), e);
+        }
     }
 
     protected Value applySubstringFilter(StringValue value, SubStringValueFilter filter) {
@@ -1056,7 +1090,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             return null;
         }
 
-        Object obj = jsonPathParser.parse(value.toJson()).read(filter.path);
+        Object obj = jsonPathParser.parse(value.toJson()).read(jsonPaths.computeIfAbsent(filter.path, path -> JsonPath.compile(path)));
         String pathJson = obj != null ? obj.toString() : null;
         if (TextUtil.isNullOrEmpty(pathJson)) {
             return null;
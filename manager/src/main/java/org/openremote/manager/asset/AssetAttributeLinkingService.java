@@ -19,9 +19,12 @@
  */
 package org.openremote.manager.asset;
 
+import org.apache.camel.builder.RouteBuilder;
 import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.message.MessageBrokerService;
+import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.manager.agent.AgentService;
 import org.openremote.manager.asset.AssetProcessingException.Reason;
 import org.openremote.model.asset.Asset;
@@ -29,16 +32,22 @@ import org.openremote.model.asset.AssetAttribute;
 import org.openremote.model.attribute.*;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.filter.MetaPredicate;
 import org.openremote.model.util.Pair;
 import org.openremote.model.value.*;
 
 import javax.persistence.EntityManager;
 import java.io.IOException;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
 import static org.openremote.model.attribute.AttributeEvent.Source.ATTRIBUTE_LINKING_SERVICE;
 import static org.openremote.model.attribute.MetaItem.isMetaNameEqualTo;
 import static org.openremote.model.query.AssetQuery.Select;
@@ -83,14 +92,36 @@ import static org.openremote.model.query.AssetQuery.Select;
  * }
  * ]
  * }</pre></blockquote>
+ * <p>
+ * The links are kept in a graph of deserialized {@link AttributeLink}s by source attribute, loaded at startup and
+ * maintained from asset persistence events; the value types of the linked attributes are cached until their asset
+ * changes. A link is compiled again if the meta items of the source attribute differ from the ones it was compiled
+ * from, so an update processed before the persistence event of its asset still uses the current links.
  */
 // TODO: Improve AssetAttributeLinkingService so that outbound events are synchronsied with inbound
-public class AssetAttributeLinkingService implements ContainerService, AssetUpdateProcessor {
+public class AssetAttributeLinkingService extends RouteBuilder implements ContainerService, AssetUpdateProcessor {
+
+    /**
+     * The links of a source attribute, compiled from the values of its {@link MetaItemType#ATTRIBUTE_LINK} meta
+     * items; an invalid link is <code>null</code>.
+     */
+    protected static class CompiledAttributeLinks {
+        final protected List<Value> metaValues;
+        final protected List<AttributeLink> links;
+
+        protected CompiledAttributeLinks(List<Value> metaValues, List<AttributeLink> links) {
+            this.metaValues = metaValues;
+            this.links = links;
+        }
+    }
 
     private static final Logger LOG = Logger.getLogger(AssetAttributeLinkingService.class.getName());
     protected AssetProcessingService assetProcessingService;
     protected AssetStorageService assetStorageService;
     protected AgentService agentService;
+    protected final Map<AttributeRef, CompiledAttributeLinks> linkGraph = new ConcurrentHashMap<>();
+    // Empty if the linked attribute doesn't exist or has no value type, then the value is not converted
+    protected final Map<AttributeRef, Optional<ValueType>> linkedAttributeValueTypes = new ConcurrentHashMap<>();
 
     @Override
     public int getPriority() {
@@ -102,14 +133,33 @@ public class AssetAttributeLinkingService implements ContainerService, AssetUpda
         assetProcessingService = container.getService(AssetProcessingService.class);
         assetStorageService = container.getService(AssetStorageService.class);
         agentService = container.getService(AgentService.class);
+        container.getService(MessageBrokerService.class).getContext().addRoutes(this);
+    }
+
+    @Override
+    public void configure() throws Exception {
+        from(PERSISTENCE_TOPIC)
+            .routeId("AttributeLinkAssetChanges")
+            .filter(isPersistenceEventForEntityType(Asset.class))
+            .process(exchange -> {
+                PersistenceEvent<?> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                processAssetChange((Asset) persistenceEvent.getEntity(), persistenceEvent);
+            });
     }
 
     @Override
     public void start(Container container) throws Exception {
+        LOG.info("Loading attribute links");
+        assetStorageService.findAll(
+            new AssetQuery().attributeMeta(new MetaPredicate(MetaItemType.ATTRIBUTE_LINK))
+        ).forEach(asset -> updateLinks(asset.getId(), asset.getAttributesStream()));
+        LOG.info("Loaded attribute links of source attributes: " + linkGraph.size());
     }
 
     @Override
     public void stop(Container container) throws Exception {
+        linkGraph.clear();
+        linkedAttributeValueTypes.clear();
     }
 
     @Override
@@ -122,10 +172,113 @@ public class AssetAttributeLinkingService implements ContainerService, AssetUpda
             return false;
         }
 
-        attribute.getMetaStream()
+        List<Value> metaValues = getLinkMetaValues(attribute);
+        if (metaValues.isEmpty()) {
+            return false;
+        }
+
+        AttributeRef attributeRef = attribute.getReferenceOrThrow();
+        CompiledAttributeLinks compiledLinks = linkGraph.get(attributeRef);
+        if (compiledLinks == null || !compiledLinks.metaValues.equals(metaValues)) {
+            compiledLinks = compileLinks(attributeRef, metaValues);
+        }
+
+        for (AttributeLink attributeLink : compiledLinks.links) {
+            processLinkedAttributeUpdate(em, attributeLink, attribute.getState().orElse(null));
+        }
+
+        return false;
+    }
+
+    protected void processAssetChange(Asset asset, PersistenceEvent<?> persistenceEvent) {
+        // The value types of attributes of the asset might have changed
+        linkedAttributeValueTypes.keySet().removeIf(attributeRef -> attributeRef.getEntityId().equals(asset.getId()));
+
+        switch (persistenceEvent.getCause()) {
+            case CREATE:
+                updateLinks(asset.getId(), asset.getAttributesStream());
+                break;
+            case UPDATE:
+                updateLinks(asset.getId(), attributesFromJson(persistenceEvent.getCurrentState("attributes"), asset.getId()));
+                break;
+            case DELETE:
+                updateLinks(asset.getId(), Stream.empty());
+                break;
+        }
+    }
+
+    /**
+     * Replace the links of the attributes of the asset in the graph.
+     */
+    protected void updateLinks(String assetId, Stream<AssetAttribute> attributes) {
+        Set<AttributeRef> sourceRefs = new HashSet<>();
+        attributes.forEach(attribute -> {
+            List<Value> metaValues = getLinkMetaValues(attribute);
+            if (!metaValues.isEmpty()) {
+                AttributeRef attributeRef = new AttributeRef(assetId, attribute.getNameOrThrow());
+                sourceRefs.add(attributeRef);
+                CompiledAttributeLinks compiledLinks = linkGraph.get(attributeRef);
+                if (compiledLinks == null || !compiledLinks.metaValues.equals(metaValues)) {
+                    compileLinks(attributeRef, metaValues);
+                }
+            }
+        });
+        linkGraph.keySet().removeIf(attributeRef -> attributeRef.getEntityId().equals(assetId) && !sourceRefs.contains(attributeRef));
+    }
+
+    protected static List<Value> getLinkMetaValues(AssetAttribute attribute) {
+        return attribute.getMetaStream()
             .filter(isMetaNameEqualTo(MetaItemType.ATTRIBUTE_LINK))
-            .forEach(metaItem -> processLinkedAttributeUpdate(em, metaItem, attribute.getState().orElse(null)));
+            .map(metaItem -> metaItem.getValue().orElse(null))
+            .collect(Collectors.toList());
+    }
+
+    protected CompiledAttributeLinks compileLinks(AttributeRef sourceRef, List<Value> metaValues) {
+        List<AttributeLink> links = new ArrayList<>(metaValues.size());
+        for (Value metaValue : metaValues) {
+            AttributeLink attributeLink = null;
+            try {
+                attributeLink = Container.JSON.readValue(metaValue != null ? metaValue.toJson() : "", AttributeLink.class);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to deserialize AttributeLink", e);
+            }
+            links.add(attributeLink);
+        }
+
+        CompiledAttributeLinks compiledLinks = new CompiledAttributeLinks(metaValues, links);
+        linkGraph.put(sourceRef, compiledLinks);
 
+        if (isLinkCycle(sourceRef)) {
+            // Updates from this service are not forwarded again, so a cycle doesn't loop but is most likely a mistake
+            LOG.warning("Attribute links of attribute lead back to the attribute itself: " + sourceRef);
+        }
+        return compiledLinks;
+    }
+
+    /**
+     * @return <code>true</code> if the attribute can be reached by following the links starting at the attribute.
+     */
+    protected boolean isLinkCycle(AttributeRef sourceRef) {
+        Set<AttributeRef> visited = new HashSet<>();
+        Deque<AttributeRef> pending = new ArrayDeque<>();
+        pending.push(sourceRef);
+        while (!pending.isEmpty()) {
+            CompiledAttributeLinks compiledLinks = linkGraph.get(pending.pop());
+            if (compiledLinks == null) {
+                continue;
+            }
+            for (AttributeLink attributeLink : compiledLinks.links) {
+                if (attributeLink == null || attributeLink.getAttributeRef() == null) {
+                    continue;
+                }
+                if (attributeLink.getAttributeRef().equals(sourceRef)) {
+                    return true;
+                }
+                if (visited.add(attributeLink.getAttributeRef())) {
+                    pending.push(attributeLink.getAttributeRef());
+                }
+            }
+        }
         return false;
     }
 
@@ -134,19 +287,11 @@ public class AssetAttributeLinkingService implements ContainerService, AssetUpda
         assetProcessingService.sendAttributeEvent(attributeEvent, ATTRIBUTE_LINKING_SERVICE);
     }
 
-    protected void processLinkedAttributeUpdate(EntityManager em, MetaItem metaItem, AttributeState attributeState) {
+    protected void processLinkedAttributeUpdate(EntityManager em, AttributeLink attributeLink, AttributeState attributeState) {
         if (attributeState == null)
             return;
         LOG.fine("Processing attribute state for linked attribute");
 
-        AttributeLink attributeLink = null;
-
-        try {
-            attributeLink = Container.JSON.readValue(metaItem.getValue().map(Value::toJson).orElse(""), AttributeLink.class);
-        } catch (IOException e) {
-            LOG.log(Level.WARNING, "Failed to deserialize AttributeLink", e);
-        }
-
         if (attributeLink == null) {
             throw new AssetProcessingException(Reason.INVALID_ATTRIBUTE_LINK);
         }
@@ -166,24 +311,23 @@ public class AssetAttributeLinkingService implements ContainerService, AssetUpda
 
         Value value = sendConvertedValue.value;
 
-        Optional<AssetAttribute> attribute = getAttribute(em, assetStorageService, attributeLink.getAttributeRef());
-        if (attribute.isPresent()) {
-            // Do built in value conversion
-            Optional<ValueType> attributeValueType = attribute.get().getType().map(AttributeValueDescriptor::getValueType);
-
-            if (value != null && attributeValueType.isPresent()) {
-                if (attributeValueType.get() != value.getType()) {
-                    LOG.fine("Trying to convert value: " + value.getType() + " -> " + attributeValueType.get());
-                    Optional<Value> convertedValue = Values.convertToValue(value, attributeValueType.get());
-                    if (!convertedValue.isPresent()) {
-                        LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType.get());
-                        LOG.warning("Cannot send linked attribute update");
-                        return;
-                    } else {
-                        value = convertedValue.get();
-                    }
-                }
+        // Do built in value conversion
+        Optional<ValueType> attributeValueType = linkedAttributeValueTypes.computeIfAbsent(
+            attributeLink.getAttributeRef(),
+            attributeRef -> getAttribute(em, assetStorageService, attributeRef)
+                .flatMap(AssetAttribute::getType)
+                .map(AttributeValueDescriptor::getValueType)
+        );
+
+        if (value != null && attributeValueType.isPresent() && attributeValueType.get() != value.getType()) {
+            LOG.fine("Trying to convert value: " + value.getType() + " -> " + attributeValueType.get());
+            Optional<Value> convertedValue = Values.convertToValue(value, attributeValueType.get());
+            if (!convertedValue.isPresent()) {
+                LOG.warning("Failed to convert value: " + value.getType() + " -> " + attributeValueType.get());
+                LOG.warning("Cannot send linked attribute update");
+                return;
             }
+            value = convertedValue.get();
         }
 
         sendAttributeEvent(new AttributeEvent(attributeLink.getAttributeRef(), value));
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+import org.postgresql.util.PGobject;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces attribute value updates per asset and attribute and writes them to the database in batches, instead of
+ * rewriting the asset row for every processed event. Only the latest value (by value timestamp) of an attribute is
+ * kept until the next {@link #flush}, all pending attributes of an asset are then written with a single statement.
+ * <p>
+ * A pending value is only applied if it is not older than the value stored in the database, so a concurrent asset
+ * merge with a newer value wins while a merge of a stale asset copy is corrected by the next flush.
+ */
+public class AssetAttributeWriteBehind {
+
+    private static final Logger LOG = Logger.getLogger(AssetAttributeWriteBehind.class.getName());
+
+    /**
+     * Merges the pending attributes (a JSON object of attribute name to value and value timestamp) into the
+     * existing attributes of the asset, skipping missing attributes and attributes with a newer stored value.
+     */
+    public static final String UPDATE_SQL =
+        "update ASSET set ATTRIBUTES = ATTRIBUTES || coalesce((" +
+            "select jsonb_object_agg(P.key, (ATTRIBUTES -> P.key) || P.value)" +
+            " from jsonb_each(?) P" +
+            " where ATTRIBUTES -> P.key is not null" +
+            " and coalesce((ATTRIBUTES #>> array[P.key, 'valueTimestamp'])::numeric, 0) <= (P.value ->> 'valueTimestamp')::numeric" +
+            "), '{}'::jsonb) where ID = ?";
+
+    public static class PendingValue {
+        final protected Value value;
+        final protected long timestamp;
+
+        public PendingValue(Value value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public Value getValue() {
+            return value;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+    final protected int batchSize;
+    // Pending values by asset ID and attribute name, the inner map is only accessed in atomic map operations
+    final protected ConcurrentHashMap<String, Map<String, PendingValue>> pending = new ConcurrentHashMap<>();
+    // Values currently being written by a flush, still visible to readers until the transaction completed
+    protected volatile Map<String, Map<String, PendingValue>> flushing = Collections.emptyMap();
+    final protected AtomicLong queuedCount = new AtomicLong();
+    final protected AtomicLong writtenCount = new AtomicLong();
+    final protected AtomicLong failedFlushCount = new AtomicLong();
+    final protected AtomicLong lastFlushMillis = new AtomicLong();
+
+    public AssetAttributeWriteBehind(PersistenceService persistenceService, int batchSize) {
+        this.persistenceService = persistenceService;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queue the value for writing, replaces any pending value of the attribute unless that is newer.
+     */
+    public void add(String assetId, String attributeName, Value value, long timestamp) {
+        queuedCount.incrementAndGet();
+        pending.compute(assetId, (id, attributes) -> {
+            if (attributes == null) {
+                attributes = new HashMap<>();
+            }
+            attributes.merge(
+                attributeName,
+                new PendingValue(value, timestamp),
+                (existing, update) -> update.timestamp >= existing.timestamp ? update : existing
+            );
+            return attributes;
+        });
+    }
+
+    /**
+     * @return A copy of the pending values of the asset, empty if there are none.
+     */
+    public Map<String, PendingValue> getPending(String assetId) {
+        // Pending before flushing, a flush moves the values into the already published flushing map
+        Map<String, PendingValue> result = new HashMap<>();
+        pending.computeIfPresent(assetId, (id, attributes) -> {
+            result.putAll(attributes);
+            return attributes;
+        });
+        flushing.getOrDefault(assetId, Collections.emptyMap()).forEach((attributeName, flushingValue) ->
+            result.merge(attributeName, flushingValue, (existing, flushed) -> flushed.timestamp > existing.timestamp ? flushed : existing)
+        );
+        return result;
+    }
+
+    /**
+     * Sets the pending values on the attributes of the given asset, if they are newer than the asset's values.
+     */
+    public void applyPending(Asset asset) {
+        if (asset == null || (pending.isEmpty() && flushing.isEmpty())) {
+            return;
+        }
+        getPending(asset.getId()).forEach((attributeName, pendingValue) ->
+            asset.getAttribute(attributeName).ifPresent(attribute -> {
+                long timestamp = attribute.getValueTimestamp().orElse(0L);
+                if (pendingValue.timestamp >= timestamp) {
+                    attribute.setValue(pendingValue.value, pendingValue.timestamp);
+                    asset.replaceAttribute(attribute);
+                }
+            })
+        );
+    }
+
+    public int getPendingAssetCount() {
+        return pending.size();
+    }
+
+    /**
+     * Write all pending values to the database, values that fail to be written are queued again.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Publish the flushing map before moving the values, so getPending() always finds a value in one of them
+        Map<String, Map<String, PendingValue>> drained = new ConcurrentHashMap<>();
+        flushing = drained;
+        for (String assetId : new ArrayList<>(pending.keySet())) {
+            pending.computeIfPresent(assetId, (id, attributes) -> {
+                if (!attributes.isEmpty()) {
+                    drained.put(id, attributes);
+                }
+                return null;
+            });
+        }
+
+        if (drained.isEmpty()) {
+            flushing = Collections.emptyMap();
+            return;
+        }
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+                    int count = 0;
+                    for (Map.Entry<String, Map<String, PendingValue>> entry : drained.entrySet()) {
+                        PGobject pgJsonAttributes = new PGobject();
+                        pgJsonAttributes.setType("jsonb");
+                        pgJsonAttributes.setValue(toJson(entry.getValue()));
+                        statement.setObject(1, pgJsonAttributes);
+                        statement.setString(2, entry.getKey());
+                        statement.addBatch();
+                        if (++count % batchSize == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+                    if (count % batchSize != 0) {
+                        statement.executeBatch();
+                    }
+                }
+            }));
+            writtenCount.addAndGet(drained.values().stream().mapToLong(Map::size).sum());
+            LOG.fine("Stored pending attribute values of assets: " + drained.size());
+        } catch (Exception ex) {
+            failedFlushCount.incrementAndGet();
+            LOG.log(Level.WARNING, "Failed to store pending attribute values of assets, will retry: " + drained.size(), ex);
+            drained.forEach((assetId, attributes) ->
+                attributes.forEach((attributeName, pendingValue) ->
+                    add(assetId, attributeName, pendingValue.value, pendingValue.timestamp)
+                )
+            );
+        } finally {
+            flushing = Collections.emptyMap();
+            lastFlushMillis.set(System.currentTimeMillis() - startMillis);
+        }
+    }
+
+    protected static String toJson(Map<String, PendingValue> attributes) {
+        StringBuilder json = new StringBuilder("{");
+        attributes.forEach((attributeName, pendingValue) -> {
+            if (json.length() > 1) {
+                json.append(",");
+            }
+            // Careful, do not skip a null value here, the attribute value must be set to JSON null
+            json.append(Values.create(attributeName).toJson())
+                .append(":{\"value\":").append(pendingValue.value == null ? "null" : pendingValue.value.toJson())
+                .append(",\"valueTimestamp\":").append(pendingValue.timestamp)
+                .append("}");
+        });
+        return json.append("}").toString();
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("pendingAssets", getPendingAssetCount());
+        value.put("queuedCount", queuedCount.get());
+        value.put("writtenCount", writtenCount.get());
+        value.put("failedFlushCount", failedFlushCount.get());
+        value.put("lastFlushMillis", lastFlushMillis.get());
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "pendingAssets=" + getPendingAssetCount() +
+            ", queuedCount=" + queuedCount.get() +
+            ", writtenCount=" + writtenCount.get() +
+            '}';
+    }
+}
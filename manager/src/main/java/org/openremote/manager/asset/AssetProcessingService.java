@@ -20,8 +20,10 @@
 package org.openremote.manager.asset;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Header;
 import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
 import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
@@ -57,6 +59,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.asset.AssetProcessingException.Reason.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.asset.agent.AgentLink.getAgentLink;
@@ -127,6 +130,16 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     // TODO: Some of these options should be configurable depending on expected load etc.
     // Message topic for communicating individual asset attribute changes
     public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    /**
+     * Number of partitions the {@link #ASSET_QUEUE} is split into, events are assigned to a partition by asset ID
+     * and partitions are processed concurrently. The default of <code>1</code> processes all events sequentially
+     * while holding the global lock.
+     */
+    public static final String ASSET_QUEUE_PARTITIONS = "ASSET_QUEUE_PARTITIONS";
+    public static final int ASSET_QUEUE_PARTITIONS_DEFAULT = 1;
+    public static final String ASSET_QUEUE_PARTITION_SIZE = "ASSET_QUEUE_PARTITION_SIZE";
+    public static final int ASSET_QUEUE_PARTITION_SIZE_DEFAULT = 25000;
+    public static final String HEADER_PARTITION = AssetProcessingService.class.getName() + ".HEADER_PARTITION";
 
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
@@ -143,6 +156,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
+    final protected List<AssetQueuePartition> partitions = new ArrayList<>();
 
     @Override
     public int getPriority() {
@@ -177,12 +191,26 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        int partitionCount = getInteger(container.getConfig(), ASSET_QUEUE_PARTITIONS, ASSET_QUEUE_PARTITIONS_DEFAULT);
+        int partitionSize = getInteger(container.getConfig(), ASSET_QUEUE_PARTITION_SIZE, ASSET_QUEUE_PARTITION_SIZE_DEFAULT);
+        partitions.clear();
+        if (partitionCount > 1) {
+            LOG.info("Processing asset queue in partitioned mode with partitions: " + partitionCount);
+            for (int i = 0; i < partitionCount; i++) {
+                partitions.add(new AssetQueuePartition(i, partitionSize));
+            }
+        }
+
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
-
+        for (AssetQueuePartition partition : partitions) {
+            partition.setEndpoint(
+                messageBrokerService.getContext().getEndpoint(partition.getEndpointUri(), SedaEndpoint.class)
+            );
+        }
     }
 
     @Override
@@ -216,173 +244,223 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
          - See pseudocode here: http://activemq.apache.org/should-i-use-xa.html
          - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
-        from(ASSET_QUEUE)
-            .routeId("AssetQueueProcessor")
-            .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
-
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getEntityId() == null || event.getEntityId().isEmpty())
-                    return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                    return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
-                }
+        if (partitions.isEmpty()) {
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueProcessor")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .doTry()
+                // Lock the global context, we can only process attribute events when the
+                // context isn't locked. Agent- and RulesService lock the context while protocols
+                // or rulesets are modified.
+                .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () ->
+                    processFromAssetQueue(exchange)
+                ))
+                .endDoTry()
+                .doCatch(AssetProcessingException.class)
+                .process(handleAssetProcessingException(LOG));
+        } else {
+            // Partitioned mode, dispatch events by asset ID onto partitions with a single consumer each, this
+            // keeps events of an asset in order while different assets are processed concurrently. The global
+            // lock is not taken here, the processors guard their own shared state.
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueDispatcher")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .process(exchange -> {
+                    AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+                    exchange.getIn().setHeader(
+                        HEADER_PARTITION,
+                        AssetQueuePartition.getPartitionIndex(event.getEntityId(), partitions.size())
+                    );
+                    exchange.getIn().setHeader(AssetQueuePartition.HEADER_DISPATCH_TIME, System.currentTimeMillis());
+                })
+                .recipientList(method(this, "getPartitionEndpointUri"));
+
+            for (AssetQueuePartition partition : partitions) {
+                from(partition.getEndpointUri())
+                    .routeId("AssetQueueProcessor" + partition.getIndex())
+                    .doTry()
+                    .process(exchange -> {
+                        partition.beforeProcessing(exchange, System.currentTimeMillis());
+                        processFromAssetQueue(exchange);
+                    })
+                    .endDoTry()
+                    .doCatch(AssetProcessingException.class)
+                    .process(handleAssetProcessingException(LOG));
+            }
+        }
+    }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
-                // still won't make this procedure consistent with the message queue from which we consume!
-                persistenceService.doTransaction(em -> {
-                    Asset asset = assetStorageService.find(em, event.getEntityId(), true);
-                    if (asset == null)
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
-
-
-                    AssetAttribute oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null)
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
-
-                    switch (source) {
-                        case CLIENT:
-
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.getMetaItem(MetaItemType.ACCESS_PUBLIC_WRITE).isPresent()) {
-                                    throw new AssetProcessingException(NO_AUTH_CONTEXT);
-                                }
-                                // Check read-only
-                                if (oldAttribute.isReadOnly()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
-                                                                                                       asset.getRealm())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check read-only
-                                if (oldAttribute.isReadOnly() && !authContext.isSuperUser()) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Regular user must have write attributes role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
-                                                                              Constants.KEYCLOAK_CLIENT_ID)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                                                         event.getEntityId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.isAccessRestrictedWrite()) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
-                            break;
+    /**
+     * @return The endpoint of the partition assigned to the exchange by the dispatcher route.
+     */
+    public String getPartitionEndpointUri(@Header(HEADER_PARTITION) int partitionIndex) {
+        return partitions.get(partitionIndex).getEndpointUri();
+    }
 
-                        case SENSOR:
-                            Optional<AssetAttribute> protocolConfiguration =
-                                getAgentLink(oldAttribute).flatMap(agentService::getProtocolConfiguration);
+    /**
+     * @return The processing partitions, empty if the service is not running in partitioned mode.
+     */
+    public List<AssetQueuePartition> getPartitions() {
+        return partitions;
+    }
 
-                            // Sensor event must be for an attribute linked to a protocol configuration
-                            if (!protocolConfiguration.isPresent()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
-                            break;
-                    }
+    protected void processFromAssetQueue(Exchange exchange) {
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        LOG.finest("Processing: " + event);
+        if (event.getEntityId() == null || event.getEntityId().isEmpty())
+            return;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return;
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
 
-                    // Agent attributes can't be updated with events
-                    if (asset.getWellKnownType() == AssetType.AGENT) {
-                        throw new AssetProcessingException(ILLEGAL_AGENT_UPDATE);
-                    }
+        // Process the asset update in a database transaction, this ensures that processors
+        // will see consistent database state and we only commit if no processor failed. This
+        // still won't make this procedure consistent with the message queue from which we consume!
+        persistenceService.doTransaction(em -> {
+            Asset asset = assetStorageService.find(em, event.getEntityId(), true);
+            if (asset == null)
+                throw new AssetProcessingException(ASSET_NOT_FOUND);
+
+            // Values of previous events might not have been written to the database yet
+            assetStorageService.applyPendingAttributeValues(asset);
+
+            AssetAttribute oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+            if (oldAttribute == null)
+                throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+
+            switch (source) {
+                case CLIENT:
+
+                    AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                    if (authContext == null) {
+                        // Check attribute has public write flag
+                        if (!oldAttribute.getMetaItem(MetaItemType.ACCESS_PUBLIC_WRITE).isPresent()) {
+                            throw new AssetProcessingException(NO_AUTH_CONTEXT);
+                        }
+                        // Check read-only
+                        if (oldAttribute.isReadOnly()) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+                    } else {
+                        // Check realm, must be accessible
+                        if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
+                                                                                               asset.getRealm())) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+
+                        // Check read-only
+                        if (oldAttribute.isReadOnly() && !authContext.isSuperUser()) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.isExecutable() && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(Values::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+                        // Regular user must have write attributes role
+                        if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
+                                                                      Constants.KEYCLOAK_CLIENT_ID)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                        // Check restricted user
+                        if (identityService.getIdentityProvider().isRestrictedUser(authContext.getUserId())) {
+                            // Must be asset linked to user
+                            if (!assetStorageService.isUserAsset(authContext.getUserId(),
+                                                                 event.getEntityId())) {
+                                throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                            }
+                            // Must be writable by restricted client
+                            if (!oldAttribute.isAccessRestrictedWrite()) {
+                                throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                            }
                         }
                     }
+                    break;
 
-                    // Check if attribute is well known and the value is valid
-                    AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
-                        // Check if the value is valid
-                        wellKnownAttribute.getValueDescriptor()
-                            .getValidator().flatMap(v -> v.apply(event.getValue().orElse(null)))
-                            .ifPresent(validationFailure -> {
-                                throw new AssetProcessingException(
-                                    INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
-                                );
-                            });
-                    });
+                case SENSOR:
+                    Optional<AssetAttribute> protocolConfiguration =
+                        getAgentLink(oldAttribute).flatMap(agentService::getProtocolConfiguration);
 
-                    // Either use the timestamp of the event or set event time to processing time
-                    long processingTime = timerService.getCurrentTimeMillis();
-                    long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
+                    // Sensor event must be for an attribute linked to a protocol configuration
+                    if (!protocolConfiguration.isPresent()) {
+                        throw new AssetProcessingException(INVALID_AGENT_LINK);
+                    }
+                    break;
+            }
 
-                    // Ensure timestamp of event is not in the future as that would essentially block access to
-                    // the attribute until after that time (maybe that is desirable behaviour)
-                    if (eventTime - processingTime > 0) {
-                        // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            // Agent attributes can't be updated with events
+            if (asset.getWellKnownType() == AssetType.AGENT) {
+                throw new AssetProcessingException(ILLEGAL_AGENT_UPDATE);
+            }
+
+            // For executable attributes, non-sensor sources can set a writable attribute execute status
+            if (oldAttribute.isExecutable() && source != SENSOR) {
+                Optional<AttributeExecuteStatus> status = event.getValue()
+                    .flatMap(Values::getString)
+                    .flatMap(AttributeExecuteStatus::fromString);
+
+                if (status.isPresent() && !status.get().isWrite()) {
+                    throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                }
+            }
+
+            // Check if attribute is well known and the value is valid
+            AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
+                // Check if the value is valid
+                wellKnownAttribute.getValueDescriptor()
+                    .getValidator().flatMap(v -> v.apply(event.getValue().orElse(null)))
+                    .ifPresent(validationFailure -> {
                         throw new AssetProcessingException(
-                            EVENT_IN_FUTURE,
-                            "current time: " + new Date(processingTime) + "/" + processingTime
-                                + ", event time: " + new Date(eventTime) + "/" + eventTime
+                            INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE
                         );
-                    }
+                    });
+            });
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-                    // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-                    oldAttribute.getValueTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
-                        }
-                    );
+            // Either use the timestamp of the event or set event time to processing time
+            long processingTime = timerService.getCurrentTimeMillis();
+            long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    AssetAttribute updatedAttribute = oldAttribute.deepCopy();
-                    updatedAttribute.setValue(event.getValue().orElse(null), eventTime);
+            // Ensure timestamp of event is not in the future as that would essentially block access to
+            // the attribute until after that time (maybe that is desirable behaviour)
+            if (eventTime - processingTime > 0) {
+                // TODO: Decide how to handle update events in the future - ignore or change timestamp
+                throw new AssetProcessingException(
+                    EVENT_IN_FUTURE,
+                    "current time: " + new Date(processingTime) + "/" + processingTime
+                        + ", event time: " + new Date(eventTime) + "/" + eventTime
+                );
+            }
 
-                    // Validate constraints of attribute
-                    List<ValidationFailure> validationFailures = updatedAttribute.getValidationFailures();
-                    if (!validationFailures.isEmpty()) {
-                        throw new AssetProcessingException(ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString());
-                    }
+            // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+            // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
+            // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
+            oldAttribute.getValueTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
+                lastStateTime -> {
+                    throw new AssetProcessingException(
+                        EVENT_OUTDATED,
+                        "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                            + ", event time: " + new Date(eventTime) + "/" + eventTime);
+                }
+            );
 
-                    // Push through all processors
-                    boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+            // Create a copy of the attribute and set the new value and timestamp
+            AssetAttribute updatedAttribute = oldAttribute.deepCopy();
+            updatedAttribute.setValue(event.getValue().orElse(null), eventTime);
 
-                    // Publish a new event for clients if no processor consumed the update completely
-                    if (!consumedCompletely) {
-                        publishClientEvent(asset, updatedAttribute);
-                    }
-                });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+            // Validate constraints of attribute
+            List<ValidationFailure> validationFailures = updatedAttribute.getValidationFailures();
+            if (!validationFailures.isEmpty()) {
+                throw new AssetProcessingException(ATTRIBUTE_VALIDATION_FAILURE, validationFailures.toString());
+            }
+
+            // Push through all processors
+            boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+
+            // Publish a new event for clients if no processor consumed the update completely
+            if (!consumedCompletely) {
+                publishClientEvent(asset, updatedAttribute);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single processing lane of the {@link AssetProcessingService#ASSET_QUEUE} when the service is running in
+ * partitioned mode. Events are assigned to a partition by hashing their asset ID, each partition has exactly one
+ * consumer so events for the same asset are processed in order, while different partitions run concurrently.
+ */
+public class AssetQueuePartition {
+
+    /**
+     * Exchange header with the time (epoch millis) the event was dispatched to a partition.
+     */
+    public static final String HEADER_DISPATCH_TIME = AssetQueuePartition.class.getName() + ".HEADER_DISPATCH_TIME";
+
+    public static final String ENDPOINT_PREFIX = "seda://AssetQueuePartition";
+
+    final protected int index;
+    final protected String endpointUri;
+    final protected AtomicLong processedCount = new AtomicLong();
+    final protected AtomicLong lastLagMillis = new AtomicLong();
+    final protected AtomicLong maxLagMillis = new AtomicLong();
+    protected SedaEndpoint endpoint;
+
+    public AssetQueuePartition(int index, int queueSize) {
+        this.index = index;
+        this.endpointUri = ENDPOINT_PREFIX + index
+            + "?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size="
+            + queueSize;
+    }
+
+    /**
+     * @return The partition of the given asset, the same asset ID always maps to the same partition.
+     */
+    public static int getPartitionIndex(String assetId, int partitionCount) {
+        return assetId == null ? 0 : Math.floorMod(assetId.hashCode(), partitionCount);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getEndpointUri() {
+        return endpointUri;
+    }
+
+    public void setEndpoint(SedaEndpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Records the time the event waited in this partition's queue, call before processing the exchange.
+     */
+    public void beforeProcessing(Exchange exchange, long currentTimeMillis) {
+        Long dispatchTime = exchange.getIn().getHeader(HEADER_DISPATCH_TIME, Long.class);
+        if (dispatchTime != null) {
+            long lag = Math.max(0, currentTimeMillis - dispatchTime);
+            lastLagMillis.set(lag);
+            maxLagMillis.accumulateAndGet(lag, Math::max);
+        }
+        processedCount.incrementAndGet();
+    }
+
+    public int getQueueSize() {
+        return endpoint != null ? endpoint.getCurrentQueueSize() : 0;
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("queueSize", getQueueSize());
+        value.put("processedCount", getProcessedCount());
+        value.put("lastLagMillis", getLastLagMillis());
+        value.put("maxLagMillis", getMaxLagMillis());
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "index=" + index +
+            ", queueSize=" + getQueueSize() +
+            ", processedCount=" + getProcessedCount() +
+            ", lastLagMillis=" + getLastLagMillis() +
+            '}';
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.openremote.manager.asset;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.security.ManagerIdentityService;
@@ -44,7 +45,10 @@ import org.openremote.model.value.Values;
 import javax.persistence.OptimisticLockException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -62,6 +66,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     private static final Logger LOG = Logger.getLogger(AssetResourceImpl.class.getName());
 
     protected final static Asset[] EMPTY_ASSETS = new Asset[0];
+    protected static final int STREAM_FETCH_SIZE = 500;
     protected final AssetStorageService assetStorageService;
     protected final MessageBrokerService messageBrokerService;
 
@@ -537,46 +542,96 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     @Override
     public Asset[] queryAssets(RequestParams requestParams, AssetQuery query) {
         try {
+            query = restrictQuery(query);
             if (query == null) {
                 return EMPTY_ASSETS;
             }
 
-            if (isRestrictedUser()) {
-                // A restricted user can only query linked assets
-                query = query.userIds(getUserId());
+            List<Asset> result = assetStorageService.findAll(query);
 
-                // A restricted user may not query private asset data, only restricted or public
-                if (query.access == null || query.access == Access.PRIVATE)
-                    query.access(Access.PROTECTED);
-            }
+            // Compress response (the request attribute enables the interceptor)
+            request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
 
-            String realm = query.tenant != null && !isNullOrEmpty(query.tenant.realm)
-                ? query.tenant.realm
-                : getAuthenticatedRealm();
+            return result.toArray(new Asset[result.size()]);
 
-            if (TextUtil.isNullOrEmpty(realm)) {
-                throw new WebApplicationException(NOT_FOUND);
-            }
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, BAD_REQUEST);
+        }
+    }
 
-            if (!isTenantActiveAndAccessible(realm)) {
-                return EMPTY_ASSETS;
-            }
+    @Override
+    public Response streamAssets(RequestParams requestParams, AssetQuery query) {
+        AssetQuery restrictedQuery;
+        try {
+            restrictedQuery = restrictQuery(query);
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, BAD_REQUEST);
+        }
+
+        if (restrictedQuery == null) {
+            return Response.ok(EMPTY_ASSETS).build();
+        }
+
+        // Compress response (the request attribute enables the interceptor)
+        request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
 
-            // This replicates behaviour of old getRoot and getChildren methods
-            if (!isSuperUser()) {
-                query.tenant(new TenantPredicate(realm));
+        StreamingOutput output = outputStream -> {
+            JsonGenerator generator = JSON.getFactory().createGenerator(outputStream);
+            generator.writeStartArray();
+            try {
+                assetStorageService.findAll(restrictedQuery, STREAM_FETCH_SIZE, asset -> {
+                    try {
+                        generator.writeObject(asset);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
             }
+            generator.writeEndArray();
+            generator.close();
+        };
 
-            List<Asset> result = assetStorageService.findAll(query);
+        return Response.ok(output).build();
+    }
 
-            // Compress response (the request attribute enables the interceptor)
-            request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
+    /**
+     * @return The query restricted to what the authenticated user may access, or <code>null</code> if the result is
+     * empty.
+     */
+    protected AssetQuery restrictQuery(AssetQuery query) {
+        if (query == null) {
+            return null;
+        }
 
-            return result.toArray(new Asset[result.size()]);
+        if (isRestrictedUser()) {
+            // A restricted user can only query linked assets
+            query = query.userIds(getUserId());
 
-        } catch (IllegalStateException ex) {
-            throw new WebApplicationException(ex, BAD_REQUEST);
+            // A restricted user may not query private asset data, only restricted or public
+            if (query.access == null || query.access == Access.PRIVATE)
+                query.access(Access.PROTECTED);
+        }
+
+        String realm = query.tenant != null && !isNullOrEmpty(query.tenant.realm)
+            ? query.tenant.realm
+            : getAuthenticatedRealm();
+
+        if (TextUtil.isNullOrEmpty(realm)) {
+            throw new WebApplicationException(NOT_FOUND);
+        }
+
+        if (!isTenantActiveAndAccessible(realm)) {
+            return null;
+        }
+
+        // This replicates behaviour of old getRoot and getChildren methods
+        if (!isSuperUser()) {
+            query.tenant(new TenantPredicate(realm));
         }
+
+        return query;
     }
 
     @Override
@@ -609,7 +664,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
             request.setAttribute(HttpHeaders.CONTENT_ENCODING, "gzip");
 
             return result.toArray(new Asset[result.size()]);
-        } catch (IllegalStateException ex) {
+        } catch (IllegalStateException | IllegalArgumentException ex) {
             throw new WebApplicationException(ex, BAD_REQUEST);
         }
     }
@@ -31,6 +31,7 @@ import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.console.ConsoleResourceImpl;
+import org.openremote.manager.concurrent.ManagerExecutorService;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.event.EventSubscriptionAuthorizer;
 import org.openremote.manager.gateway.GatewayService;
@@ -66,6 +67,7 @@ import javax.persistence.TypedQuery;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -78,6 +80,7 @@ import static java.util.stream.Collectors.joining;
 import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.event.ClientEventService.*;
 import static org.openremote.manager.rules.AssetQueryPredicate.asPredicate;
 import static org.openremote.model.asset.AssetAttribute.*;
@@ -122,6 +125,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
     public static final int PRIORITY = MED_PRIORITY;
+    /**
+     * Maximum time in milliseconds attribute values processed by {@link AssetProcessingService} may be held in memory
+     * before they are written to the database, values of the same asset are then written with a single statement.
+     * The default of <code>0</code> writes every value immediately in the processing transaction.
+     */
+    public static final String ASSET_STATE_WRITE_BEHIND_MILLIS = "ASSET_STATE_WRITE_BEHIND_MILLIS";
+    public static final int ASSET_STATE_WRITE_BEHIND_MILLIS_DEFAULT = 0;
+    public static final String ASSET_STATE_WRITE_BEHIND_BATCH_SIZE = "ASSET_STATE_WRITE_BEHIND_BATCH_SIZE";
+    public static final int ASSET_STATE_WRITE_BEHIND_BATCH_SIZE_DEFAULT = 500;
     protected static String META_ITEM_RESTRICTED_READ_SQL_FRAGMENT;
     protected static String META_ITEM_PUBLIC_READ_SQL_FRAGMENT;
 
@@ -199,6 +211,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
+    protected ManagerExecutorService executorService;
+    protected AssetAttributeWriteBehind writeBehind;
+    protected int writeBehindMillis;
+    protected ScheduledFuture<?> writeBehindFuture;
 
     /**
      * Will evaluate each {@link CalendarEventPredicate} and apply it depending on the {@link LogicGroup} type
@@ -286,6 +302,16 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         gatewayService = container.getService(GatewayService.class);
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, this);
 
+        writeBehindMillis = getInteger(container.getConfig(), ASSET_STATE_WRITE_BEHIND_MILLIS, ASSET_STATE_WRITE_BEHIND_MILLIS_DEFAULT);
+        if (writeBehindMillis > 0) {
+            LOG.info("Writing asset attribute values behind with maximum delay milliseconds: " + writeBehindMillis);
+            executorService = container.getService(ManagerExecutorService.class);
+            writeBehind = new AssetAttributeWriteBehind(
+                persistenceService,
+                getInteger(container.getConfig(), ASSET_STATE_WRITE_BEHIND_BATCH_SIZE, ASSET_STATE_WRITE_BEHIND_BATCH_SIZE_DEFAULT)
+            );
+        }
+
         clientEventService.addSubscriptionAuthorizer((auth, subscription) ->
             (subscription.isEventType(AssetTreeModifiedEvent.class))
                 && identityService.getIdentityProvider().canSubscribeWith(
@@ -335,11 +361,22 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         META_ITEM_PUBLIC_READ_SQL_FRAGMENT =
             " ('" + Arrays.stream(AssetModelUtil.getMetaItemDescriptors()).filter(i -> i.getAccess().publicRead).map(MetaItemDescriptor::getUrn).collect(joining("','")) + "')";
+
+        if (writeBehind != null) {
+            writeBehindFuture = executorService.scheduleWithFixedDelay(writeBehind::flush, writeBehindMillis, writeBehindMillis);
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (writeBehindFuture != null) {
+            writeBehindFuture.cancel(false);
+            writeBehindFuture = null;
+        }
+        if (writeBehind != null) {
+            // Don't lose pending values on shutdown
+            writeBehind.flush();
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -886,6 +923,22 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         });
     }
 
+    /**
+     * @return The IDs of all assets linked to any of the given users.
+     */
+    public Set<String> findUserAssetIds(List<String> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return persistenceService.doReturningTransaction(entityManager ->
+            new HashSet<>(entityManager.createQuery(
+                "select distinct ua.id.assetId from UserAsset ua where ua.id.userId in :userIds",
+                String.class)
+                .setParameter("userIds", userIds)
+                .getResultList())
+        );
+    }
+
     public boolean isUserAssets(String userId, List<String> assetIds) {
         if (TextUtil.isNullOrEmpty(userId) || assetIds == null || assetIds.isEmpty()) {
             return false;
@@ -940,7 +993,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(entityManager -> entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Boolean>() {
             @Override
             public Boolean execute(Connection connection) throws SQLException {
-                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where ? = ANY(get_asset_tree_path(a.ID)) AND a.id = ANY(?)")) {
+                try (PreparedStatement st = connection.prepareStatement("select count(*) from Asset a where a.PATH @> array[?::text] AND a.id = ANY(?)")) {
                     st.setString(1, parentAssetId);
                     st.setArray(2, st.getConnection().createArrayOf("text", assetIds.toArray()));
                     ResultSet rs = st.executeQuery();
@@ -1021,7 +1074,21 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         );
     }
 
+    /**
+     * Stream the result of the query to the consumer, reading rows from a server-side cursor in batches of the
+     * given fetch size instead of holding the whole result in memory.
+     */
+    public void findAll(AssetQuery query, int fetchSize, Consumer<Asset> consumer) {
+        persistenceService.doTransaction(em -> findAll(em, query, fetchSize, consumer));
+    }
+
     protected List<Asset> findAll(EntityManager em, AssetQuery query) {
+        List<Asset> result = new ArrayList<>();
+        findAll(em, query, 0, result::add);
+        return result;
+    }
+
+    protected void findAll(EntityManager em, AssetQuery query, int fetchSize, Consumer<Asset> consumer) {
 
         if (query.access == null)
             query.access = PRIVATE;
@@ -1030,6 +1097,14 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         if (query.orderBy == null && query.ids == null)
             query.orderBy = new OrderBy(OrderBy.Property.CREATED_ON);
 
+        // Keyset pagination requires an order, default to the creation date as used by AssetQuery.after(Asset)
+        if (query.after != null) {
+            if (query.orderBy == null || query.orderBy.property == null)
+                query.orderBy = new OrderBy(OrderBy.Property.CREATED_ON, query.orderBy != null && query.orderBy.descending);
+            if (!hasOrderBy(query))
+                throw new IllegalArgumentException("Asset query cursor can't be used with asset IDs unless the query is recursive: " + query);
+        }
+
         Pair<PreparedAssetQuery, Boolean> queryAndContainsCalendarPredicate = buildQuery(query);
         PreparedAssetQuery querySql = queryAndContainsCalendarPredicate.key;
         boolean containsCalendarPredicate = queryAndContainsCalendarPredicate.value;
@@ -1039,29 +1114,26 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             throw new IllegalArgumentException("Asset query contains a calendar event predicate which requires the attribute values and types to be included in the select (as calendar event predicate is applied post DB query)");
         }
 
-        return em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<List<Asset>>() {
-            @Override
-            public List<Asset> execute(Connection connection) throws SQLException {
-                LOG.fine("Executing: " + querySql.querySql);
-                try (PreparedStatement st = connection.prepareStatement(querySql.querySql)) {
-                    querySql.apply(st);
-
-                    try (ResultSet rs = st.executeQuery()) {
-                        List<Asset> result = new ArrayList<>();
-                        if (containsCalendarPredicate) {
-                            while (rs.next()) {
-                                Asset asset = mapResultTuple(query, rs);
-                                // Apply calendar event filter here (difficult to translate this into a SQL query)
-                                if (calendarEventPredicateMatches(query, asset)) {
-                                    result.add(asset);
-                                }
-                            }
-                        } else {
-                            while (rs.next()) {
-                                result.add(mapResultTuple(query, rs));
+        em.unwrap(Session.class).doWork(connection -> {
+            LOG.fine("Executing: " + querySql.querySql);
+            try (PreparedStatement st = connection.prepareStatement(querySql.querySql)) {
+                querySql.apply(st);
+                // The driver only uses a cursor inside a transaction and with a fetch size
+                st.setFetchSize(fetchSize);
+
+                try (ResultSet rs = st.executeQuery()) {
+                    if (containsCalendarPredicate) {
+                        while (rs.next()) {
+                            Asset asset = mapResultTuple(query, rs);
+                            // Apply calendar event filter here (difficult to translate this into a SQL query)
+                            if (calendarEventPredicateMatches(query, asset)) {
+                                consumer.accept(asset);
                             }
                         }
-                        return result;
+                    } else {
+                        while (rs.next()) {
+                            consumer.accept(mapResultTuple(query, rs));
+                        }
                     }
                 }
             }
@@ -1119,7 +1191,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
         if (!query.recursive || level == 3) {
             if (select == null || !select.excludePath) {
-                sb.append(", get_asset_tree_path(A.ID) as PATH");
+                // The recursive CTE doesn't carry the path column
+                sb.append(level == 3 ? ", get_asset_tree_path(A.ID) as PATH" : ", A.PATH as PATH");
             } else {
                 sb.append(", NULL as PATH");
             }
@@ -1272,36 +1345,90 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
 
+    protected boolean hasOrderBy(AssetQuery query) {
+        return (query.ids == null || query.recursive) && query.orderBy != null && query.orderBy.property != null;
+    }
+
+    protected String getOrderByColumn(AssetQuery.OrderBy.Property property) {
+        switch (property) {
+            case ASSET_TYPE:
+                return "A.ASSET_TYPE";
+            case NAME:
+                return "A.NAME";
+            case PARENT_ID:
+                return "A.PARENT_ID";
+            case REALM:
+                return "A.REALM";
+            default:
+                return "A.CREATED_ON";
+        }
+    }
+
     protected String buildOrderByString(AssetQuery query) {
         StringBuilder sb = new StringBuilder();
 
-        if (query.ids != null && !query.recursive) {
-            return sb.toString();
+        if (hasOrderBy(query)) {
+            // The ID makes the order unique, required for keyset pagination
+            String direction = query.orderBy.descending ? " desc" : " asc";
+            sb.append(" order by ").append(getOrderByColumn(query.orderBy.property)).append(direction);
+            sb.append(", A.ID").append(direction).append(" ");
         }
 
-        if (query.orderBy != null && query.orderBy.property != null) {
-            sb.append(" order by ");
+        return sb.toString();
+    }
 
-            switch (query.orderBy.property) {
-                case CREATED_ON:
-                    sb.append(" A.CREATED_ON ");
-                    break;
-                case ASSET_TYPE:
-                    sb.append(" A.ASSET_TYPE ");
-                    break;
-                case NAME:
-                    sb.append(" A.NAME ");
-                    break;
-                case PARENT_ID:
-                    sb.append(" A.PARENT_ID ");
-                    break;
-                case REALM:
-                    sb.append(" A.REALM ");
-                    break;
+    /**
+     * Restrict the results to the rows after the cursor in the order of the query. Nulls sort last in ascending and
+     * first in descending order, the same as the order by clause.
+     */
+    protected String buildCursorFilter(AssetQuery query, List<ParameterBinder> binders) {
+        if (query.after == null || !hasOrderBy(query)) {
+            return "";
+        }
+
+        if (query.after.id == null) {
+            throw new IllegalArgumentException("Asset query cursor requires the ID of the last asset: " + query.after);
+        }
+
+        String column = getOrderByColumn(query.orderBy.property);
+        String value = query.after.value;
+        String id = query.after.id;
+        boolean descending = query.orderBy.descending;
+        StringBuilder sb = new StringBuilder(" and ");
+
+        if (value == null) {
+            sb.append(descending
+                ? "(" + column + " is not null or A.ID < ?)"
+                : "(" + column + " is null and A.ID > ?)");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, id));
+            return sb.toString();
+        }
+
+        Object boundValue = value;
+        if (query.orderBy.property == AssetQuery.OrderBy.Property.CREATED_ON) {
+            try {
+                boundValue = new Timestamp(Long.parseLong(value));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Asset query cursor value must be epoch milliseconds: " + value);
             }
-            sb.append(query.orderBy.descending ? "desc " : "asc ");
         }
+        final Object cursorValue = boundValue;
+
+        String operator = descending ? " < " : " > ";
+        sb.append("(").append(column).append(operator).append("?");
+        sb.append(" or (").append(column).append(" = ? and A.ID").append(operator).append("?)");
+        if (!descending) {
+            sb.append(" or ").append(column).append(" is null");
+        }
+        sb.append(")");
 
+        final int pos1 = binders.size() + 1;
+        binders.add(st -> st.setObject(pos1, cursorValue));
+        final int pos2 = binders.size() + 1;
+        binders.add(st -> st.setObject(pos2, cursorValue));
+        final int pos3 = binders.size() + 1;
+        binders.add(st -> st.setString(pos3, id));
         return sb.toString();
     }
 
@@ -1410,7 +1537,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 }
                 isFirst = false;
 
-                sb.append("? <@ get_asset_tree_path(A.ID)");
+                sb.append("A.PATH @> ?");
                 final int pos = binders.size() + 1;
                 binders.add(st -> st.setArray(pos, st.getConnection().createArrayOf("text", pred.path)));
             }
@@ -1467,6 +1594,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
             if (query.attributeMeta != null) {
                 for (MetaPredicate attributeMetaPredicate : query.attributeMeta) {
+                    sb.append(buildAttributeMetaIndexFilter(binders, attributeMetaPredicate));
                     String attributeMetaFilter = buildAttributeMetaFilter(binders, attributeMetaPredicate);
 
                     if (attributeMetaFilter.length() > 0) {
@@ -1496,6 +1624,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     counter--;
                 }
             }
+
+            sb.append(buildCursorFilter(query, binders));
         }
         return containsCalendarPredicate;
     }
@@ -1569,6 +1699,26 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return Arrays.stream(pathPredicates).anyMatch(p -> p.path != null);
     }
 
+    /**
+     * Narrow down the assets with the indexed meta item names when the predicate requires a meta item with an exact
+     * name, the meta item filter is still applied to the remaining assets.
+     */
+    protected String buildAttributeMetaIndexFilter(List<ParameterBinder> binders, MetaPredicate attributeMetaPredicate) {
+        StringPredicate namePredicate = attributeMetaPredicate.itemNamePredicate;
+
+        if (namePredicate == null
+            || namePredicate.value == null
+            || !namePredicate.caseSensitive
+            || namePredicate.negate
+            || namePredicate.match != AssetQuery.Match.EXACT) {
+            return "";
+        }
+
+        final int pos = binders.size() + 1;
+        binders.add(st -> st.setString(pos, namePredicate.prepareValue()));
+        return " and ASSET_META_ITEM_NAMES(A.ATTRIBUTES) @> array[?::text]";
+    }
+
     protected String buildAttributeMetaFilter(List<ParameterBinder> binders, MetaPredicate...attributeMetaPredicates) {
         StringBuilder sb = new StringBuilder();
 
@@ -1933,7 +2083,22 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return asset;
     }
 
+    /**
+     * Store the attribute value, if {@link #ASSET_STATE_WRITE_BEHIND_MILLIS} is configured the value is only queued and
+     * written later, this then always returns <code>true</code>.
+     */
     public boolean storeAttributeValue(EntityManager em, String assetId, String attributeName, Value value, String timestamp) {
+        if (writeBehind != null) {
+            if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
+                LOG.fine(
+                    "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
+                );
+                return false;
+            }
+            writeBehind.add(assetId, attributeName, value, Long.parseLong(timestamp));
+            return true;
+        }
+
         return em.unwrap(Session.class).doReturningWork(connection -> {
             String update =
                 "update ASSET" +
@@ -1986,6 +2151,23 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         });
     }
 
+    /**
+     * Sets attribute values that have not been written yet (see {@link #ASSET_STATE_WRITE_BEHIND_MILLIS}) on the
+     * given asset, call this after loading an asset that is going to be updated.
+     */
+    public void applyPendingAttributeValues(Asset asset) {
+        if (writeBehind != null) {
+            writeBehind.applyPending(asset);
+        }
+    }
+
+    /**
+     * @return The attribute value write-behind queue or <code>null</code> if values are written immediately.
+     */
+    public AssetAttributeWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
     // TODO: Remove AssetTreeModifiedEvent once GWT client replaced
     protected void publishModificationEvents(PersistenceEvent<Asset> persistenceEvent) {
         Asset asset = persistenceEvent.getEntity();
@@ -29,10 +29,9 @@ import javax.persistence.EntityManager;
 /**
  * Process update of an asset attribute (value), from a {@link Source}.
  *
- * Implementations don't have to lock the whole context through {@link GlobalLock}, the
- * caller of this has already obtained the lock. Internal synchronization and thread-safety
- * must still be maintained if shared state of a processor can be modified by concurrent tasks
- * maintained by that processor.
+ * Implementations must not lock the whole context through {@link GlobalLock}, updates of different
+ * assets can be processed concurrently (see {@link AssetProcessingService#ASSET_QUEUE_PARTITIONS}).
+ * Processors guard their shared state with their own {@link org.openremote.container.concurrent.ScopedLock}.
  */
 public interface AssetUpdateProcessor {
 
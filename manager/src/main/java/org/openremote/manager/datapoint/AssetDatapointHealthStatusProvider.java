@@ -66,6 +66,12 @@ public class AssetDatapointHealthStatusProvider implements ContainerHealthStatus
     public Value getHealthStatus() {
         ObjectValue value = Values.createObject();
         value.put("totalDatapoints", assetDatapointService.getDatapointsCount());
+        if (assetDatapointService.getIngester() != null) {
+            value.put("ingester", assetDatapointService.getIngester().getStatus());
+        }
+        if (assetDatapointService.getRollups() != null) {
+            value.put("rollups", assetDatapointService.getRollups().getStatus());
+        }
         return value;
     }
 }
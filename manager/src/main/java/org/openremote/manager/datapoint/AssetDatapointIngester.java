@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+import org.postgresql.util.PGobject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded buffer of datapoints that is drained by {@link #drain} with JDBC batch inserts, so storing
+ * datapoints doesn't hold up asset processing.
+ * <p>
+ * When the buffer is full the caller of {@link #offer} waits for space up to the configured timeout, if the buffer
+ * is still full the datapoint is rejected and must be stored by the caller. Only datapoints the database rejects,
+ * e.g. of a deleted asset, are dropped.
+ */
+public class AssetDatapointIngester {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointIngester.class.getName());
+
+    public static class PendingDatapoint {
+        final protected String entityId;
+        final protected String attributeName;
+        final protected String valueJson;
+        final protected long timestamp;
+
+        public PendingDatapoint(String entityId, String attributeName, String valueJson, long timestamp) {
+            this.entityId = entityId;
+            this.attributeName = attributeName;
+            this.valueJson = valueJson;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                "entityId='" + entityId + '\'' +
+                ", attributeName='" + attributeName + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+    final protected BlockingQueue<PendingDatapoint> buffer;
+    final protected int batchSize;
+    final protected long offerTimeoutMillis;
+    final protected AtomicLong storedCount = new AtomicLong();
+    final protected AtomicLong rejectedCount = new AtomicLong();
+    final protected AtomicLong failedBatchCount = new AtomicLong();
+    final protected AtomicLong droppedCount = new AtomicLong();
+    final protected AtomicLong lastBatchMillis = new AtomicLong();
+    final protected AtomicBoolean drainRequested = new AtomicBoolean();
+    // The batch being stored, kept after a transient failure and stored first by the next drain
+    final protected List<PendingDatapoint> retryBatch = new ArrayList<>();
+
+    public AssetDatapointIngester(PersistenceService persistenceService, int bufferSize, int batchSize, long offerTimeoutMillis) {
+        this.persistenceService = persistenceService;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    /**
+     * @return <code>false</code> if the buffer is full, the datapoint has not been queued.
+     */
+    public boolean offer(PendingDatapoint datapoint) {
+        try {
+            if (buffer.offer(datapoint) || buffer.offer(datapoint, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if a full batch is waiting and the caller should schedule {@link #drain} early, only
+     * returns <code>true</code> once until the next drain starts.
+     */
+    public boolean requestDrain() {
+        return buffer.size() >= batchSize && drainRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * Store all buffered datapoints in batches. A batch that fails with a transient error is kept and stored first by
+     * the next drain. If a batch violates a constraint (e.g. the asset was deleted), its datapoints are stored one by
+     * one and only the rejected datapoints are dropped.
+     */
+    public synchronized void drain() {
+        drainRequested.set(false);
+        while (!retryBatch.isEmpty() || buffer.drainTo(retryBatch, batchSize) > 0) {
+            long startMillis = System.currentTimeMillis();
+            try {
+                persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection ->
+                    insert(connection, retryBatch)
+                ));
+                storedCount.addAndGet(retryBatch.size());
+            } catch (Exception ex) {
+                failedBatchCount.incrementAndGet();
+                if (!isRowError(ex)) {
+                    LOG.log(Level.WARNING, "Failed to store batch of datapoints, will retry: " + retryBatch.size(), ex);
+                    return;
+                }
+                LOG.log(Level.INFO, "Batch of datapoints violates a constraint, storing them one by one: " + retryBatch.size(), ex);
+                insertEach(retryBatch);
+            } finally {
+                lastBatchMillis.set(System.currentTimeMillis() - startMillis);
+            }
+            retryBatch.clear();
+        }
+    }
+
+    protected void insertEach(List<PendingDatapoint> datapoints) {
+        for (PendingDatapoint datapoint : datapoints) {
+            try {
+                persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection ->
+                    insert(connection, Collections.singletonList(datapoint))
+                ));
+                storedCount.incrementAndGet();
+            } catch (Exception ex) {
+                droppedCount.incrementAndGet();
+                LOG.log(Level.WARNING, "Dropping datapoint that can't be stored: " + datapoint, ex);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the failure was caused by the data of a row (a data exception or integrity
+     * constraint violation) rather than a transient database or connection error.
+     */
+    protected static boolean isRowError(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void insert(Connection connection, List<PendingDatapoint> datapoints) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(AssetDatapointService.UPSERT_SQL)) {
+            for (PendingDatapoint datapoint : datapoints) {
+                PGobject pgJsonValue = new PGobject();
+                pgJsonValue.setType("jsonb");
+                pgJsonValue.setValue(datapoint.valueJson);
+
+                st.setString(1, datapoint.entityId);
+                st.setString(2, datapoint.attributeName);
+                st.setObject(3, pgJsonValue);
+                st.setTimestamp(4, new Timestamp(datapoint.timestamp));
+                st.addBatch();
+            }
+            st.executeBatch();
+        }
+    }
+
+    public int getBufferSize() {
+        return buffer.size();
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("bufferSize", getBufferSize());
+        value.put("bufferCapacity", getBufferSize() + buffer.remainingCapacity());
+        value.put("storedCount", storedCount.get());
+        value.put("rejectedCount", rejectedCount.get());
+        value.put("failedBatchCount", failedBatchCount.get());
+        value.put("droppedCount", droppedCount.get());
+        value.put("lastBatchMillis", lastBatchMillis.get());
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "bufferSize=" + getBufferSize() +
+            ", storedCount=" + storedCount.get() +
+            ", rejectedCount=" + rejectedCount.get() +
+            '}';
+    }
+}
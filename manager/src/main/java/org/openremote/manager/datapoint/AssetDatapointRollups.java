@@ -0,0 +1,292 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.datapoint.DatapointInterval;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the <code>ASSET_DATAPOINT_ROLLUP</code> table with the minimum, maximum, sum, count and last value of
+ * numeric and boolean datapoints per attribute and minute, hour and day.
+ * <p>
+ * Stored datapoints mark the time range of their attribute as dirty, {@link #update} recomputes the buckets of dirty
+ * ranges from the datapoints (minutes) and from the finer rollups (hours and days). This is exact also when a
+ * datapoint is replaced. A dirty range is only cleared once no datapoint was added for the given grace period, so the
+ * transactions storing its datapoints have completed; {@link #update(AttributeRef)} recomputes the range of an
+ * attribute before it is queried without clearing it.
+ */
+public class AssetDatapointRollups {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointRollups.class.getName());
+
+    public static final String MINUTE = "minute";
+    public static final String HOUR = "hour";
+    public static final String DAY = "day";
+
+    protected static final String NUMERIC_VALUE =
+        "case jsonb_typeof(VALUE) " +
+            "when 'number' then VALUE::text::numeric " +
+            "when 'boolean' then case when VALUE::text::boolean then 1 else 0 end " +
+            "end";
+
+    protected static class DirtyRange {
+        final protected long fromTimestamp;
+        final protected long toTimestamp;
+        final protected long markedMillis;
+
+        protected DirtyRange(long fromTimestamp, long toTimestamp, long markedMillis) {
+            this.fromTimestamp = fromTimestamp;
+            this.toTimestamp = toTimestamp;
+            this.markedMillis = markedMillis;
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+    final protected long graceMillis;
+    final protected Map<AttributeRef, DirtyRange> dirty = new ConcurrentHashMap<>();
+    final protected AtomicLong updatedCount = new AtomicLong();
+    final protected AtomicLong failedUpdateCount = new AtomicLong();
+    final protected AtomicLong lastUpdateMillis = new AtomicLong();
+
+    public AssetDatapointRollups(PersistenceService persistenceService, long graceMillis) {
+        this.persistenceService = persistenceService;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * @return The resolution of the coarsest rollup that can serve the given interval.
+     */
+    public static String getResolution(DatapointInterval datapointInterval) {
+        switch (datapointInterval) {
+            case MINUTE:
+                return MINUTE;
+            case HOUR:
+                return HOUR;
+            default:
+                return DAY;
+        }
+    }
+
+    /**
+     * Mark the rollups of the attribute as dirty for the timestamp of a stored datapoint.
+     */
+    public void add(AttributeRef attributeRef, long timestamp) {
+        long now = System.currentTimeMillis();
+        dirty.merge(
+            attributeRef,
+            new DirtyRange(timestamp, timestamp, now),
+            (existing, update) -> new DirtyRange(
+                Math.min(existing.fromTimestamp, timestamp),
+                Math.max(existing.toTimestamp, timestamp),
+                now
+            )
+        );
+    }
+
+    /**
+     * Recompute the rollups of all dirty ranges, clears the ranges that have passed the grace period.
+     */
+    public synchronized void update() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long startMillis = System.currentTimeMillis();
+        for (AttributeRef attributeRef : new ArrayList<>(dirty.keySet())) {
+            DirtyRange range = dirty.get(attributeRef);
+            if (range == null || range.markedMillis > startMillis - graceMillis) {
+                continue;
+            }
+            if (recompute(attributeRef, range)) {
+                // Keep the range if datapoints were added in the meantime
+                dirty.remove(attributeRef, range);
+            }
+        }
+        lastUpdateMillis.set(System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * Recompute the dirty range of the attribute, if any, so a following query sees all stored datapoints.
+     */
+    public void update(AttributeRef attributeRef) {
+        DirtyRange range = dirty.get(attributeRef);
+        if (range != null) {
+            recompute(attributeRef, range);
+        }
+    }
+
+    protected boolean recompute(AttributeRef attributeRef, DirtyRange range) {
+        try {
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                Timestamp from = new Timestamp(range.fromTimestamp);
+                Timestamp to = new Timestamp(range.toTimestamp);
+                rollup(connection, MINUTE, null, attributeRef, from, to);
+                rollup(connection, HOUR, MINUTE, attributeRef, from, to);
+                rollup(connection, DAY, HOUR, attributeRef, from, to);
+            }));
+            updatedCount.incrementAndGet();
+            return true;
+        } catch (Exception ex) {
+            failedUpdateCount.incrementAndGet();
+            LOG.log(Level.WARNING, "Failed to update datapoint rollups of: " + attributeRef, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Compute the rollups of the datapoints stored before rollups were maintained, day by day. The last completed
+     * day is recorded with the rollups of the day, an interrupted backfill resumes with the following day.
+     */
+    public void backfill() {
+        LocalDate[] range = persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement st = connection.prepareStatement(
+                "select END_DAY, LAST_DAY from ASSET_DATAPOINT_ROLLUP_BACKFILL");
+                 ResultSet rs = st.executeQuery()) {
+                if (rs.next()) {
+                    return new LocalDate[]{rs.getDate(2) != null ? rs.getDate(2).toLocalDate() : null, rs.getDate(1).toLocalDate()};
+                }
+            }
+
+            // First start, later datapoints are rolled up when they are stored
+            LocalDate firstDay = null;
+            LocalDate endDay = LocalDate.now();
+            try (PreparedStatement st = connection.prepareStatement(
+                "select min(TIMESTAMP), max(TIMESTAMP) from ASSET_DATAPOINT");
+                 ResultSet rs = st.executeQuery()) {
+                if (rs.next() && rs.getTimestamp(1) != null) {
+                    firstDay = rs.getTimestamp(1).toLocalDateTime().toLocalDate();
+                    endDay = rs.getTimestamp(2).toLocalDateTime().toLocalDate();
+                }
+            }
+            LocalDate lastDay = firstDay != null ? firstDay.minusDays(1) : endDay;
+            try (PreparedStatement st = connection.prepareStatement(
+                "insert into ASSET_DATAPOINT_ROLLUP_BACKFILL (END_DAY, LAST_DAY) values (?, ?)")) {
+                st.setDate(1, Date.valueOf(endDay));
+                st.setDate(2, Date.valueOf(lastDay));
+                st.executeUpdate();
+            }
+            return new LocalDate[]{lastDay, endDay};
+        }));
+
+        LocalDate lastDay = range[0];
+        LocalDate endDay = range[1];
+        if (lastDay != null && !lastDay.isBefore(endDay)) {
+            return;
+        }
+
+        LocalDate firstDay = lastDay != null ? lastDay.plusDays(1) : endDay;
+        LOG.info("Computing datapoint rollups of existing datapoints from " + firstDay + " to " + endDay);
+        for (LocalDate day = firstDay; !day.isAfter(endDay); day = day.plusDays(1)) {
+            Timestamp from = Timestamp.valueOf(day.atStartOfDay());
+            Timestamp to = new Timestamp(Timestamp.valueOf(day.plusDays(1).atStartOfDay()).getTime() - 1);
+            Date completedDay = Date.valueOf(day);
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                rollup(connection, MINUTE, null, null, from, to);
+                rollup(connection, HOUR, MINUTE, null, from, to);
+                rollup(connection, DAY, HOUR, null, from, to);
+                try (PreparedStatement st = connection.prepareStatement(
+                    "update ASSET_DATAPOINT_ROLLUP_BACKFILL set LAST_DAY = ?")) {
+                    st.setDate(1, completedDay);
+                    st.executeUpdate();
+                }
+            }));
+        }
+        LOG.info("Computed datapoint rollups of existing datapoints");
+    }
+
+    /**
+     * Recompute the buckets of the given resolution that contain the timestamps from and to, either from the
+     * datapoints or from the rollups of the given source resolution.
+     */
+    protected static void rollup(Connection connection, String resolution, String sourceResolution, AttributeRef attributeRef, Timestamp from, Timestamp to) throws SQLException {
+        String filter = (attributeRef != null ? "ENTITY_ID = ? and ATTRIBUTE_NAME = ? and " : "") +
+            "TIMESTAMP >= date_trunc('" + resolution + "', ?::timestamp) " +
+            "and TIMESTAMP < date_trunc('" + resolution + "', ?::timestamp) + interval '1 " + resolution + "'";
+
+        String select = sourceResolution == null
+            ? "select ENTITY_ID, ATTRIBUTE_NAME, '" + resolution + "', date_trunc('" + resolution + "', TIMESTAMP), " +
+            "min(N), max(N), sum(N), count(N), (array_agg(VALUE order by TIMESTAMP desc))[1], max(TIMESTAMP) " +
+            "from (select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE, " + NUMERIC_VALUE + " as N " +
+            "from ASSET_DATAPOINT where " + filter + ") DP " +
+            // Datapoints of other value types have no rollups
+            "where N is not null "
+            : "select ENTITY_ID, ATTRIBUTE_NAME, '" + resolution + "', date_trunc('" + resolution + "', TIMESTAMP), " +
+            "min(MIN_VALUE), max(MAX_VALUE), sum(SUM_VALUE), sum(COUNT_VALUE), " +
+            "(array_agg(LAST_VALUE order by LAST_TIMESTAMP desc))[1], max(LAST_TIMESTAMP) " +
+            "from ASSET_DATAPOINT_ROLLUP where RESOLUTION = '" + sourceResolution + "' and " + filter + " ";
+
+        String sql = "insert into ASSET_DATAPOINT_ROLLUP " +
+            "(ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, TIMESTAMP, MIN_VALUE, MAX_VALUE, SUM_VALUE, COUNT_VALUE, LAST_VALUE, LAST_TIMESTAMP) " +
+            select +
+            "group by 1, 2, 4 " +
+            "on conflict (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, TIMESTAMP) do update set " +
+            "MIN_VALUE = excluded.MIN_VALUE, MAX_VALUE = excluded.MAX_VALUE, SUM_VALUE = excluded.SUM_VALUE, " +
+            "COUNT_VALUE = excluded.COUNT_VALUE, LAST_VALUE = excluded.LAST_VALUE, LAST_TIMESTAMP = excluded.LAST_TIMESTAMP";
+
+        try (PreparedStatement st = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (attributeRef != null) {
+                st.setString(i++, attributeRef.getEntityId());
+                st.setString(i++, attributeRef.getAttributeName());
+            }
+            st.setTimestamp(i++, from);
+            st.setTimestamp(i, to);
+            st.executeUpdate();
+        }
+    }
+
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("dirtyAttributes", getDirtyCount());
+        value.put("updatedCount", updatedCount.get());
+        value.put("failedUpdateCount", failedUpdateCount.get());
+        value.put("lastUpdateMillis", lastUpdateMillis.get());
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "dirtyAttributes=" + getDirtyCount() +
+            ", updatedCount=" + updatedCount.get() +
+            '}';
+    }
+}
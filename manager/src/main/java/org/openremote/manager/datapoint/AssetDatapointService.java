@@ -19,6 +19,7 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetAttribute;
 import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.attribute.AttributeValueDescriptor;
 import org.openremote.model.attribute.MetaItemType;
 import org.openremote.model.datapoint.AssetDatapoint;
 import org.openremote.model.datapoint.DatapointInterval;
@@ -37,6 +38,10 @@ import javax.persistence.TypedQuery;
 import java.sql.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
@@ -56,11 +61,58 @@ import static org.openremote.container.util.MapAccess.getInteger;
  * {@link MetaItemType#DATA_POINTS_MAX_AGE_DAYS} {@link org.openremote.model.attribute.MetaItem}
  * and {@link #DATA_POINTS_MAX_AGE_DAYS} setting; storage duration defaults to {@value #DATA_POINTS_MAX_AGE_DAYS_DEFAULT}
  * days.
+ * <p>
+ * Datapoints are stored in the asset processing transaction by default, if {@link #DATA_POINTS_BATCH_MILLIS} is set
+ * they are buffered and stored in batches by a background task (see {@link AssetDatapointIngester}).
+ * <p>
+ * Datapoints are stored in daily partitions (child tables of <code>ASSET_DATAPOINT</code>) which are created
+ * {@link #DATA_POINTS_PARTITIONS_AHEAD_DAYS} ahead, the purge task drops a partition when the datapoints of the
+ * default max age have expired (moving the datapoints of attributes with a longer max age to the parent table) and
+ * otherwise only deletes from the partitions that contain expired datapoints. Datapoints without a
+ * partition are stored in the parent table, creating a partition moves the datapoints of its day out of the parent
+ * table.
+ * <p>
+ * If {@link #DATA_POINTS_ROLLUP_MILLIS} is set, aggregated values of numeric and boolean attributes are served from
+ * rollups per minute, hour and day (see {@link AssetDatapointRollups}) instead of aggregating all datapoints.
  */
 public class AssetDatapointService implements ContainerService, AssetUpdateProcessor {
 
     public static final String DATA_POINTS_MAX_AGE_DAYS = "DATA_POINTS_MAX_AGE_DAYS";
     public static final int DATA_POINTS_MAX_AGE_DAYS_DEFAULT = 31;
+    /**
+     * Maximum time in milliseconds buffered datapoints wait before they are stored, <code>0</code> stores every
+     * datapoint immediately.
+     */
+    public static final String DATA_POINTS_BATCH_MILLIS = "DATA_POINTS_BATCH_MILLIS";
+    public static final int DATA_POINTS_BATCH_MILLIS_DEFAULT = 0;
+    public static final String DATA_POINTS_BATCH_SIZE = "DATA_POINTS_BATCH_SIZE";
+    public static final int DATA_POINTS_BATCH_SIZE_DEFAULT = 1000;
+    /**
+     * Maximum number of buffered datapoints, when the buffer is full asset processing waits up to
+     * {@link #DATA_POINTS_BUFFER_TIMEOUT_MILLIS} and then stores the datapoint itself.
+     */
+    public static final String DATA_POINTS_BUFFER_SIZE = "DATA_POINTS_BUFFER_SIZE";
+    public static final int DATA_POINTS_BUFFER_SIZE_DEFAULT = 50000;
+    public static final String DATA_POINTS_BUFFER_TIMEOUT_MILLIS = "DATA_POINTS_BUFFER_TIMEOUT_MILLIS";
+    public static final int DATA_POINTS_BUFFER_TIMEOUT_MILLIS_DEFAULT = 100;
+    /**
+     * Number of days ahead of the current day to create datapoint partitions for, <code>0</code> disables creation
+     * of partitions and all datapoints are stored in the parent table.
+     */
+    public static final String DATA_POINTS_PARTITIONS_AHEAD_DAYS = "DATA_POINTS_PARTITIONS_AHEAD_DAYS";
+    public static final int DATA_POINTS_PARTITIONS_AHEAD_DAYS_DEFAULT = 7;
+    /**
+     * Interval in milliseconds of the task that updates the datapoint rollups, <code>0</code> disables rollups and
+     * aggregated values are computed from the datapoints.
+     */
+    public static final String DATA_POINTS_ROLLUP_MILLIS = "DATA_POINTS_ROLLUP_MILLIS";
+    public static final int DATA_POINTS_ROLLUP_MILLIS_DEFAULT = 0;
+    public static final String PARTITION_TABLE_PREFIX = "asset_datapoint_p";
+    protected static final DateTimeFormatter PARTITION_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    public static final String UPSERT_SQL = "INSERT INTO asset_datapoint (entity_id, attribute_name, value, timestamp) \n" +
+        "VALUES (?, ?, ?, ?)\n" +
+        "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE \n" +
+        "  SET value = excluded.value";
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
     public static final int PRIORITY = AssetStorageService.PRIORITY + 100;
     protected PersistenceService persistenceService;
@@ -68,7 +120,14 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
     protected TimerService timerService;
     protected ManagerExecutorService managerExecutorService;
     protected int maxDatapointAgeDays;
+    protected int partitionsAheadDays;
     protected ScheduledFuture dataPointsPurgeScheduledFuture;
+    protected AssetDatapointIngester ingester;
+    protected int batchMillis;
+    protected ScheduledFuture<?> ingesterScheduledFuture;
+    protected AssetDatapointRollups rollups;
+    protected int rollupMillis;
+    protected ScheduledFuture<?> rollupsScheduledFuture;
 
     @Override
     public int getPriority() {
@@ -96,17 +155,56 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         if (maxDatapointAgeDays <= 0) {
             LOG.warning(DATA_POINTS_MAX_AGE_DAYS + " value is not a valid value so data points won't be auto purged");
         }
+
+        partitionsAheadDays = getInteger(container.getConfig(), DATA_POINTS_PARTITIONS_AHEAD_DAYS, DATA_POINTS_PARTITIONS_AHEAD_DAYS_DEFAULT);
+
+        batchMillis = getInteger(container.getConfig(), DATA_POINTS_BATCH_MILLIS, DATA_POINTS_BATCH_MILLIS_DEFAULT);
+        if (batchMillis > 0) {
+            LOG.info("Storing data points in batches with maximum delay milliseconds: " + batchMillis);
+            ingester = new AssetDatapointIngester(
+                persistenceService,
+                getInteger(container.getConfig(), DATA_POINTS_BUFFER_SIZE, DATA_POINTS_BUFFER_SIZE_DEFAULT),
+                getInteger(container.getConfig(), DATA_POINTS_BATCH_SIZE, DATA_POINTS_BATCH_SIZE_DEFAULT),
+                getInteger(container.getConfig(), DATA_POINTS_BUFFER_TIMEOUT_MILLIS, DATA_POINTS_BUFFER_TIMEOUT_MILLIS_DEFAULT)
+            );
+        }
+
+        rollupMillis = getInteger(container.getConfig(), DATA_POINTS_ROLLUP_MILLIS, DATA_POINTS_ROLLUP_MILLIS_DEFAULT);
+        if (rollupMillis > 0) {
+            LOG.info("Updating data point rollups with interval milliseconds: " + rollupMillis);
+            // Buffered datapoints are stored up to the batch interval later
+            rollups = new AssetDatapointRollups(persistenceService, rollupMillis + Math.max(batchMillis, 0));
+        }
     }
 
     @Override
     public void start(Container container) throws Exception {
-        if (maxDatapointAgeDays > 0) {
+        if (partitionsAheadDays > 0) {
+            createPartitions();
+        }
+
+        if (maxDatapointAgeDays > 0 || partitionsAheadDays > 0) {
             dataPointsPurgeScheduledFuture = managerExecutorService.scheduleAtFixedRate(
-                    this::purgeDataPoints,
+                    this::maintainDataPoints,
 
                 getFirstRunMillis(timerService.getNow()),
                 Duration.ofDays(1).toMillis());
         }
+
+        if (ingester != null) {
+            ingesterScheduledFuture = managerExecutorService.scheduleWithFixedDelay(ingester::drain, batchMillis, batchMillis);
+        }
+
+        if (rollups != null) {
+            managerExecutorService.schedule(() -> {
+                try {
+                    rollups.backfill();
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "An error occurred whilst computing rollups of existing data points", e);
+                }
+            }, 0);
+            rollupsScheduledFuture = managerExecutorService.scheduleWithFixedDelay(rollups::update, rollupMillis, rollupMillis);
+        }
     }
 
     @Override
@@ -114,6 +212,18 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         if (dataPointsPurgeScheduledFuture != null) {
             dataPointsPurgeScheduledFuture.cancel(true);
         }
+        if (ingesterScheduledFuture != null) {
+            ingesterScheduledFuture.cancel(false);
+            ingesterScheduledFuture = null;
+        }
+        if (ingester != null) {
+            // Store everything that is still buffered
+            ingester.drain();
+        }
+        if (rollupsScheduledFuture != null) {
+            rollupsScheduledFuture.cancel(false);
+            rollupsScheduledFuture = null;
+        }
     }
 
     @Override
@@ -129,6 +239,27 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
             // Perform upsert on datapoint (datapoint isn't immutable then really and tied to postgresql but prevents entire attribute event from failing)
             LOG.finest("Storing datapoint for: " + attribute);
 
+            if (rollups != null && attribute.getValueTimestamp().isPresent() && isDownsampled(attribute)) {
+                rollups.add(new AttributeRef(asset.getId(), attribute.name), attribute.getValueTimestamp().get());
+            }
+
+            if (ingester != null && attribute.getValueTimestamp().isPresent()) {
+                AssetDatapointIngester.PendingDatapoint datapoint = new AssetDatapointIngester.PendingDatapoint(
+                    asset.getId(),
+                    attribute.name,
+                    attribute.getValue().map(Value::toJson).orElse(null),
+                    attribute.getValueTimestamp().get()
+                );
+                if (ingester.offer(datapoint)) {
+                    if (ingester.requestDrain()) {
+                        managerExecutorService.schedule(ingester::drain, 0);
+                    }
+                    return false;
+                }
+                // Buffer is full, store in this transaction to slow down processing
+                LOG.fine("Datapoint buffer is full, storing datapoint immediately for: " + attribute);
+            }
+
             PGobject pgJsonValue = new PGobject();
             pgJsonValue.setType("jsonb");
             try {
@@ -138,10 +269,7 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
             }
 
             em.unwrap(Session.class).doWork(connection -> {
-                PreparedStatement st = connection.prepareStatement("INSERT INTO asset_datapoint (entity_id, attribute_name, value, timestamp) \n" +
-                    "VALUES (?, ?, ?, ?)\n" +
-                    "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE \n" +
-                    "  SET value = excluded.value");
+                PreparedStatement st = connection.prepareStatement(UPSERT_SQL);
 
                 st.setString(1, asset.getId());
                 st.setString(2, attribute.name);
@@ -153,6 +281,25 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         return false;
     }
 
+    protected boolean isDownsampled(AssetAttribute attribute) {
+        ValueType valueType = attribute.getType().map(AttributeValueDescriptor::getValueType).orElse(null);
+        return valueType == ValueType.NUMBER || valueType == ValueType.BOOLEAN;
+    }
+
+    /**
+     * @return The datapoint rollups or <code>null</code> if aggregated values are computed from the datapoints.
+     */
+    public AssetDatapointRollups getRollups() {
+        return rollups;
+    }
+
+    /**
+     * @return The datapoint buffer or <code>null</code> if datapoints are stored immediately.
+     */
+    public AssetDatapointIngester getIngester() {
+        return ingester;
+    }
+
     public List<AssetDatapoint> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.createQuery(
@@ -217,6 +364,11 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
 
         LOG.fine("Getting datapoints for: " + attributeRef);
 
+        if (rollups != null) {
+            // Include the datapoints stored since the last update
+            rollups.update(attributeRef);
+        }
+
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint[]>() {
                     @Override
@@ -256,8 +408,35 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
 
                         StringBuilder query = new StringBuilder();
                         boolean downsample = attributeValueType == ValueType.NUMBER || attributeValueType == ValueType.BOOLEAN;
+                        String resolution = null;
 
-                        if (downsample) {
+                        if (downsample && rollups != null) {
+                            resolution = AssetDatapointRollups.getResolution(datapointInterval);
+
+                            // The buckets of the rollup that overlap the range, including the one of the start
+                            query.append("select TS as X, AVG_VALUE as Y " +
+                                " from ( " +
+                                "       select date_trunc(?, GS)::timestamp TS " +
+                                "       from generate_series(to_timestamp(?), to_timestamp(?), ?) GS " +
+                                "       ) TS " +
+                                "  left join ( " +
+                                "       select " +
+                                "           date_trunc(?, TIMESTAMP)::timestamp as TS, " +
+                                "           sum(SUM_VALUE) / nullif(sum(COUNT_VALUE), 0) as AVG_VALUE " +
+                                "       from ASSET_DATAPOINT_ROLLUP " +
+                                "         where " +
+                                "           RESOLUTION = ? " +
+                                "           and " +
+                                "           TIMESTAMP >= date_trunc(?, to_timestamp(?)) " +
+                                "           and " +
+                                "           TIMESTAMP <= to_timestamp(?) " +
+                                "           and " +
+                                "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
+                                "         group by TS " +
+                                "  ) DP using (TS) " +
+                                " order by TS asc "
+                            );
+                        } else if (downsample) {
 
                             // TODO: Change this to use something like this max min decimation algorithm https://knowledge.ni.com/KnowledgeArticleDetails?id=kA00Z0000019YLKSA2&l=en-GB)
                             query.append("select TS as X, coalesce(AVG_VALUE, null) as Y " +
@@ -301,7 +480,19 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
 
                             long fromTimestampSeconds = fromTimestamp / 1000;
                             long toTimestampSeconds = toTimestamp / 1000;
-                            if (downsample) {
+                            if (resolution != null) {
+                                st.setString(1, truncateX);
+                                st.setLong(2, fromTimestampSeconds);
+                                st.setLong(3, toTimestampSeconds);
+                                st.setObject(4, new PGInterval(interval));
+                                st.setString(5, truncateX);
+                                st.setString(6, resolution);
+                                st.setString(7, resolution);
+                                st.setLong(8, fromTimestampSeconds);
+                                st.setLong(9, toTimestampSeconds);
+                                st.setString(10, attributeRef.getEntityId());
+                                st.setString(11, attributeRef.getAttributeName());
+                            } else if (downsample) {
                                 st.setString(1, truncateX);
                                 st.setLong(2, fromTimestampSeconds);
                                 st.setLong(3, toTimestampSeconds);
@@ -332,6 +523,65 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
         );
     }
 
+    protected void maintainDataPoints() {
+        if (partitionsAheadDays > 0) {
+            try {
+                createPartitions();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "An error occurred whilst creating data point partitions", e);
+            }
+        }
+        if (maxDatapointAgeDays > 0) {
+            purgeDataPoints();
+        }
+    }
+
+    /**
+     * Create the partitions of the current day and the configured number of days ahead, if they don't exist.
+     */
+    protected void createPartitions() {
+        LocalDate today = LocalDateTime.ofInstant(timerService.getNow(), ZoneId.systemDefault()).toLocalDate();
+
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement st = connection.prepareStatement("select CREATE_ASSET_DATAPOINT_PARTITION(?)")) {
+                for (int i = 0; i <= partitionsAheadDays; i++) {
+                    LocalDate partitionDate = today.plusDays(i);
+                    st.setDate(1, Date.valueOf(partitionDate));
+                    try (ResultSet rs = st.executeQuery()) {
+                        if (rs.next() && rs.getBoolean(1)) {
+                            LOG.fine("Created data points partition: " + getPartitionTable(partitionDate));
+                        }
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return The dates of the existing partitions in ascending order.
+     */
+    protected List<LocalDate> getPartitions() {
+        return persistenceService.doReturningTransaction(em -> em.unwrap(Session.class).doReturningWork(connection -> {
+            List<LocalDate> partitions = new ArrayList<>();
+            try (PreparedStatement st = connection.prepareStatement(
+                "select C.RELNAME from PG_INHERITS I join PG_CLASS C on C.OID = I.INHRELID " +
+                    "where I.INHPARENT = 'ASSET_DATAPOINT'::regclass order by C.RELNAME");
+                 ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    String table = rs.getString(1);
+                    if (table.startsWith(PARTITION_TABLE_PREFIX)) {
+                        partitions.add(LocalDate.parse(table.substring(PARTITION_TABLE_PREFIX.length()), PARTITION_DATE_FORMAT));
+                    }
+                }
+            }
+            return partitions;
+        }));
+    }
+
+    protected String getPartitionTable(LocalDate partitionDate) {
+        return PARTITION_TABLE_PREFIX + PARTITION_DATE_FORMAT.format(partitionDate);
+    }
+
     protected void purgeDataPoints() {
         LOG.info("Starting data points purge daily task");
 
@@ -353,39 +603,110 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
                 .flatMap(List::stream)
                 .collect(toList());
 
+        Map<Integer, List<AssetAttribute>> ageAttributeRefMap = attributes.stream()
+                .collect(groupingBy(attribute ->
+                        attribute
+                                .getMetaItem(MetaItemType.DATA_POINTS_MAX_AGE_DAYS)
+                                .flatMap(metaItem ->
+                                        Values.getIntegerCoerced(metaItem.getValue().orElse(null)))
+                                .orElse(maxDatapointAgeDays)));
+
+        Instant today = timerService.getNow().truncatedTo(DAYS);
+        LocalDateTime defaultCutoff = getCutoff(today, maxDatapointAgeDays);
+
+        // Drop partitions whose data points have expired with the default max age, data points of attributes with a
+        // longer max age are moved to the parent table and purged from there
+        List<LocalDate> partitions = new ArrayList<>();
+        for (LocalDate partitionDate : getPartitions()) {
+            if (!partitionDate.plusDays(1).atStartOfDay().isAfter(defaultCutoff)) {
+                String table = getPartitionTable(partitionDate);
+                LOG.fine("Dropping data points partition: " + table);
+                try {
+                    dropPartition(table, partitionDate, today, ageAttributeRefMap);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "An error occurred whilst dropping data points partition: " + table, e);
+                    partitions.add(partitionDate);
+                }
+            } else {
+                partitions.add(partitionDate);
+            }
+        }
+
         // Purge data points not in the above list using default duration
         LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
+        deleteDataPoints(partitions, defaultCutoff, buildWhereClause(attributes, true));
 
-        persistenceService.doTransaction(em -> em.createQuery(
-                "delete from AssetDatapoint dp " +
-                        "where dp.timestamp < :dt" + buildWhereClause(attributes, true)
-        ).setParameter("dt", Date.from(timerService.getNow().truncatedTo(DAYS).minus(maxDatapointAgeDays, DAYS))).executeUpdate());
-
-        if (!attributes.isEmpty()) {
-            // Purge data points that have specific age constraints
-            Map<Integer, List<AssetAttribute>> ageAttributeRefMap = attributes.stream()
-                    .collect(groupingBy(attribute ->
-                            attribute
-                                    .getMetaItem(MetaItemType.DATA_POINTS_MAX_AGE_DAYS)
-                                    .flatMap(metaItem ->
-                                            Values.getIntegerCoerced(metaItem.getValue().orElse(null)))
-                                    .orElse(maxDatapointAgeDays)));
+        // Purge data points that have specific age constraints
+        ageAttributeRefMap.forEach((age, attrs) -> {
+            LOG.fine("Purging data points of " + attrs.size() + " attributes that use a max age of " + age);
+            deleteDataPoints(partitions, getCutoff(today, age), buildWhereClause(attrs, false));
+        });
 
-            ageAttributeRefMap.forEach((age, attrs) -> {
-                LOG.fine("Purging data points of " + attrs.size() + " attributes that use a max age of " + age);
+        LOG.info("Finished data points purge daily task");
+    }
 
-                try {
-                    persistenceService.doTransaction(em -> em.createQuery(
-                            "delete from AssetDatapoint dp " +
-                                    "where dp.timestamp < :dt" + buildWhereClause(attrs, false)
-                    ).setParameter("dt", Date.from(timerService.getNow().truncatedTo(DAYS).minus(age, DAYS))).executeUpdate());
-                } catch (Exception e) {
-                    LOG.log(Level.SEVERE, "An error occurred whilst deleting data points, this should not happen", e);
+    /**
+     * Drop the partition table, in the same transaction the data points of attributes with a max age that hasn't
+     * expired for the whole day are copied to the parent table (the day has no partition once it is dropped).
+     */
+    protected void dropPartition(String table, LocalDate partitionDate, Instant today, Map<Integer, List<AssetAttribute>> ageAttributeRefMap) {
+        LocalDateTime partitionEnd = partitionDate.plusDays(1).atStartOfDay();
+
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            boolean keep = false;
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("create temp table ASSET_DATAPOINT_KEEP (like ASSET_DATAPOINT) on commit drop");
+            }
+            for (Map.Entry<Integer, List<AssetAttribute>> entry : ageAttributeRefMap.entrySet()) {
+                LocalDateTime cutoff = getCutoff(today, entry.getKey());
+                if (!partitionEnd.isAfter(cutoff)) {
+                    continue;
                 }
-            });
-        }
+                keep = true;
+                try (PreparedStatement st = connection.prepareStatement(
+                    "insert into ASSET_DATAPOINT_KEEP (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE) " +
+                        "select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE from " + table +
+                        " where TIMESTAMP >= ?" + buildWhereClause(entry.getValue(), false))) {
+                    st.setTimestamp(1, Timestamp.valueOf(cutoff));
+                    st.executeUpdate();
+                }
+            }
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("drop table " + table);
+                if (keep) {
+                    st.executeUpdate("insert into ASSET_DATAPOINT (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE) " +
+                        "select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE from ASSET_DATAPOINT_KEEP");
+                }
+            }
+        }));
+    }
 
-        LOG.info("Finished data points purge daily task");
+    protected LocalDateTime getCutoff(Instant today, int maxAgeDays) {
+        return LocalDateTime.ofInstant(today.minus(maxAgeDays, DAYS), ZoneId.systemDefault());
+    }
+
+    /**
+     * Delete the data points older than the cutoff from the parent table, the partitions that start before the
+     * cutoff and the rollups.
+     */
+    protected void deleteDataPoints(List<LocalDate> partitions, LocalDateTime cutoff, String whereClause) {
+        List<String> tables = new ArrayList<>();
+        tables.add("only ASSET_DATAPOINT");
+        tables.add("ASSET_DATAPOINT_ROLLUP");
+        partitions.stream()
+            .filter(partitionDate -> partitionDate.atStartOfDay().isBefore(cutoff))
+            .map(this::getPartitionTable)
+            .forEach(tables::add);
+
+        for (String table : tables) {
+            try {
+                persistenceService.doTransaction(em -> em.createNativeQuery(
+                        "delete from " + table + " where TIMESTAMP < ?1" + whereClause
+                ).setParameter(1, Timestamp.valueOf(cutoff)).executeUpdate());
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "An error occurred whilst deleting data points, this should not happen", e);
+            }
+        }
     }
 
     protected String buildWhereClause(List<AssetAttribute> attributes, boolean negate) {
@@ -401,7 +722,7 @@ public class AssetDatapointService implements ContainerService, AssetUpdateProce
                 })
                 .collect(Collectors.joining(","));
 
-        return " and (dp.entityId, dp.attributeName) " + (negate ? "not " : "") + "in (" + whereStr + ")";
+        return " and (ENTITY_ID, ATTRIBUTE_NAME) " + (negate ? "not " : "") + "in (" + whereStr + ")";
     }
 
     protected long getFirstRunMillis(Instant currentTime) {
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openremote.container.Container;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A triggered subscription whose events are shared with the triggered subscriptions of all other subscribers of the
+ * same published event, the events are serialized once and the message of each subscriber is assembled from the
+ * encoded events and its subscription ID.
+ */
+public class EncodedTriggeredEventSubscription<T extends SharedEvent> extends TriggeredEventSubscription<T> {
+
+    /**
+     * The events of a published event and their lazily serialized JSON, shared by all subscribers.
+     */
+    public static class EncodedEvents<T extends SharedEvent> {
+
+        final protected List<T> events;
+        protected String[] eventJson;
+        protected byte[][] eventBytes;
+        protected String eventsJson;
+
+        public EncodedEvents(List<T> events) {
+            this.events = events;
+        }
+
+        public List<T> getEvents() {
+            return events;
+        }
+
+        public synchronized String getEventJson(int index) throws JsonProcessingException {
+            if (eventJson == null) {
+                eventJson = new String[events.size()];
+            }
+            if (eventJson[index] == null) {
+                eventJson[index] = Container.JSON.writeValueAsString(events.get(index));
+            }
+            return eventJson[index];
+        }
+
+        /**
+         * @return The event JSON encoded with the default charset, callers must not modify the array.
+         */
+        public synchronized byte[] getEventBytes(int index) throws JsonProcessingException {
+            if (eventBytes == null) {
+                eventBytes = new byte[events.size()][];
+            }
+            if (eventBytes[index] == null) {
+                eventBytes[index] = getEventJson(index).getBytes(Charset.defaultCharset());
+            }
+            return eventBytes[index];
+        }
+
+        public synchronized String getEventsJson() throws JsonProcessingException {
+            if (eventsJson == null) {
+                StringBuilder sb = new StringBuilder("[");
+                for (int i = 0; i < events.size(); i++) {
+                    if (i > 0) {
+                        sb.append(",");
+                    }
+                    sb.append(getEventJson(i));
+                }
+                eventsJson = sb.append("]").toString();
+            }
+            return eventsJson;
+        }
+    }
+
+    // Not serialized, the mapper serializes all fields
+    @JsonIgnore
+    final protected EncodedEvents<T> encodedEvents;
+    @JsonIgnore
+    final protected String subscriptionIdJson;
+
+    /**
+     * @param subscriptionIdJson The subscription ID as a JSON string, see {@link #toJsonString}, <code>null</code> if
+     *                           there is no subscription ID.
+     */
+    public EncodedTriggeredEventSubscription(EncodedEvents<T> encodedEvents, String subscriptionId, String subscriptionIdJson) {
+        super(encodedEvents.getEvents(), subscriptionId);
+        this.encodedEvents = encodedEvents;
+        this.subscriptionIdJson = subscriptionIdJson;
+    }
+
+    public static String toJsonString(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Container.JSON.writeValueAsString(value);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public EncodedEvents<T> getEncodedEvents() {
+        return encodedEvents;
+    }
+
+    /**
+     * @return The same JSON as the serialized {@link TriggeredEventSubscription}.
+     */
+    public String toJson() throws JsonProcessingException {
+        // Like the mapper, omit a null subscription ID
+        return "{\"events\":" + encodedEvents.getEventsJson()
+            + (subscriptionIdJson != null ? ",\"subscriptionId\":" + subscriptionIdJson : "")
+            + "}";
+    }
+}
@@ -24,7 +24,9 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.ConnectionConstants;
-import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.manager.event.EncodedTriggeredEventSubscription.EncodedEvents;
+import org.openremote.model.asset.AssetFilter;
+import org.openremote.model.event.shared.AssetInfo;
 import org.openremote.model.event.shared.CancelEventSubscription;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
@@ -37,6 +39,10 @@ import static org.openremote.manager.event.ClientEventService.HEADER_ACCESS_REST
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are modified under a lock, after each modification an immutable {@link SubscriptionIndex} is built
+ * that is used without locking to find the candidate subscriptions of a published event by event type and, for
+ * {@link AssetFilter} subscriptions, by asset ID, realm or attribute name.
  */
 public class EventSubscriptions {
 
@@ -44,6 +50,7 @@ public class EventSubscriptions {
 
     final protected TimerService timerService;
     final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    protected volatile SubscriptionIndex subscriptionIndex = new SubscriptionIndex(Collections.emptyMap());
 
     class SessionSubscriptions extends HashSet<SessionSubscription> {
         public void removeExpired() {
@@ -88,16 +95,19 @@ public class EventSubscriptions {
     }
 
     class SessionSubscription {
-        boolean restrictedUser;
-        long timestamp;
+        // Updated in place and read through the subscription index without locking
+        volatile boolean restrictedUser;
+        volatile long timestamp;
         final EventSubscription subscription;
         final String subscriptionId;
+        final String subscriptionIdJson;
 
         public SessionSubscription(boolean restrictedUser, long timestamp, EventSubscription subscription) {
             this.restrictedUser = restrictedUser;
             this.timestamp = timestamp;
             this.subscription = subscription;
             this.subscriptionId = subscription.getSubscriptionId();
+            this.subscriptionIdJson = EncodedTriggeredEventSubscription.toJsonString(subscriptionId);
         }
 
         public boolean matches(boolean accessibleForRestrictedUsers, SharedEvent event) {
@@ -113,6 +123,101 @@ public class EventSubscriptions {
         }
     }
 
+    static class SubscriberRoute {
+        final String sessionKey;
+        final SessionSubscription sessionSubscription;
+
+        SubscriberRoute(String sessionKey, SessionSubscription sessionSubscription) {
+            this.sessionKey = sessionKey;
+            this.sessionSubscription = sessionSubscription;
+        }
+    }
+
+    /**
+     * Routes of the subscriptions to an event type. A route with an {@link AssetFilter} is indexed by its asset IDs,
+     * otherwise by its realm, otherwise by its attribute names; all other routes are always candidates.
+     */
+    static class EventTypeRoutes {
+        final List<SubscriberRoute> all = new ArrayList<>();
+        final List<SubscriberRoute> unindexed = new ArrayList<>();
+        final Map<String, List<SubscriberRoute>> byAssetId = new HashMap<>();
+        final Map<String, List<SubscriberRoute>> byRealm = new HashMap<>();
+        final Map<String, List<SubscriberRoute>> byAttributeName = new HashMap<>();
+
+        void add(SubscriberRoute route) {
+            all.add(route);
+            EventSubscription<?> subscription = route.sessionSubscription.subscription;
+            if (!(subscription.getFilter() instanceof AssetFilter)) {
+                unindexed.add(route);
+                return;
+            }
+            AssetFilter<?> filter = (AssetFilter<?>) subscription.getFilter();
+            if (filter.getAssetIds() != null && filter.getAssetIds().length > 0) {
+                for (String assetId : filter.getAssetIds()) {
+                    byAssetId.computeIfAbsent(assetId, id -> new ArrayList<>()).add(route);
+                }
+            } else if (!TextUtil.isNullOrEmpty(filter.getRealm())) {
+                byRealm.computeIfAbsent(filter.getRealm(), realm -> new ArrayList<>()).add(route);
+            } else if (filter.getAttributeNames() != null && filter.getAttributeNames().length > 0) {
+                for (String attributeName : filter.getAttributeNames()) {
+                    byAttributeName.computeIfAbsent(attributeName, name -> new ArrayList<>()).add(route);
+                }
+            } else {
+                unindexed.add(route);
+            }
+        }
+
+        /**
+         * @return The routes that might match the event, their filters must still be applied.
+         */
+        Collection<SubscriberRoute> getCandidates(SharedEvent event) {
+            if (!(event instanceof AssetInfo)) {
+                return all;
+            }
+            AssetInfo assetInfo = (AssetInfo) event;
+            Collection<SubscriberRoute> candidates = new ArrayList<>(unindexed);
+            if (assetInfo.getEntityId() != null) {
+                candidates.addAll(byAssetId.getOrDefault(assetInfo.getEntityId(), Collections.emptyList()));
+            }
+            if (assetInfo.getRealm() != null) {
+                candidates.addAll(byRealm.getOrDefault(assetInfo.getRealm(), Collections.emptyList()));
+            }
+            String[] attributeNames = assetInfo.getAttributeNames();
+            if (attributeNames != null && !byAttributeName.isEmpty()) {
+                if (attributeNames.length == 1) {
+                    candidates.addAll(byAttributeName.getOrDefault(attributeNames[0], Collections.emptyList()));
+                } else {
+                    // A route can be indexed by several of the event's attribute names
+                    Set<SubscriberRoute> attributeRoutes = Collections.newSetFromMap(new IdentityHashMap<>());
+                    for (String attributeName : attributeNames) {
+                        attributeRoutes.addAll(byAttributeName.getOrDefault(attributeName, Collections.emptyList()));
+                    }
+                    candidates.addAll(attributeRoutes);
+                }
+            }
+            return candidates;
+        }
+    }
+
+    static class SubscriptionIndex {
+        final Map<String, EventTypeRoutes> routesByEventType = new HashMap<>();
+
+        SubscriptionIndex(Map<String, SessionSubscriptions> sessionSubscriptionIdMap) {
+            sessionSubscriptionIdMap.forEach((sessionKey, sessionSubscriptions) ->
+                sessionSubscriptions.forEach(sessionSubscription ->
+                    routesByEventType
+                        .computeIfAbsent(sessionSubscription.subscription.getEventType(), eventType -> new EventTypeRoutes())
+                        .add(new SubscriberRoute(sessionKey, sessionSubscription))
+                )
+            );
+        }
+
+        Collection<SubscriberRoute> getCandidates(SharedEvent event) {
+            EventTypeRoutes routes = routesByEventType.get(event.getEventType());
+            return routes != null ? routes.getCandidates(event) : Collections.emptyList();
+        }
+    }
+
     public EventSubscriptions(TimerService timerService) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
@@ -125,6 +230,7 @@ public class EventSubscriptions {
             SessionSubscriptions sessionSubscriptions =
                 this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
             sessionSubscriptions.createOrUpdate(restrictedUser, subscription);
+            updateSubscriptionIndex();
         }
     }
 
@@ -153,6 +259,7 @@ public class EventSubscriptions {
             } else {
                 sessionSubscriptions.cancelByType(subscription.getEventType());
             }
+            updateSubscriptionIndex();
         }
     }
 
@@ -161,10 +268,19 @@ public class EventSubscriptions {
             if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
                 LOG.fine("Cancelling all subscriptions for session: " + sessionKey);
                 this.sessionSubscriptionIdMap.remove(sessionKey);
+                updateSubscriptionIndex();
             }
         }
     }
 
+    /**
+     * Must be called while holding the lock on {@link #sessionSubscriptionIdMap} after subscriptions were added or
+     * removed; updates of existing subscriptions are visible through the index.
+     */
+    protected void updateSubscriptionIndex() {
+        subscriptionIndex = new SubscriptionIndex(sessionSubscriptionIdMap);
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends SharedEvent> List<Message> splitForSubscribers(Exchange exchange) {
         List<Message> messageList = new ArrayList<>();
@@ -173,39 +289,33 @@ public class EventSubscriptions {
             return messageList;
 
         boolean accessibleForRestrictedUsers = exchange.getIn().getHeader(HEADER_ACCESS_RESTRICTED, false, Boolean.class);
+        // Shared by the messages of all subscribers, so the event is serialized only once
+        EncodedEvents<SharedEvent> encodedEvents = null;
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
-        synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
-        }
-
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
-
-            for (SessionSubscription sessionSubscription : subscriptions) {
-
-                if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
-                    continue;
-
-                if (sessionSubscription.subscription.getFilter() == null
-                    || sessionSubscription.subscription.getFilter().apply(event)) {
-                    LOG.fine("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    List<SharedEvent> events = Collections.singletonList(event);
-                    TriggeredEventSubscription<?> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
-
-                    if (sessionSubscription.subscription.getInternalConsumer() == null) {
-                        Message msg = new DefaultMessage();
-                        msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
-                        msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                        msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
-                        messageList.add(msg);
-                    } else {
-                        if (triggeredEventSubscription.getEvents() != null) {
-                            triggeredEventSubscription.getEvents().forEach(ev ->
-                                sessionSubscription.subscription.getInternalConsumer().accept(ev));
-                        }
+        for (SubscriberRoute route : subscriptionIndex.getCandidates(event)) {
+            String sessionKey = route.sessionKey;
+            SessionSubscription sessionSubscription = route.sessionSubscription;
+
+            if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
+                continue;
+
+            if (sessionSubscription.subscription.getFilter() == null
+                || sessionSubscription.subscription.getFilter().apply(event)) {
+                LOG.fine("Creating message for subscribed session '" + sessionKey + "': " + event);
+
+                if (sessionSubscription.subscription.getInternalConsumer() == null) {
+                    if (encodedEvents == null) {
+                        encodedEvents = new EncodedEvents<>(Collections.singletonList(event));
                     }
+                    Message msg = new DefaultMessage();
+                    msg.setBody(new EncodedTriggeredEventSubscription<>(
+                        encodedEvents, sessionSubscription.subscriptionId, sessionSubscription.subscriptionIdJson
+                    ));
+                    msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
+                    msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
+                    messageList.add(msg);
+                } else {
+                    sessionSubscription.subscription.getInternalConsumer().accept(event);
                 }
             }
         }
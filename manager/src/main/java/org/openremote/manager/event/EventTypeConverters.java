@@ -67,9 +67,17 @@ public class EventTypeConverters implements TypeConverters {
 
     @Converter
     public String writeTriggeredEventSubscription(TriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
+        if (triggeredEventSubscription instanceof EncodedTriggeredEventSubscription) {
+            return writeEncodedTriggeredEventSubscription((EncodedTriggeredEventSubscription) triggeredEventSubscription, exchange);
+        }
         return TriggeredEventSubscription.MESSAGE_PREFIX + Container.JSON.writeValueAsString(triggeredEventSubscription);
     }
 
+    @Converter
+    public String writeEncodedTriggeredEventSubscription(EncodedTriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
+        return TriggeredEventSubscription.MESSAGE_PREFIX + triggeredEventSubscription.toJson();
+    }
+
     @Converter
     public SharedEvent readEvent(String string, Exchange exchange) throws Exception {
         if (!string.startsWith(SharedEvent.MESSAGE_PREFIX))
@@ -26,6 +26,9 @@ import org.openremote.model.map.MapResource;
 import org.openremote.model.value.ObjectValue;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 public class MapResourceImpl extends WebResource implements MapResource {
@@ -56,8 +59,20 @@ public class MapResourceImpl extends WebResource implements MapResource {
 
     @Override
     public byte[] getTile(int zoom, int column, int row) {
+        EntityTag tag = new EntityTag(mapService.getMapTileTag(zoom, column, row));
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(mapService.getMapTileMaxAgeSeconds());
+
+        // Tiles don't change so the client's copy is still valid if the tag matches
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(tag.toString()) || ifNoneMatch.trim().equals("*"))) {
+            throw new WebApplicationException(Response.notModified(tag).cacheControl(cacheControl).build());
+        }
+
         byte[] tile = mapService.getMapTile(zoom, column, row);
         if (tile != null) {
+            response.setHeader(HttpHeaders.ETAG, tag.toString());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.toString());
             return tile;
         } else {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
@@ -31,17 +31,19 @@ import org.openremote.model.util.TextUtil;
 import org.openremote.model.value.ArrayValue;
 import org.openremote.model.value.ObjectValue;
 import org.openremote.model.value.Values;
+import org.sqlite.SQLiteConfig;
 
 import javax.ws.rs.core.UriBuilder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.sql.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,9 +66,57 @@ public class MapService implements ContainerService {
     public static final String TILESERVER_TILE_PATH = "/styles/standard";
     public static final String MAP_TILESERVER_REQUEST_TIMEOUT = "MAP_TILESERVER_REQUEST_TIMEOUT";
     public static final int MAP_TILESERVER_REQUEST_TIMEOUT_DEFAULT = 10000;
+    /**
+     * Number of read-only connections to the map tiles database used concurrently to serve tiles.
+     */
+    public static final String MAP_TILES_CONNECTIONS = "MAP_TILES_CONNECTIONS";
+    public static final int MAP_TILES_CONNECTIONS_DEFAULT = 4;
+    /**
+     * Maximum size in bytes of the tiles kept in memory, <code>0</code> disables the cache.
+     */
+    public static final String MAP_TILES_CACHE_SIZE = "MAP_TILES_CACHE_SIZE";
+    public static final int MAP_TILES_CACHE_SIZE_DEFAULT = 32 * 1024 * 1024;
+    /**
+     * Size in bytes of the memory mapped part of the map tiles database per connection, <code>0</code> disables
+     * memory mapped access.
+     */
+    public static final String MAP_TILES_MMAP_SIZE = "MAP_TILES_MMAP_SIZE";
+    public static final int MAP_TILES_MMAP_SIZE_DEFAULT = 0;
+    public static final String MAP_TILES_CACHE_MAX_AGE_SECONDS = "MAP_TILES_CACHE_MAX_AGE_SECONDS";
+    public static final int MAP_TILES_CACHE_MAX_AGE_SECONDS_DEFAULT = 86400;
     private static final Logger LOG = Logger.getLogger(MapService.class.getName());
-    // Shared SQL connection is fine concurrently in SQLite
-    protected Connection connection;
+
+    /**
+     * A read-only connection to the map tiles database with its prepared tile query, only used by one thread at a
+     * time.
+     */
+    protected static class TileConnection {
+        final protected Connection connection;
+        final protected PreparedStatement tileQuery;
+
+        protected TileConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.tileQuery = connection.prepareStatement(
+                "select TILE_DATA from TILES where ZOOM_LEVEL = ? and TILE_COLUMN = ? and TILE_ROW = ?"
+            );
+        }
+
+        protected void close() {
+            try {
+                tileQuery.close();
+                connection.close();
+            } catch (Exception ex) {
+                LOG.warning("Error closing map tiles connection: " + ex);
+            }
+        }
+    }
+
+    protected BlockingQueue<TileConnection> tileConnections;
+    protected int tileConnectionCount;
+    protected int mmapSize;
+    protected MapTileCache tileCache;
+    protected int tileMaxAgeSeconds;
+    protected String tilesVersion;
     protected Path mapTilesPath;
     protected Path mapSettingsPath;
     protected Metadata metadata;
@@ -161,6 +211,16 @@ public class MapService implements ContainerService {
             );
         }
 
+        tileConnectionCount = Math.max(1, getInteger(container.getConfig(), MAP_TILES_CONNECTIONS, MAP_TILES_CONNECTIONS_DEFAULT));
+        mmapSize = getInteger(container.getConfig(), MAP_TILES_MMAP_SIZE, MAP_TILES_MMAP_SIZE_DEFAULT);
+        int tileCacheSize = getInteger(container.getConfig(), MAP_TILES_CACHE_SIZE, MAP_TILES_CACHE_SIZE_DEFAULT);
+        if (tileCacheSize > 0) {
+            tileCache = new MapTileCache(tileCacheSize);
+        }
+        tileMaxAgeSeconds = getInteger(container.getConfig(), MAP_TILES_CACHE_MAX_AGE_SECONDS, MAP_TILES_CACHE_MAX_AGE_SECONDS_DEFAULT);
+        // Tiles only change when the file is replaced
+        tilesVersion = Long.toHexString(Files.getLastModifiedTime(mapTilesPath).toMillis()) + "-" + Long.toHexString(Files.size(mapTilesPath));
+
         container.getService(ManagerWebService.class).getApiSingletons().add(
                 new MapResourceImpl(this, container.getService(ManagerIdentityService.class))
         );
@@ -202,9 +262,17 @@ public class MapService implements ContainerService {
     public void start(Container container) throws Exception {
         LOG.info("Starting map service with tile data: " + mapTilesPath.toAbsolutePath());
         Class.forName(org.sqlite.JDBC.class.getName());
-        connection = DriverManager.getConnection("jdbc:sqlite:" + mapTilesPath.toAbsolutePath());
+        tileConnections = new ArrayBlockingQueue<>(tileConnectionCount);
+        for (int i = 0; i < tileConnectionCount; i++) {
+            tileConnections.add(new TileConnection(openConnection()));
+        }
 
-        metadata = getMetadata(connection);
+        TileConnection tileConnection = tileConnections.take();
+        try {
+            metadata = getMetadata(tileConnection.connection);
+        } finally {
+            tileConnections.add(tileConnection);
+        }
         if (metadata.isValid()) {
             mapConfig = loadMapSettingsJson(mapSettingsPath);
             if (!mapConfig.hasKeys()) {
@@ -246,9 +314,23 @@ public class MapService implements ContainerService {
 
     @Override
     public void stop(Container container) throws Exception {
-        if (connection != null) {
-            connection.close();
+        if (tileConnections != null) {
+            List<TileConnection> connections = new ArrayList<>();
+            tileConnections.drainTo(connections);
+            connections.forEach(TileConnection::close);
+        }
+    }
+
+    protected Connection openConnection() throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mapTilesPath.toAbsolutePath(), config.toProperties());
+        if (mmapSize > 0) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("pragma mmap_size = " + mmapSize);
+            }
         }
+        return connection;
     }
 
     /**
@@ -361,12 +443,17 @@ public class MapService implements ContainerService {
         // Flip y, oh why
         row = new Double(Math.pow(2, zoom) - 1 - row).intValue();
 
-        PreparedStatement query = null;
+        long key = MapTileCache.getKey(zoom, column, row);
+        byte[] tile = tileCache != null ? tileCache.get(key) : null;
+        if (tile != null) {
+            return tile == MapTileCache.MISSING_TILE ? null : tile;
+        }
+
+        TileConnection tileConnection = null;
         ResultSet result = null;
         try {
-            query = connection.prepareStatement(
-                    "select TILE_DATA from TILES where ZOOM_LEVEL = ? and TILE_COLUMN = ? and TILE_ROW = ?"
-            );
+            tileConnection = tileConnections.take();
+            PreparedStatement query = tileConnection.tileQuery;
 
             int index = 0;
             query.setInt(++index, zoom);
@@ -374,17 +461,31 @@ public class MapService implements ContainerService {
             query.setInt(++index, row);
 
             result = query.executeQuery();
-
-            if (result.next()) {
-                return result.getBytes(1);
-            } else {
-                return null;
-            }
+            tile = result.next() ? result.getBytes(1) : null;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         } finally {
-            closeQuietly(query, result);
+            closeQuietly(null, result);
+            if (tileConnection != null) {
+                tileConnections.add(tileConnection);
+            }
         }
+
+        if (tileCache != null) {
+            tileCache.put(key, tile != null ? tile : MapTileCache.MISSING_TILE);
+        }
+        return tile;
+    }
+
+    /**
+     * @return An entity tag for the tile, tiles only change when the map tiles database is replaced.
+     */
+    public String getMapTileTag(int zoom, int column, int row) {
+        return tilesVersion + "-" + zoom + "-" + column + "-" + row;
+    }
+
+    public int getMapTileMaxAgeSeconds() {
+        return tileMaxAgeSeconds;
     }
 
     @Override
@@ -392,6 +493,7 @@ public class MapService implements ContainerService {
         return getClass().getSimpleName() + "{" +
                 "mapTilesPath=" + mapTilesPath +
                 ", mapSettingsPath=" + mapSettingsPath +
+                ", tileCache=" + tileCache +
                 '}';
     }
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.map;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of map tiles, bounded by the total size of the cached tile data. Missing tiles are
+ * cached as well, as {@link #MISSING_TILE}.
+ */
+public class MapTileCache {
+
+    public static final byte[] MISSING_TILE = new byte[0];
+    // Approximate memory used by a cache entry besides the tile data
+    protected static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    final protected long maxBytes;
+    final protected LinkedHashMap<Long, byte[]> tiles = new LinkedHashMap<>(1024, 0.75f, true);
+    protected long bytes;
+    protected long hitCount;
+    protected long missCount;
+
+    public MapTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static long getKey(int zoom, int column, int row) {
+        // Column and row are less than 2^zoom, unique for zoom levels up to 29
+        return ((long) zoom << 58) | ((long) column << 29) | row;
+    }
+
+    /**
+     * @return The tile data, {@link #MISSING_TILE} if the tile is known not to exist or <code>null</code> if the tile
+     * is not cached.
+     */
+    public synchronized byte[] get(long key) {
+        byte[] tile = tiles.get(key);
+        if (tile != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return tile;
+    }
+
+    public synchronized void put(long key, byte[] tile) {
+        long size = tile.length + ENTRY_OVERHEAD_BYTES;
+        if (size > maxBytes) {
+            return;
+        }
+        byte[] previous = tiles.put(key, tile);
+        if (previous != null) {
+            bytes -= previous.length + ENTRY_OVERHEAD_BYTES;
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Long, byte[]>> iterator = tiles.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().length + ENTRY_OVERHEAD_BYTES;
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{" +
+            "tiles=" + tiles.size() +
+            ", bytes=" + bytes +
+            ", maxBytes=" + maxBytes +
+            ", hitCount=" + hitCount +
+            ", missCount=" + missCount +
+            '}';
+    }
+}
@@ -21,11 +21,7 @@ package org.openremote.manager.mqtt;
 
 import io.moquette.interception.AbstractInterceptHandler;
 import io.moquette.interception.messages.*;
-import org.keycloak.adapters.rotation.AdapterTokenVerifier;
-import org.keycloak.common.VerificationException;
-import org.keycloak.representations.AccessToken;
 import org.openremote.container.message.MessageBrokerService;
-import org.openremote.container.security.ClientCredentialsAuthForm;
 import org.openremote.container.security.keycloak.AccessTokenAuthContext;
 import org.openremote.container.util.UniqueIdentifierGenerator;
 import org.openremote.container.web.ConnectionConstants;
@@ -42,15 +38,12 @@ import org.openremote.model.value.Value;
 import org.openremote.model.value.Values;
 
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.openremote.manager.mqtt.MqttBrokerService.ASSET_ATTRIBUTE_VALUE_TOPIC;
 import static org.openremote.manager.mqtt.MqttBrokerService.TOPIC_SEPARATOR;
-import static org.openremote.model.Constants.KEYCLOAK_CLIENT_ID;
 
 public class EventInterceptHandler extends AbstractInterceptHandler {
 
@@ -236,18 +229,9 @@ public class EventInterceptHandler extends AbstractInterceptHandler {
         Map<String, Object> headers = new HashMap<>();
         headers.put(ConnectionConstants.SESSION_KEY, connection.clientId);
         headers.put(ClientEventService.HEADER_CONNECTION_TYPE, ClientEventService.HEADER_CONNECTION_TYPE_MQTT);
-        try {
-            AccessToken accessToken = AdapterTokenVerifier.verifyToken(connection.accessToken, identityProvider.getKeycloakDeployment(connection.realm, KEYCLOAK_CLIENT_ID));
-            headers.put(Constants.AUTH_CONTEXT, new AccessTokenAuthContext(connection.realm, accessToken));
-        } catch (VerificationException e) {
-            String suppliedClientSecret = new String(connection.password, StandardCharsets.UTF_8);
-            connection.accessToken = identityProvider.getExternalKeycloak().getAccessToken(connection.realm, new ClientCredentialsAuthForm(connection.username, suppliedClientSecret)).getToken();
-            try {
-                AccessToken accessToken = AdapterTokenVerifier.verifyToken(connection.accessToken, identityProvider.getKeycloakDeployment(connection.realm, KEYCLOAK_CLIENT_ID));
-                headers.put(Constants.AUTH_CONTEXT, new AccessTokenAuthContext(connection.realm, accessToken));
-            } catch (VerificationException verificationException) {
-                LOG.log(Level.WARNING, "Couldn't verify token", verificationException);
-            }
+        AccessTokenAuthContext authContext = connection.getAuthContext(identityProvider);
+        if (authContext != null) {
+            headers.put(Constants.AUTH_CONTEXT, authContext);
         }
         return headers;
     }
@@ -3,11 +3,7 @@ package org.openremote.manager.mqtt;
 import io.moquette.broker.security.IAuthorizatorPolicy;
 import io.moquette.broker.subscriptions.Token;
 import io.moquette.broker.subscriptions.Topic;
-import org.keycloak.adapters.rotation.AdapterTokenVerifier;
-import org.keycloak.common.VerificationException;
-import org.keycloak.representations.AccessToken;
 import org.openremote.container.security.AuthContext;
-import org.openremote.container.security.ClientCredentialsAuthForm;
 import org.openremote.container.security.keycloak.AccessTokenAuthContext;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.event.ClientEventService;
@@ -19,7 +15,6 @@ import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.TenantFilter;
 import org.openremote.model.security.ClientRole;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.logging.Level;
@@ -27,7 +22,6 @@ import java.util.logging.Logger;
 
 import static org.openremote.manager.mqtt.MqttBrokerService.ASSETS_TOPIC;
 import static org.openremote.manager.mqtt.MqttBrokerService.ASSET_ATTRIBUTE_VALUE_TOPIC;
-import static org.openremote.model.Constants.KEYCLOAK_CLIENT_ID;
 
 public class KeycloakAuthorizatorPolicy implements IAuthorizatorPolicy {
 
@@ -69,6 +63,25 @@ public class KeycloakAuthorizatorPolicy implements IAuthorizatorPolicy {
             return false;
         }
 
+        // Read before the auth context so a decision based on a replaced context or modified assets isn't cached
+        long generation = connection.getAuthorizationGeneration();
+        AccessTokenAuthContext authContext = connection.getAuthContext(identityProvider);
+        if (authContext == null) {
+            return false;
+        }
+
+        // Decisions are cached until the token is refreshed or assets are modified
+        String authorizationKey = (Arrays.asList(roles).contains(ClientRole.WRITE_ASSETS) ? "write:" : "read:") + topic;
+        Boolean authorized = connection.getAuthorization(authorizationKey);
+        if (authorized == null) {
+            authorized = verifyTopicRights(topic, connection, authContext, roles);
+            connection.putAuthorization(authorizationKey, authorized, generation);
+        }
+        return authorized;
+    }
+
+    private boolean verifyTopicRights(Topic topic, MqttConnection connection, AuthContext authContext, ClientRole... roles) {
+
         if (topic.isEmpty() || topic.getTokens().size() < 2) {
             LOG.info("Topic may not be empty and should have the following format: assets/{assetId}(optional: /{attributeName})");
             return false;
@@ -98,21 +111,6 @@ public class KeycloakAuthorizatorPolicy implements IAuthorizatorPolicy {
             }
         }
 
-        AccessToken accessToken;
-        try {
-            accessToken = AdapterTokenVerifier.verifyToken(connection.accessToken, identityProvider.getKeycloakDeployment(connection.realm, KEYCLOAK_CLIENT_ID));
-        } catch (VerificationException e) {
-            String suppliedClientSecret = new String(connection.password, StandardCharsets.UTF_8);
-            connection.accessToken = identityProvider.getExternalKeycloak().getAccessToken(connection.realm, new ClientCredentialsAuthForm(connection.username, suppliedClientSecret)).getToken();
-            try {
-                accessToken = AdapterTokenVerifier.verifyToken(connection.accessToken, identityProvider.getKeycloakDeployment(connection.realm, KEYCLOAK_CLIENT_ID));
-            } catch (VerificationException verificationException) {
-                LOG.log(Level.INFO, "Couldn't verify token", verificationException);
-                return false;
-            }
-        }
-
-        AuthContext authContext = new AccessTokenAuthContext(connection.realm, accessToken);
         if (Arrays.asList(roles).contains(ClientRole.WRITE_ASSETS)) { //write
             return identityProvider.canSubscribeWith(authContext, new TenantFilter(connection.realm), roles);
         } else { // read
@@ -33,18 +33,26 @@ import org.openremote.container.ContainerService;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.event.ClientEventService;
+import org.openremote.manager.event.EncodedTriggeredEventSubscription;
+import org.openremote.manager.event.EncodedTriggeredEventSubscription.EncodedEvents;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.manager.web.ManagerWebService;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.UserAsset;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.TriggeredEventSubscription;
 import org.openremote.model.value.Value;
 
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.apache.camel.builder.PredicateBuilder.or;
+import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
 import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.agent.protocol.ProtocolClientEventService.getSessionKey;
@@ -85,7 +93,7 @@ public class MqttBrokerService implements ContainerService {
         host = getString(container.getConfig(), MQTT_SERVER_LISTEN_HOST, BrokerConstants.HOST);
         port = getInteger(container.getConfig(), MQTT_SERVER_LISTEN_PORT, BrokerConstants.PORT);
 
-        mqttConnectionMap = new HashMap<>();
+        mqttConnectionMap = new ConcurrentHashMap<>();
 
         clientEventService = container.getService(ClientEventService.class);
         ManagerIdentityService identityService = container.getService(ManagerIdentityService.class);
@@ -113,20 +121,31 @@ public class MqttBrokerService implements ContainerService {
                             String sessionKey = getSessionKey(exchange);
                             @SuppressWarnings("unchecked")
                             TriggeredEventSubscription<AttributeEvent> triggeredEventSubscription = (TriggeredEventSubscription<AttributeEvent>) exchange.getIn().getBody(TriggeredEventSubscription.class);
-                            triggeredEventSubscription.getEvents()
-                                    .forEach(event -> {
-                                        MqttConnection mqttConnection = mqttConnectionMap.get(sessionKey);
-                                        if (mqttConnection != null) {
-                                            if (mqttConnection.assetSubscriptions.containsKey(event.getEntityId()) || mqttConnection.assetAttributeSubscriptions.containsKey(event.getAttributeRef())) {
-                                                sendAttributeEvent(sessionKey, event);
-                                            }
-                                            if (mqttConnection.assetAttributeValueSubscriptions.containsKey(event.getAttributeRef())) {
-                                                sendAttributeValue(sessionKey, event);
-                                            }
-                                        }
-                                    });
+                            // The events of a split published event are serialized once for all subscribers
+                            EncodedEvents<AttributeEvent> encodedEvents = triggeredEventSubscription instanceof EncodedTriggeredEventSubscription
+                                    ? ((EncodedTriggeredEventSubscription<AttributeEvent>) triggeredEventSubscription).getEncodedEvents()
+                                    : new EncodedEvents<>(triggeredEventSubscription.getEvents());
+                            List<AttributeEvent> events = encodedEvents.getEvents();
+                            for (int i = 0; i < events.size(); i++) {
+                                AttributeEvent event = events.get(i);
+                                MqttConnection mqttConnection = mqttConnectionMap.get(sessionKey);
+                                if (mqttConnection != null) {
+                                    if (mqttConnection.assetSubscriptions.containsKey(event.getEntityId()) || mqttConnection.assetAttributeSubscriptions.containsKey(event.getAttributeRef())) {
+                                        sendAttributeEvent(sessionKey, event, encodedEvents, i);
+                                    }
+                                    if (mqttConnection.assetAttributeValueSubscriptions.containsKey(event.getAttributeRef())) {
+                                        sendAttributeValue(sessionKey, event);
+                                    }
+                                }
+                            }
                         })
                         .end();
+
+                // Cached authorization decisions of clients may depend on the modified assets
+                from(PERSISTENCE_TOPIC)
+                        .routeId("MqttAuthorizationInvalidation")
+                        .filter(or(isPersistenceEventForEntityType(Asset.class), isPersistenceEventForEntityType(UserAsset.class)))
+                        .process(exchange -> mqttConnectionMap.values().forEach(MqttConnection::clearAuthorizations));
             }
         });
     }
@@ -151,8 +170,13 @@ public class MqttBrokerService implements ContainerService {
     }
 
     public void sendAttributeEvent(String clientId, AttributeEvent attributeEvent) {
+        sendAttributeEvent(clientId, attributeEvent, new EncodedEvents<>(Collections.singletonList(attributeEvent)), 0);
+    }
+
+    protected void sendAttributeEvent(String clientId, AttributeEvent attributeEvent, EncodedEvents<AttributeEvent> encodedEvents, int index) {
         try {
-            ByteBuf payload = Unpooled.copiedBuffer(Container.JSON.writeValueAsString(attributeEvent), Charset.defaultCharset());
+            // Wraps the shared bytes without copying, the payload is only read
+            ByteBuf payload = Unpooled.wrappedBuffer(encodedEvents.getEventBytes(index));
 
             MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
                     .qos(MqttQoS.AT_MOST_ONCE)
@@ -1,14 +1,37 @@
 package org.openremote.manager.mqtt;
 
+import org.keycloak.adapters.rotation.AdapterTokenVerifier;
+import org.keycloak.common.VerificationException;
+import org.keycloak.representations.AccessToken;
+import org.openremote.container.security.ClientCredentialsAuthForm;
+import org.openremote.container.security.keycloak.AccessTokenAuthContext;
+import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.model.attribute.AttributeRef;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static org.openremote.manager.mqtt.KeycloakAuthenticator.MQTT_CLIENT_ID_SEPARATOR;
+import static org.openremote.model.Constants.KEYCLOAK_CLIENT_ID;
 
+/**
+ * The state of an MQTT client connection, caches the verified access token of the client until shortly before it
+ * expires and the authorization decisions made with it.
+ */
 public class MqttConnection {
 
+    private static final Logger LOG = Logger.getLogger(MqttConnection.class.getName());
+
+    /**
+     * Verified access tokens are refreshed this many milliseconds before they expire.
+     */
+    public static final int AUTH_CONTEXT_EXPIRY_MARGIN_MILLIS = 10000;
+    public static final int AUTHORIZATION_CACHE_SIZE = 1000;
+
     protected final String realm;
     protected final String clientId;
     protected final String username;
@@ -18,6 +41,17 @@ public class MqttConnection {
     protected final Map<AttributeRef, String> assetAttributeValueSubscriptions;
     protected String accessToken;
     protected int subscriptionId;
+    protected AccessTokenAuthContext authContext;
+    protected long authContextExpiresMillis;
+    // Authorization decisions by topic and operation, only valid for the current auth context
+    protected final Map<String, Boolean> authorizations = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > AUTHORIZATION_CACHE_SIZE;
+        }
+    };
+    // Incremented when the authorizations are cleared, guarded by the authorizations map
+    protected long authorizationGeneration;
 
     public MqttConnection(String clientId, String username, byte[] password) {
         int indexSplit = clientId.indexOf(MQTT_CLIENT_ID_SEPARATOR);
@@ -38,4 +72,86 @@ public class MqttConnection {
     public int getNextSubscriptionId() {
         return ++subscriptionId;
     }
+
+    /**
+     * @return The cached auth context, or a new one if it expired, after verifying the access token and requesting a
+     * new token if required; <code>null</code> if no valid token could be obtained. The token of an expiring auth
+     * context is replaced once instead of being verified again, it would remain valid until it expires.
+     */
+    public synchronized AccessTokenAuthContext getAuthContext(ManagerKeycloakIdentityProvider identityProvider) {
+        long now = System.currentTimeMillis();
+        if (authContext != null && now < authContextExpiresMillis) {
+            return authContext;
+        }
+
+        AccessToken token = null;
+        if (authContext == null) {
+            try {
+                token = AdapterTokenVerifier.verifyToken(accessToken, identityProvider.getKeycloakDeployment(realm, KEYCLOAK_CLIENT_ID));
+            } catch (VerificationException e) {
+                LOG.log(Level.FINE, "Access token is not valid, requesting a new token", e);
+            }
+        }
+        if (token == null) {
+            String suppliedClientSecret = new String(password, StandardCharsets.UTF_8);
+            accessToken = identityProvider.getExternalKeycloak().getAccessToken(realm, new ClientCredentialsAuthForm(username, suppliedClientSecret)).getToken();
+            try {
+                token = AdapterTokenVerifier.verifyToken(accessToken, identityProvider.getKeycloakDeployment(realm, KEYCLOAK_CLIENT_ID));
+            } catch (VerificationException verificationException) {
+                LOG.log(Level.WARNING, "Couldn't verify token", verificationException);
+                authContext = null;
+                clearAuthorizations();
+                return null;
+            }
+        }
+
+        authContext = new AccessTokenAuthContext(realm, token);
+        if (token.getExpiration() > 0) {
+            long expiresMillis = token.getExpiration() * 1000L;
+            // A token that expires within the margin is used until it expires, not verified again on every call
+            authContextExpiresMillis = expiresMillis - AUTH_CONTEXT_EXPIRY_MARGIN_MILLIS > now
+                ? expiresMillis - AUTH_CONTEXT_EXPIRY_MARGIN_MILLIS
+                : expiresMillis;
+        } else {
+            authContextExpiresMillis = now + AUTH_CONTEXT_EXPIRY_MARGIN_MILLIS;
+        }
+        // Roles may have changed with the new token
+        clearAuthorizations();
+        return authContext;
+    }
+
+    public Boolean getAuthorization(String key) {
+        synchronized (authorizations) {
+            return authorizations.get(key);
+        }
+    }
+
+    /**
+     * @return The current generation of the authorizations, read before computing a decision that will be passed to
+     * {@link #putAuthorization}.
+     */
+    public long getAuthorizationGeneration() {
+        synchronized (authorizations) {
+            return authorizationGeneration;
+        }
+    }
+
+    /**
+     * Cache the decision unless the authorizations were cleared after the given generation was read, the decision may
+     * then be based on stale roles or assets.
+     */
+    public void putAuthorization(String key, boolean authorized, long generation) {
+        synchronized (authorizations) {
+            if (generation == authorizationGeneration) {
+                authorizations.put(key, authorized);
+            }
+        }
+    }
+
+    public void clearAuthorizations() {
+        synchronized (authorizations) {
+            authorizationGeneration++;
+            authorizations.clear();
+        }
+    }
 }
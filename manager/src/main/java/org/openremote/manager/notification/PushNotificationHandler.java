@@ -27,6 +27,7 @@ import com.google.firebase.messaging.*;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.manager.asset.AssetStorageService;
@@ -53,7 +54,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.persistence.PersistenceEvent.*;
 import static org.openremote.model.asset.AssetType.CONSOLE;
 import static org.openremote.model.notification.PushNotificationMessage.TargetType.*;
@@ -69,6 +69,7 @@ public class PushNotificationHandler extends RouteBuilder implements Notificatio
     protected AssetStorageService assetStorageService;
     protected boolean valid;
     protected Map<String, String> consoleFCMTokenMap = new HashMap<>();
+    protected final ScopedLock consoleLock = new ScopedLock(PushNotificationHandler.class.getSimpleName());
     protected List<String> fcmTokenBlacklist = new ArrayList<>();
 
     @Override
@@ -454,7 +455,7 @@ public class PushNotificationHandler extends RouteBuilder implements Notificatio
 
     protected void processConsoleAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
 
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        consoleLock.withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
 
             String fcmToken = consoleFCMTokenMap.remove(asset.getId());
             if (!TextUtil.isNullOrEmpty(fcmToken)) {
@@ -47,84 +47,95 @@ import java.util.*;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Test an {@link AssetState} with a {@link AssetQuery}.
+ * <p>
+ * The query is compiled into a predicate tree when this predicate is created, testing an asset state doesn't
+ * allocate predicates. The assets linked to the users of the query are loaded once, the predicate must therefore not
+ * be reused if the query has user IDs and user asset links might have changed.
  */
 public class AssetQueryPredicate implements Predicate<AssetState> {
 
     final protected AssetQuery query;
     final protected TimerService timerService;
     final protected AssetStorageService assetStorageService;
+    final protected Predicate<AssetState> predicate;
 
     public AssetQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.query = query;
+        this.predicate = compile(timerService::getCurrentTimeMillis, assetStorageService, query);
     }
 
     @Override
     public boolean test(AssetState assetState) {
+        return predicate.test(assetState);
+    }
+
+    /**
+     * @return <code>true</code> if the compiled predicate can be reused for further matches of the query.
+     */
+    public boolean isReusable() {
+        return query.userIds == null || query.userIds.length == 0;
+    }
+
+    protected static Predicate<AssetState> compile(Supplier<Long> currentMillisProducer, AssetStorageService assetStorageService, AssetQuery query) {
+        List<Predicate<AssetState>> predicates = new ArrayList<>();
 
         if (query.ids != null && query.ids.length > 0) {
-            if (Arrays.stream(query.ids).noneMatch(id -> assetState.getId().equals(id))) {
-                return false;
-            }
+            Set<String> ids = new HashSet<>(Arrays.asList(query.ids));
+            predicates.add(assetState -> ids.contains(assetState.getId()));
         }
 
         if (query.names != null && query.names.length > 0) {
-            if (Arrays.stream(query.names)
-                    .map(StringPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getName()))) {
-                return false;
-            }
+            Predicate<String> namePredicate = anyMatch(Arrays.stream(query.names).map(StringPredicate::asPredicate));
+            predicates.add(assetState -> namePredicate.test(assetState.getName()));
         }
 
         if (query.parents != null && query.parents.length > 0) {
-            if (Arrays.stream(query.parents)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState))) {
-                return false;
-            }
+            predicates.add(anyMatch(Arrays.stream(query.parents).map(AssetQueryPredicate::asPredicate)));
         }
 
         if (query.types != null && query.types.length > 0) {
-            if (Arrays.stream(query.types)
-                    .map(StringPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getTypeString()))) {
-                return false;
-            }
+            Predicate<String> typePredicate = anyMatch(Arrays.stream(query.types).map(StringPredicate::asPredicate));
+            predicates.add(assetState -> typePredicate.test(assetState.getTypeString()));
         }
 
         if (query.paths != null && query.paths.length > 0) {
-            if (Arrays.stream(query.paths)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getPath()))) {
-                return false;
-            }
+            Predicate<String[]> pathPredicate = anyMatch(Arrays.stream(query.paths).map(AssetQueryPredicate::asPredicate));
+            predicates.add(assetState -> pathPredicate.test(assetState.getPath()));
         }
 
         if (query.tenant != null) {
-            if (!AssetQueryPredicate.asPredicate(query.tenant).test(assetState)) {
-                return false;
-            }
+            predicates.add(asPredicate(query.tenant));
         }
 
         if (query.attributes != null) {
             // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
-            if (!asPredicate(timerService::getCurrentTimeMillis, query.attributes).test(assetState)) {
-                return false;
-            }
+            predicates.add(asPredicate(currentMillisProducer, query.attributes));
         }
 
-        // Apply user ID predicate last as it is the most expensive
+        // Apply user ID predicate last, the linked assets of all users are loaded with a single query
         if (query.userIds != null && query.userIds.length > 0) {
-            if (!assetStorageService.isUserAsset(Arrays.asList(query.userIds), assetState.getId())) {
-                return false;
-            }
+            Set<String> userAssetIds = assetStorageService.findUserAssetIds(Arrays.asList(query.userIds));
+            predicates.add(assetState -> userAssetIds.contains(assetState.getId()));
+        }
+
+        if (predicates.isEmpty()) {
+            return assetState -> true;
+        }
+        if (predicates.size() == 1) {
+            return predicates.get(0);
         }
+        return asPredicate(predicates, LogicGroup.Operator.AND);
+    }
 
-        return true;
+    protected static <T> Predicate<T> anyMatch(Stream<Predicate<T>> predicates) {
+        List<Predicate<T>> predicateList = predicates.collect(Collectors.toList());
+        return asPredicate(predicateList, LogicGroup.Operator.OR);
     }
 
     public static Predicate<ArrayValue> asPredicate(ArrayPredicate predicate) {
@@ -183,6 +194,10 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
     }
 
     public static Predicate<String[]> asPredicate(StringArrayPredicate predicate) {
+        List<Predicate<String>> predicates = predicate.predicates == null
+            ? null
+            : Arrays.stream(predicate.predicates).map(StringPredicate::asPredicate).collect(Collectors.toList());
+
         return strings -> {
             if (strings == null && predicate.predicates == null)
                 return true;
@@ -192,9 +207,8 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
                 return false;
             if (strings.length != predicate.predicates.length)
                 return false;
-            for (int i = 0; i < predicate.predicates.length; i++) {
-                StringPredicate p = predicate.predicates[i];
-                if (!StringPredicate.asPredicate(p).test(strings[i]))
+            for (int i = 0; i < predicates.size(); i++) {
+                if (!predicates.get(i).test(strings[i]))
                     return false;
             }
             return true;
@@ -358,12 +372,8 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
         Predicate<String> namePredicate = predicate.name != null
                 ? StringPredicate.asPredicate(predicate.name) : str -> true;
 
-        Predicate<Value> valuePredicate = value -> {
-            if (predicate.value == null) {
-                return true;
-            }
-            return asPredicate(currentMillisProducer, predicate.value).test(value);
-        };
+        Predicate<Value> valuePredicate = predicate.value != null
+                ? asPredicate(currentMillisProducer, predicate.value) : value -> true;
 
         return assetState -> namePredicate.test(assetState.getAttributeName())
                 && valuePredicate.test(assetState.getValue().orElse(null));
@@ -373,93 +383,85 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
 
         Predicate<AssetState> attributePredicate = asPredicate(currentMillisProducer, (AttributePredicate)predicate);
 
-        Predicate<Meta> metaPredicate = meta -> {
-
-            if (predicate.meta == null || predicate.meta.length == 0) {
-                return true;
-            }
+        Predicate<Meta> metaPredicate = meta -> true;
 
-            for (MetaPredicate p : predicate.meta) {
-                if (!AssetQueryPredicate.asPredicate(currentMillisProducer, p).test(meta)) {
-                    return false;
-                }
-            }
-            return true;
-        };
+        if (predicate.meta != null && predicate.meta.length > 0) {
+            List<Predicate<Meta>> metaPredicates = Arrays.stream(predicate.meta)
+                .map(p -> AssetQueryPredicate.asPredicate(currentMillisProducer, p))
+                .collect(Collectors.toList());
+            metaPredicate = asPredicate(metaPredicates, LogicGroup.Operator.AND);
+        }
 
-        Predicate<Value> oldValuePredicate = value -> {
-            if (predicate.lastValue == null) {
-                return true;
-            }
-            return AssetQueryPredicate.asPredicate(currentMillisProducer, predicate.lastValue).test(value);
-        };
+        Predicate<Value> oldValuePredicate = predicate.lastValue != null
+            ? AssetQueryPredicate.asPredicate(currentMillisProducer, predicate.lastValue) : value -> true;
 
+        Predicate<Meta> finalMetaPredicate = metaPredicate;
         return assetState -> attributePredicate.test(assetState)
-                && metaPredicate.test(assetState.getMeta())
+                && finalMetaPredicate.test(assetState.getMeta())
                 && oldValuePredicate.test(assetState.getOldValue().orElse(null));
     }
 
     public static Predicate<Value> asPredicate(Supplier<Long> currentMillisProducer, ValuePredicate predicate) {
-        return value -> {
-            if (predicate == null)
-                return true;
+        if (predicate == null)
+            return value -> true;
 
-            if (predicate instanceof ValueEmptyPredicate) {
+        if (predicate instanceof ValueEmptyPredicate) {
 
-                return value == null;
-            } else if (predicate instanceof ValueNotEmptyPredicate) {
+            return Objects::isNull;
+        } else if (predicate instanceof ValueNotEmptyPredicate) {
 
-                return value != null;
+            return Objects::nonNull;
 
-            } else if (predicate instanceof StringPredicate) {
+        } else if (predicate instanceof StringPredicate) {
 
-                StringPredicate p = (StringPredicate) predicate;
-                return StringPredicate.asPredicate(p).test(Values.getString(value).orElse(null));
+            Predicate<String> p = StringPredicate.asPredicate((StringPredicate) predicate);
+            return value -> p.test(Values.getString(value).orElse(null));
 
-            } else if (predicate instanceof BooleanPredicate) {
+        } else if (predicate instanceof BooleanPredicate) {
 
-                BooleanPredicate p = (BooleanPredicate) predicate;
-                return asPredicate(p).test(Values.getBoolean(value).orElse(null));
+            Predicate<Boolean> p = asPredicate((BooleanPredicate) predicate);
+            return value -> p.test(Values.getBoolean(value).orElse(null));
 
-            } else if (predicate instanceof NumberPredicate) {
+        } else if (predicate instanceof NumberPredicate) {
 
-                NumberPredicate p = (NumberPredicate) predicate;
-                return asPredicate(p).test(Values.getNumber(value).orElse(null));
+            Predicate<Double> p = asPredicate((NumberPredicate) predicate);
+            return value -> p.test(Values.getNumber(value).orElse(null));
 
-            } else if (predicate instanceof DateTimePredicate) {
+        } else if (predicate instanceof DateTimePredicate) {
 
-                DateTimePredicate p = (DateTimePredicate) predicate;
-                return asPredicate(currentMillisProducer, p).test(Values.getNumber(value).map(Double::longValue).orElse(null));
-            } else if (predicate instanceof GeofencePredicate) {
+            Predicate<Long> p = asPredicate(currentMillisProducer, (DateTimePredicate) predicate);
+            return value -> p.test(Values.getNumber(value).map(Double::longValue).orElse(null));
+        } else if (predicate instanceof GeofencePredicate) {
 
-                GeofencePredicate p = (GeofencePredicate) predicate;
-                return asPredicate(p).test(Optional.ofNullable(value)
-                        .flatMap(GeoJSONPoint::fromValue)
-                        .map(point -> new Coordinate(point.getX(), point.getY()))
-                        .orElse(null));
-            } else if (predicate instanceof ObjectValueKeyPredicate) {
+            Predicate<Coordinate> p = asPredicate((GeofencePredicate) predicate);
+            return value -> p.test(Optional.ofNullable(value)
+                    .flatMap(GeoJSONPoint::fromValue)
+                    .map(point -> new Coordinate(point.getX(), point.getY()))
+                    .orElse(null));
+        } else if (predicate instanceof ObjectValueKeyPredicate) {
 
-                ObjectValueKeyPredicate p = (ObjectValueKeyPredicate) predicate;
-                return asPredicate(p).test(Optional.ofNullable(value)
-                        .flatMap(Values::getObject)
-                        .orElse(null));
-            }  else if (predicate instanceof ArrayPredicate) {
+            Predicate<ObjectValue> p = asPredicate((ObjectValueKeyPredicate) predicate);
+            return value -> p.test(Optional.ofNullable(value)
+                    .flatMap(Values::getObject)
+                    .orElse(null));
+        }  else if (predicate instanceof ArrayPredicate) {
 
-                ArrayPredicate p = (ArrayPredicate) predicate;
-                return asPredicate(p).test(Optional.ofNullable(value)
-                        .flatMap(Values::getArray)
-                        .orElse(null));
-            } else if (predicate instanceof CalendarEventPredicate) {
+            Predicate<ArrayValue> p = asPredicate((ArrayPredicate) predicate);
+            return value -> p.test(Optional.ofNullable(value)
+                    .flatMap(Values::getArray)
+                    .orElse(null));
+        } else if (predicate instanceof CalendarEventPredicate) {
 
-                CalendarEventPredicate p = (CalendarEventPredicate) predicate;
-                return asPredicate(p).test(Values.getObject(value).flatMap(CalendarEvent::fromValue).orElse(null));
-            } else {
-                // TODO Implement more
+            Predicate<CalendarEvent> p = asPredicate((CalendarEventPredicate) predicate);
+            return value -> p.test(Values.getObject(value).flatMap(CalendarEvent::fromValue).orElse(null));
+        } else {
+            // TODO Implement more
+            return value -> {
                 throw new UnsupportedOperationException(
                         "Restriction by attribute value not implemented in rules matching for " + predicate.getClass()
                 );
-            }
-        };
+            };
+        }
     }
 
     public static Predicate<CalendarEvent> asPredicate(CalendarEventPredicate p) {
@@ -520,14 +522,19 @@ public class AssetQueryPredicate implements Predicate<AssetState> {
 
     public static Predicate<Meta> asPredicate(Supplier<Long> currentMillisProducer, MetaPredicate predicate) {
 
+        Predicate<String> namePredicate = predicate.itemNamePredicate != null
+            ? StringPredicate.asPredicate(predicate.itemNamePredicate) : null;
+        Predicate<Value> valuePredicate = predicate.itemValuePredicate != null
+            ? asPredicate(currentMillisProducer, predicate.itemValuePredicate) : null;
+
         Predicate<MetaItem> metaItemPredicate = metaItem -> {
-            if (predicate.itemNamePredicate != null) {
-                if (!metaItem.getName().map(name -> StringPredicate.asPredicate(predicate.itemNamePredicate).test(name)).orElse(false)) {
+            if (namePredicate != null) {
+                if (!metaItem.getName().map(namePredicate::test).orElse(false)) {
                     return false;
                 }
             }
-            if (predicate.itemValuePredicate != null) {
-                if (!metaItem.getValue().map(value -> asPredicate(currentMillisProducer, predicate.itemValuePredicate).test(value)).orElse(false)) {
+            if (valuePredicate != null) {
+                if (!metaItem.getValue().map(valuePredicate::test).orElse(false)) {
                     return false;
                 }
             }
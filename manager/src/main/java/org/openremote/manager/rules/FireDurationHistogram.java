@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the firings of a rules engine by duration, in buckets with the upper bounds {@link #BUCKET_BOUNDS_MILLIS}
+ * and a last bucket for longer firings.
+ */
+public class FireDurationHistogram {
+
+    public static final long[] BUCKET_BOUNDS_MILLIS = {10, 100, 1000, 10000};
+
+    final protected AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    final protected AtomicLong count = new AtomicLong();
+    final protected AtomicLong totalMillis = new AtomicLong();
+    final protected AtomicLong maxMillis = new AtomicLong();
+    protected volatile long lastMillis;
+
+    public void record(long durationMillis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && durationMillis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMillis.addAndGet(durationMillis);
+        maxMillis.accumulateAndGet(durationMillis, Math::max);
+        lastMillis = durationMillis;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue histogram = Values.createObject();
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            histogram.put("lt" + BUCKET_BOUNDS_MILLIS[i] + "ms", buckets.get(i));
+        }
+        histogram.put("ge" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms", buckets.get(BUCKET_BOUNDS_MILLIS.length));
+
+        ObjectValue value = Values.createObject();
+        long count = getCount();
+        value.put("count", count);
+        value.put("averageMillis", count > 0 ? totalMillis.get() / count : 0);
+        value.put("maxMillis", maxMillis.get());
+        value.put("lastMillis", lastMillis);
+        value.put("histogram", histogram);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "count=" + getCount() +
+            ", maxMillis=" + maxMillis.get() +
+            ", lastMillis=" + lastMillis +
+            '}';
+    }
+}
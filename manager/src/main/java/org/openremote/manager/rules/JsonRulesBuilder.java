@@ -33,6 +33,9 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.UserQuery;
 import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.DateTimePredicate;
+import org.openremote.model.query.filter.NewAttributePredicate;
+import org.openremote.model.query.filter.StringPredicate;
 import org.openremote.model.rules.*;
 import org.openremote.model.rules.json.*;
 import org.openremote.model.util.TextUtil;
@@ -69,7 +72,8 @@ public class JsonRulesBuilder extends RulesBuilder {
 
     /**
      * Stores all state for a given {@link RuleCondition} and calculates which {@link AssetState}s match and don't
-     * match the condition.
+     * match the condition. The attribute predicates are evaluated incrementally, only asset states that changed since
+     * the last evaluation are tested again, unless the predicates depend on the current time.
      */
     static class RuleConditionState {
 
@@ -83,6 +87,13 @@ public class JsonRulesBuilder extends RulesBuilder {
         Set<AssetState> unfilteredAssetStates = new HashSet<>();
         Set<AssetState> previouslyMatchedAssetStates = new HashSet<>();
         Set<AssetState> previouslyUnmatchedAssetStates;
+        // Unfiltered asset states by the result of the attribute predicates
+        Set<AssetState> matchingAssetStates = new HashSet<>();
+        Set<AssetState> nonMatchingAssetStates = new HashSet<>();
+        // Unfiltered asset states that must be tested again
+        Set<AssetState> changedAssetStates = new HashSet<>();
+        boolean evaluateAll = true;
+        boolean incremental;
         Predicate<Long> timePredicate;
         RuleConditionEvaluationResult lastEvaluationResult;
 
@@ -143,6 +154,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                     // don't support it here either)
                     attributePredicates.groups = null;
                     assetStatePredicate = AssetQueryPredicate.asPredicate(timerService::getCurrentTimeMillis, attributePredicates);
+                    incremental = !isTimeDependent(attributePredicates);
                 }
                 ruleCondition.assets.orderBy = null;
                 ruleCondition.assets.limit = 0;
@@ -162,6 +174,8 @@ public class JsonRulesBuilder extends RulesBuilder {
                 if (event == null || event.cause == PersistenceEvent.Cause.CREATE) {
                     // Do a complete refresh of unfiltered asset states based on the asset query (without attribute predicates)
                     unfilteredAssetStates = facts.matchAssetState(ruleCondition.assets).collect(Collectors.toSet());
+                    evaluateAll = true;
+                    changedAssetStates.clear();
                 } else {
                     // Replace or remove asset state as required
                     switch (event.cause) {
@@ -169,10 +183,15 @@ public class JsonRulesBuilder extends RulesBuilder {
                             // Only insert if fact was already in there (i.e. it matches the asset type constraints)
                             if (unfilteredAssetStates.remove(event.assetState)) {
                                 unfilteredAssetStates.add(event.assetState);
+                                changedAssetStates.remove(event.assetState);
+                                changedAssetStates.add(event.assetState);
                             }
                             break;
                         case DELETE:
                             unfilteredAssetStates.remove(event.assetState);
+                            matchingAssetStates.remove(event.assetState);
+                            nonMatchingAssetStates.remove(event.assetState);
+                            changedAssetStates.remove(event.assetState);
                             break;
                     }
                 }
@@ -213,46 +232,25 @@ public class JsonRulesBuilder extends RulesBuilder {
                 return;
             }
 
+            Set<AssetState> matchingSet;
             List<AssetState> matchedAssetStates;
             List<AssetState> unmatchedAssetStates = Collections.emptyList();
             Collection<String> unmatchedAssetIds = Collections.emptyList();
 
             if (attributePredicates == null) {
+                matchingSet = unfilteredAssetStates;
                 matchedAssetStates = new ArrayList<>(unfilteredAssetStates);
             } else {
 
-                Map<Boolean, List<AssetState>> results;
-                boolean isAndGroup = attributePredicates.operator == null || attributePredicates.operator == LogicGroup.Operator.AND;
-
-                if (isAndGroup) {
-
-                    // ANDs need to be applied in the context of an entire asset as don't make any sense otherwise
-                    results = new HashMap<>();
-                    ArrayList<AssetState> matched = new ArrayList<>();
-                    ArrayList<AssetState> unmatched = new ArrayList<>();
-                    results.put(true, matched);
-                    results.put(false, unmatched);
-
-                    unfilteredAssetStates.stream().collect(Collectors.groupingBy(AssetState::getId)).forEach((id, states) -> {
-
-                        Map<Boolean, List<AssetState>> assetResults = states.stream().collect(Collectors.groupingBy(assetStatePredicate::test));
-                        matched.addAll(assetResults.getOrDefault(true, Collections.emptyList()));
-                        unmatched.addAll(assetResults.getOrDefault(false, Collections.emptyList()));
-                    });
-
-                } else {
-
-                    results = unfilteredAssetStates.stream().collect(Collectors.groupingBy(assetStatePredicate::test));
-
-                }
-
-                matchedAssetStates = results.getOrDefault(true, Collections.emptyList());
-                unmatchedAssetStates = results.getOrDefault(false, Collections.emptyList());
+                evaluateAttributePredicates();
+                matchingSet = matchingAssetStates;
+                matchedAssetStates = new ArrayList<>(matchingAssetStates);
+                unmatchedAssetStates = new ArrayList<>(nonMatchingAssetStates);
 
                 if (trackUnmatched) {
 
                     // Clear out previous unmatched that now match
-                    previouslyUnmatchedAssetStates.removeIf(matchedAssetStates::contains);
+                    previouslyUnmatchedAssetStates.removeIf(matchingSet::contains);
 
                     // Filter out previous un-matches to avoid re-triggering
                     unmatchedAssetStates.removeIf(previouslyUnmatchedAssetStates::contains);
@@ -263,7 +261,7 @@ public class JsonRulesBuilder extends RulesBuilder {
             // Remove previous matches where the asset state no longer matches
             previouslyMatchedAssetStates.removeIf(previousAssetState -> {
 
-                boolean noLongerMatches = !matchedAssetStates.contains(previousAssetState);
+                boolean noLongerMatches = !matchingSet.contains(previousAssetState);
 
                 if (noLongerMatches) {
                     log(Level.FINER, "Rule trigger previously matched asset state no longer matches so resetting: " + previousAssetState);
@@ -293,12 +291,13 @@ public class JsonRulesBuilder extends RulesBuilder {
             Collection<String> matchedAssetIds = matchedAssetStateStream.map(AssetState::getId).collect(Collectors.toList());
 
             if (trackUnmatched) {
+                Set<String> matchedAssetIdSet = new HashSet<>(matchedAssetIds);
                 // Select unique asset states based on asset id
                 Stream<AssetState> unmatchedAssetStateStream = unmatchedAssetStates.stream().filter(distinctByKey(AssetState::getId));
 
                 // Filter out unmatched asset ids that are in the matched list
                 unmatchedAssetIds = unmatchedAssetStateStream
-                        .filter(assetState -> !matchedAssetIds.contains(assetState.getId()))
+                        .filter(assetState -> !matchedAssetIdSet.contains(assetState.getId()))
                         .map(AssetState::getId)
                         .collect(Collectors.toList());
             }
@@ -307,6 +306,53 @@ public class JsonRulesBuilder extends RulesBuilder {
             log(Level.FINEST, "Rule evaluation result: " + lastEvaluationResult);
         }
 
+        /**
+         * Test the changed asset states against the attribute predicates, or all of them after a refresh of the
+         * unfiltered asset states or if the predicates depend on the current time. The predicates are applied to each
+         * asset state on its own, also for an AND group.
+         */
+        void evaluateAttributePredicates() {
+            Collection<AssetState> assetStates;
+
+            if (evaluateAll || !incremental) {
+                matchingAssetStates.clear();
+                nonMatchingAssetStates.clear();
+                assetStates = unfilteredAssetStates;
+                evaluateAll = false;
+            } else {
+                assetStates = changedAssetStates;
+            }
+
+            for (AssetState assetState : assetStates) {
+                // Remove first so the current asset state instance is stored
+                matchingAssetStates.remove(assetState);
+                nonMatchingAssetStates.remove(assetState);
+                if (assetStatePredicate.test(assetState)) {
+                    matchingAssetStates.add(assetState);
+                } else {
+                    nonMatchingAssetStates.add(assetState);
+                }
+            }
+            changedAssetStates.clear();
+        }
+
+        static boolean isTimeDependent(LogicGroup<AttributePredicate> attributePredicates) {
+            return attributePredicates.items.stream().anyMatch(attributePredicate -> {
+                if (attributePredicate.value instanceof DateTimePredicate) {
+                    return true;
+                }
+                if (attributePredicate instanceof NewAttributePredicate) {
+                    NewAttributePredicate newAttributePredicate = (NewAttributePredicate) attributePredicate;
+                    if (newAttributePredicate.lastValue instanceof DateTimePredicate || newAttributePredicate.valueTimestamp != null) {
+                        return true;
+                    }
+                    return newAttributePredicate.meta != null && Arrays.stream(newAttributePredicate.meta)
+                        .anyMatch(metaPredicate -> metaPredicate.itemValuePredicate instanceof DateTimePredicate);
+                }
+                return false;
+            });
+        }
+
         Collection<String> getMatchedAssetIds() {
 
             if (lastEvaluationResult == null) {
@@ -471,6 +517,47 @@ public class JsonRulesBuilder extends RulesBuilder {
         }
     }
 
+    /**
+     * The asset states a rule condition depends on, restricted by asset ID, exact asset type and exact attribute
+     * name where the condition's asset query allows it. Inserted and removed asset states are not restricted by
+     * attribute name, they can change which assets don't match the condition.
+     */
+    static class RuleConditionDependency {
+
+        final Set<String> assetIds;
+        final Set<String> assetTypes;
+        final Set<String> attributeNames;
+
+        RuleConditionDependency(AssetQuery assetQuery, LogicGroup<AttributePredicate> attributePredicates) {
+            assetIds = assetQuery.ids != null && assetQuery.ids.length > 0
+                ? new HashSet<>(Arrays.asList(assetQuery.ids))
+                : null;
+
+            Set<String> types = null;
+            if (assetQuery.types != null && assetQuery.types.length > 0) {
+                types = new HashSet<>();
+                for (StringPredicate type : assetQuery.types) {
+                    if (!RulesFacts.isExactMatch(type)) {
+                        types = null;
+                        break;
+                    }
+                    types.add(type.value);
+                }
+            }
+            assetTypes = types;
+
+            attributeNames = attributePredicates != null && !groupIsEmpty(attributePredicates)
+                ? RulesFacts.getAttributeNames(attributePredicates)
+                : null;
+        }
+
+        boolean test(AssetState assetState, boolean insertedOrRemoved) {
+            return (assetIds == null || assetIds.contains(assetState.getId()))
+                && (assetTypes == null || assetTypes.contains(assetState.getTypeString()))
+                && (insertedOrRemoved || attributeNames == null || attributeNames.contains(assetState.getAttributeName()));
+        }
+    }
+
     public static final String PLACEHOLDER_RULESET_ID = "%RULESET_ID%";
     public static final String PLACEHOLDER_RULESET_NAME = "%RULESET_NAME%";
     public static final String PLACEHOLDER_TRIGGER_ASSETS = "%TRIGGER_ASSETS%";
@@ -486,6 +573,8 @@ public class JsonRulesBuilder extends RulesBuilder {
     final protected BiConsumer<Runnable, Long> scheduledActionConsumer;
     final protected Map<String, RuleState> ruleStateMap = new HashMap<>();
     final protected JsonRule[] jsonRules;
+    final protected List<RuleConditionDependency> dependencies = new ArrayList<>();
+    protected boolean timeDependent;
 
     public JsonRulesBuilder(Ruleset ruleset, TimerService timerService,
                             AssetStorageService assetStorageService, ManagerExecutorService executorService,
@@ -532,6 +621,34 @@ public class JsonRulesBuilder extends RulesBuilder {
         onAssetStatesChanged(facts, null);
     }
 
+    /**
+     * @return <code>true</code> if the rules must be evaluated whenever the engine fires, because a timer, a date
+     * time predicate or a recurrence interval makes their result depend on the current time.
+     */
+    public boolean isTimeDependent() {
+        return timeDependent;
+    }
+
+    /**
+     * @return <code>true</code> if any of the updated, inserted or removed asset states could change the result of a
+     * rule condition.
+     */
+    public boolean dependsOn(Collection<AssetState> updatedAssetStates, Collection<AssetState> insertedOrRemovedAssetStates) {
+        for (RuleConditionDependency dependency : dependencies) {
+            for (AssetState assetState : updatedAssetStates) {
+                if (dependency.test(assetState, false)) {
+                    return true;
+                }
+            }
+            for (AssetState assetState : insertedOrRemovedAssetStates) {
+                if (dependency.test(assetState, true)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public void onAssetStatesChanged(RulesFacts facts, RulesEngine.AssetStateChangeEvent event) {
         ruleStateMap.values().forEach(triggerStateMap -> triggerStateMap.conditionStateMap.values().forEach(ruleConditionState -> ruleConditionState.updateUnfilteredAssetStates(facts, event)));
     }
@@ -546,6 +663,19 @@ public class JsonRulesBuilder extends RulesBuilder {
         ruleStateMap.put(rule.name, ruleState);
         addRuleConditionStates(rule.when, rule.otherwise != null, 0, ruleState.conditionStateMap);
 
+        // Rules with a recurrence interval must be evaluated again when it has passed
+        if (rule.recurrence != null && rule.recurrence.mins != null) {
+            timeDependent = true;
+        }
+        for (RuleConditionState ruleConditionState : ruleState.conditionStateMap.values()) {
+            if (ruleConditionState.timePredicate != null || (ruleConditionState.assetStatePredicate != null && !ruleConditionState.incremental)) {
+                timeDependent = true;
+            }
+            if (ruleConditionState.ruleCondition.assets != null) {
+                dependencies.add(new RuleConditionDependency(ruleConditionState.ruleCondition.assets, ruleConditionState.attributePredicates));
+            }
+        }
+
         Condition condition = buildLhsCondition(rule, ruleState);
         Action action = buildRhsAction(rule, ruleState);
 
@@ -648,7 +778,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                         // Replace any stale matched asset states (values may have changed equality is by asset ID and attribute name)
                         // only need up to date values in the previously matched asset states previously unmatched asset states is only
                         // used to compare asset ID and attribute name.
-                        ruleConditionState.previouslyMatchedAssetStates.removeAll(ruleConditionState.lastEvaluationResult.matchedAssetStates);
+                        ruleConditionState.lastEvaluationResult.matchedAssetStates.forEach(ruleConditionState.previouslyMatchedAssetStates::remove);
                         ruleConditionState.previouslyMatchedAssetStates.addAll(ruleConditionState.lastEvaluationResult.matchedAssetStates);
 
                         if (ruleConditionState.trackUnmatched) {
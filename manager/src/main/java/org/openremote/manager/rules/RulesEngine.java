@@ -21,6 +21,7 @@ package org.openremote.manager.rules;
 
 import org.jeasy.rules.core.InferenceRulesEngine;
 import org.jeasy.rules.core.RulesEngineParameters;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetProcessingService;
@@ -42,14 +43,16 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.model.rules.RulesetStatus.*;
 
 public class RulesEngine<T extends Ruleset> {
@@ -67,6 +70,22 @@ public class RulesEngine<T extends Ruleset> {
         }
     }
 
+    /**
+     * An asset state change that is queued until the engine applies it to its facts, before firing.
+     */
+    protected static final class FactChange {
+        final PersistenceEvent.Cause cause;
+        final AssetState assetState;
+        // Only set for asset events
+        final String expires;
+
+        FactChange(PersistenceEvent.Cause cause, AssetState assetState, String expires) {
+            this.cause = cause;
+            this.assetState = assetState;
+            this.expires = expires;
+        }
+    }
+
     /**
      * Identifies a set of {@link LocationAttributePredicate}s associated with a particular {@link Asset}
      */
@@ -106,6 +125,8 @@ public class RulesEngine<T extends Ruleset> {
 
     final protected TimerService timerService;
     final protected ManagerExecutorService executorService;
+    final protected ScheduledExecutorService fireExecutor;
+    final protected RulesScriptCache scriptCache;
     final protected AssetStorageService assetStorageService;
     final protected ClientEventService clientEventService;
 
@@ -120,14 +141,23 @@ public class RulesEngine<T extends Ruleset> {
     final protected Map<Long, RulesetDeployment> deployments = new LinkedHashMap<>();
     final protected RulesFacts facts;
     final protected InferenceRulesEngine engine;
+    final protected ScopedLock engineLock;
+    // Changes published to the engine without its lock, applied to the facts when the engine fires
+    final protected Queue<FactChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    final protected AtomicBoolean fireScheduled = new AtomicBoolean();
+    final protected FireDurationHistogram fireDurations = new FireDurationHistogram();
 
     protected boolean running;
     protected long lastFireTimestamp;
     protected boolean trackLocationPredicates;
-    protected ScheduledFuture<?> fireTimer;
+    protected volatile ScheduledFuture<?> fireTimer;
+    protected ScheduledFuture<?> expiryTimer;
     protected ScheduledFuture<?> statsTimer;
     protected Map<Long, ScheduledFuture<?>> pauseTimers = new HashMap<>();
     protected Map<Long, ScheduledFuture<?>> unpauseTimers = new HashMap<>();
+    // Asset states changed since the last firing, deployments that don't depend on them are not fired
+    protected Set<AssetState> updatedAssetStates = new HashSet<>();
+    protected Set<AssetState> insertedOrRemovedAssetStates = new HashSet<>();
 
     // Only used to optimize toString(), contains the details of this engine
     protected String deploymentInfo;
@@ -138,6 +168,8 @@ public class RulesEngine<T extends Ruleset> {
     public RulesEngine(TimerService timerService,
                        ManagerIdentityService identityService,
                        ManagerExecutorService executorService,
+                       ScheduledExecutorService fireExecutor,
+                       RulesScriptCache scriptCache,
                        AssetStorageService assetStorageService,
                        AssetProcessingService assetProcessingService,
                        NotificationService notificationService,
@@ -148,6 +180,8 @@ public class RulesEngine<T extends Ruleset> {
                        AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
         this.timerService = timerService;
         this.executorService = executorService;
+        this.fireExecutor = fireExecutor;
+        this.scriptCache = scriptCache;
         this.assetStorageService = assetStorageService;
         this.clientEventService = clientEventService;
         this.id = id;
@@ -158,6 +192,7 @@ public class RulesEngine<T extends Ruleset> {
         this.historicFacade = new HistoricFacade<>(id, assetDatapointService);
         this.predictedFacade = new PredictedFacade<>(id, assetPredictedDatapointService);
         this.assetLocationPredicatesConsumer = assetLocationPredicatesConsumer;
+        this.engineLock = new ScopedLock(getClass().getSimpleName() + ":" + id);
 
         this.facts = new RulesFacts(timerService, assetStorageService, assetsFacade, this, RULES_LOG);
         engine = new InferenceRulesEngine(
@@ -175,20 +210,30 @@ public class RulesEngine<T extends Ruleset> {
      * @return a shallow copy of the asset state facts.
      */
     public Set<AssetState> getAssetStates() {
-        return new HashSet<>(facts.getAssetStates());
+        return engineLock.withLockReturning(toString() + "::getAssetStates", () -> {
+            applyPendingChanges();
+            return new HashSet<>(facts.getAssetStates());
+        });
     }
 
     /**
      * @return a shallow copy of the asset event facts.
      */
     public List<TemporaryFact<AssetState>> getAssetEvents() {
-        return new ArrayList<>(facts.getAssetEvents());
+        return engineLock.withLockReturning(toString() + "::getAssetEvents", () -> {
+            applyPendingChanges();
+            return new ArrayList<>(facts.getAssetEvents());
+        });
     }
 
     public boolean isRunning() {
         return running;
     }
 
+    public FireDurationHistogram getFireDurations() {
+        return fireDurations;
+    }
+
     public boolean isError() {
         for (RulesetDeployment deployment : deployments.values()) {
             if (deployment.isError() || deployment.getError() instanceof RulesLoopException) {
@@ -240,7 +285,7 @@ public class RulesEngine<T extends Ruleset> {
             removeRuleset(deployment.ruleset);
         }
 
-        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
+        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade, engineLock, scriptCache);
         boolean compiled;
 
         if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
@@ -323,6 +368,7 @@ public class RulesEngine<T extends Ruleset> {
         }
 
         LOG.info("Starting: " + this);
+        engineLock.withLock(toString() + "::start", this::applyPendingChanges);
         running = true;
         trackLocationPredicates(true);
 
@@ -370,6 +416,11 @@ public class RulesEngine<T extends Ruleset> {
             fireTimer.cancel(true);
             fireTimer = null;
         }
+        fireScheduled.set(false);
+        if (expiryTimer != null) {
+            expiryTimer.cancel(true);
+            expiryTimer = null;
+        }
         if (statsTimer != null) {
             statsTimer.cancel(true);
             statsTimer = null;
@@ -433,49 +484,84 @@ public class RulesEngine<T extends Ruleset> {
         }
     }
 
+    /**
+     * Schedule a firing within the guaranteed expiration time (so not immediately), and only if the last firing is
+     * done. This effectively limits how often the rules engine will fire, only once within the guaranteed minimum
+     * expiration time. Doesn't acquire the engine lock, so it can be called while the engine is firing.
+     */
     public void scheduleFire() {
-        withLock(toString() + "::scheduleFire", () -> {
-            // Schedule a firing within the guaranteed expiration time (so not immediately), and
-            // only if the last firing is done. This effectively limits how often the rules engine
-            // will fire, only once within the guaranteed minimum expiration time.
-            if (fireTimer == null || fireTimer.isDone()) {
-                LOG.fine("Scheduling rules firing on: " + this);
-                fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
-
-                        fireTimer = null;
-
-                        // Are temporary facts present before rules are fired?
-                        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
-
-                        // Process rules for all deployments
-                        fireAllDeployments();
-
-                        // If there are temporary facts, or if there were some before and
-                        // now they are gone, schedule a new firing to guarantee processing
-                        // of expired and removed temporary facts
-                        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
-                            && !disableTemporaryFactExpiration) {
-                            LOG.fine("Temporary facts require firing rules on: " + this);
-                            executorService.schedule(this::scheduleFire, 0);
-                        } else if (!disableTemporaryFactExpiration) {
-                            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
-                        }
-
-                    }),
-                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS
-                );
-            }
-        });
+        if (!fireScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        LOG.fine("Scheduling rules firing on: " + this);
+        fireTimer = fireExecutor.schedule(
+            () -> {
+                // Changes arriving from now on require another firing
+                fireScheduled.set(false);
+                engineLock.withLock(RulesEngine.this.toString() + "::fire", this::fire);
+            },
+            TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    protected void fire() {
+        long startMillis = System.currentTimeMillis();
+        applyPendingChanges();
+
+        // Are temporary facts present before rules are fired?
+        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+
+        // Process rules for all deployments affected by changes
+        fireChangedDeployments();
+
+        // If there are temporary facts, or if there were some before and
+        // now they are gone, schedule a new firing to guarantee processing
+        // of expired and removed temporary facts
+        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
+            && !disableTemporaryFactExpiration) {
+            LOG.fine("Temporary facts require firing rules on: " + this);
+            scheduleExpiryFire();
+        } else if (!disableTemporaryFactExpiration) {
+            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
+        }
+
+        fireDurations.record(System.currentTimeMillis() - startMillis);
     }
 
-    private void fireDeployments(Collection<RulesetDeployment> deploymentList) {
+    /**
+     * Schedule a firing when the next temporary fact expires, or as soon as possible if temporary facts were removed
+     * or the clock is not the wall clock (it might be advanced any time).
+     */
+    protected void scheduleExpiryFire() {
+        if (expiryTimer != null) {
+            expiryTimer.cancel(false);
+        }
+
+        long delay = 0;
+        long nextExpiryTimestamp = facts.getNextExpiryTimestamp();
+        if (nextExpiryTimestamp != Long.MAX_VALUE && timerService.getClock() == TimerService.Clock.REAL) {
+            // Expired facts are removed once the clock is past their expiry
+            delay = Math.max(0, nextExpiryTimestamp - timerService.getCurrentTimeMillis() + 1);
+        }
+
+        LOG.fine("Scheduling rules firing for temporary facts in " + delay + "ms on: " + this);
+        expiryTimer = fireExecutor.schedule(this::scheduleFire, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fire the deployments, a deployment is skipped if none of the changed asset states can affect its rules; pass
+     * <code>null</code> to fire all deployments.
+     */
+    private void fireDeployments(Collection<RulesetDeployment> deploymentList, Collection<AssetState> updatedAssetStates, Collection<AssetState> insertedOrRemovedAssetStates) {
         if (!running) {
             return;
         }
 
         if (trackLocationPredicates && assetLocationPredicatesConsumer != null) {
             facts.startTrackingLocationRules();
+            // All rules must report their location predicates
+            updatedAssetStates = null;
         }
 
         // Set the current clock
@@ -490,6 +576,11 @@ public class RulesEngine<T extends Ruleset> {
 
                 if (deployment.getStatus() == DEPLOYED) {
 
+                    if (updatedAssetStates != null && !deployment.isFireRequired(updatedAssetStates, insertedOrRemovedAssetStates)) {
+                        RULES_LOG.finest("Skipping rules, no dependent asset state changed, of: " + deployment);
+                        continue;
+                    }
+
                     RULES_LOG.fine("Executing rules @" + clock + " of: " + deployment);
 
                     // If full detail logging is enabled
@@ -503,6 +594,7 @@ public class RulesEngine<T extends Ruleset> {
 
                     long startTimestamp = System.currentTimeMillis();
                     lastFireTimestamp = startTimestamp;
+                    deployment.onFired();
                     engine.fire(deployment.getRules(), facts);
                     RULES_LOG.fine("Rules executed in: " + (System.currentTimeMillis() - startTimestamp) + "ms");
                 }
@@ -529,11 +621,22 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void fireAllDeployments() {
-        fireDeployments(deployments.values());
+        fireDeployments(deployments.values(), null, null);
+    }
+
+    /**
+     * Fire the deployments that depend on the asset states changed since the last firing.
+     */
+    protected void fireChangedDeployments() {
+        Set<AssetState> updated = updatedAssetStates;
+        Set<AssetState> insertedOrRemoved = insertedOrRemovedAssetStates;
+        updatedAssetStates = new HashSet<>();
+        insertedOrRemovedAssetStates = new HashSet<>();
+        fireDeployments(deployments.values(), updated, insertedOrRemoved);
     }
 
     protected void fireAllDeploymentsWithPredictedData() {
-        fireDeployments(deployments.values().stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()));
+        fireDeployments(deployments.values().stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()), null, null);
     }
 
     protected void notifyAssetStatesChanged(AssetStateChangeEvent event) {
@@ -545,29 +648,76 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void updateOrInsertAssetState(AssetState assetState, boolean insert) {
-        facts.putAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || (insert && assetState.getAttributeName().equals(AttributeType.LOCATION.getAttributeName())));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        publishChange(new FactChange(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState, null));
     }
 
     public void removeAssetState(AssetState assetState) {
-        facts.removeAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || assetState.getAttributeName().equals(AttributeType.LOCATION.getAttributeName()));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
+        publishChange(new FactChange(PersistenceEvent.Cause.DELETE, assetState, null));
+    }
+
+    public void insertAssetEvent(String expires, AssetState assetState) {
+        publishChange(new FactChange(null, assetState, expires));
+    }
+
+    /**
+     * Insert the initial asset states of an engine that has not been started, without notifying the deployments or
+     * scheduling a firing; deployments initialise their state from all facts and fire once when the engine starts.
+     * Falls back to inserting the asset states one by one if the engine is running.
+     */
+    public void insertAssetStates(Collection<AssetState> assetStates) {
         if (running) {
-            scheduleFire();
+            assetStates.forEach(assetState -> updateOrInsertAssetState(assetState, true));
+            return;
         }
+        engineLock.withLock(toString() + "::insertAssetStates", () -> {
+            applyPendingChanges();
+            for (AssetState assetState : assetStates) {
+                facts.putAssetState(assetState);
+            }
+        });
     }
 
-    public void insertAssetEvent(String expires, AssetState assetState) {
-        facts.insertAssetEvent(expires, assetState);
+    /**
+     * Queue the change for the next firing, a stopped engine applies it immediately.
+     */
+    protected void publishChange(FactChange change) {
+        pendingChanges.add(change);
         if (running) {
             scheduleFire();
+        } else {
+            engineLock.withLock(toString() + "::publishChange", this::applyPendingChanges);
+        }
+    }
+
+    /**
+     * Apply the queued changes to the facts and notify the deployments, must be called while holding the engine lock.
+     */
+    protected void applyPendingChanges() {
+        FactChange change;
+        while ((change = pendingChanges.poll()) != null) {
+            AssetState assetState = change.assetState;
+
+            if (change.cause == null) {
+                facts.insertAssetEvent(change.expires, assetState);
+                continue;
+            }
+
+            boolean isLocation = assetState.getAttributeName().equals(AttributeType.LOCATION.getAttributeName());
+
+            if (change.cause == PersistenceEvent.Cause.DELETE) {
+                facts.removeAssetState(assetState);
+                insertedOrRemovedAssetStates.add(assetState);
+                // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+                trackLocationPredicates(trackLocationPredicates || isLocation);
+            } else {
+                boolean insert = change.cause == PersistenceEvent.Cause.CREATE;
+                facts.putAssetState(assetState);
+                (insert ? insertedOrRemovedAssetStates : updatedAssetStates).add(assetState);
+                // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+                trackLocationPredicates(trackLocationPredicates || (insert && isLocation));
+            }
+
+            notifyAssetStatesChanged(new AssetStateChangeEvent(change.cause, assetState));
         }
     }
 
@@ -580,7 +730,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        engineLock.withReadLock(toString() + "::printSessionStats", () -> {
             Collection<AssetState> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
@@ -620,7 +770,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
+        engineLock.withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
             int compilationErrors = getCompilationErrorDeploymentCount();
@@ -644,7 +794,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesetStatus(RulesetDeployment deployment) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
+        engineLock.withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
 
             Ruleset ruleset = deployment.ruleset;
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
@@ -678,7 +828,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
+        engineLock.withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
             LOG.info("Pausing ruleset: " + deployment.getRuleset().getName());
             stopRuleset(deployment);
             deployment.updateValidity();
@@ -708,7 +858,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
+        engineLock.withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
             LOG.info("Un-pausing ruleset: " + deployment.getRuleset().getName());
             startRuleset(deployment);
         });
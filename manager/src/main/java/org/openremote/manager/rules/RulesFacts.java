@@ -19,24 +19,33 @@
  */
 package org.openremote.manager.rules;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.jeasy.rules.api.Facts;
 import org.jeasy.rules.api.Rule;
 import org.jeasy.rules.api.RuleListener;
+import org.openremote.container.Container;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeExecuteStatus;
 import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.GeofencePredicate;
+import org.openremote.model.query.filter.StringPredicate;
 import org.openremote.model.rules.AssetState;
 import org.openremote.model.rules.Assets;
 import org.openremote.model.rules.TemporaryFact;
+import org.openremote.model.util.Pair;
 import org.openremote.model.util.TimeUtil;
 import org.openremote.model.value.Value;
 import org.openremote.model.value.Values;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -49,12 +58,36 @@ import static org.openremote.model.query.filter.LocationAttributePredicate.getLo
 
 public class RulesFacts extends Facts implements RuleListener {
 
+    /**
+     * A temporary fact in the expiry queue, with where it is stored: by name, as an asset event or as an anonymous
+     * fact.
+     */
+    protected static class ExpiringFact {
+        final protected TemporaryFact<?> fact;
+        final protected String name;
+        final protected boolean assetEvent;
+        final protected long expiryTimestamp;
+
+        protected ExpiringFact(TemporaryFact<?> fact, String name, boolean assetEvent) {
+            this.fact = fact;
+            this.name = name;
+            this.assetEvent = assetEvent;
+            this.expiryTimestamp = fact.getTimestamp() + fact.getExpirationMilliseconds();
+        }
+    }
+
     // Loop detection
     // TODO Better way than tracking rule trigger count? Max trigger could be a configurable multiple of facts count?
     public static final int MAX_RULES_TRIGGERED_PER_EXECUTION = 100;
 
     public static final int INITIAL_CAPACITY = 100000;
 
+    // Compiled asset query predicates kept for reuse in further rule fires
+    public static final int MAX_COMPILED_QUERIES = 256;
+
+    // Candidate asset states are only matched in parallel if there are at least this many
+    public static final int PARALLEL_MATCH_THRESHOLD = 10000;
+
     public static final String CLOCK = "INTERNAL_CLOCK";
     public static final String ASSET_STATES = "INTERNAL_ASSET_STATES";
     public static final String ASSET_EVENTS = "INTERNAL_ASSET_EVENTS";
@@ -66,12 +99,28 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Assets assetsFacade;
     final protected Object loggingContext;
     final protected Logger LOG;
-    final protected Map<String, Collection<AssetState>> assetIdIndex = new HashMap<>();
-    final protected Map<String, Collection<AssetState>> assetTypeIndex = new HashMap<>();
+    // Indexes of asset states by asset ID, asset type, parent asset ID and attribute name
+    final protected Map<String, Set<AssetState>> assetIdIndex = new HashMap<>();
+    final protected Map<String, Set<AssetState>> assetTypeIndex = new HashMap<>();
+    final protected Map<String, Set<AssetState>> assetParentIdIndex = new HashMap<>();
+    final protected Map<String, Set<AssetState>> assetAttributeNameIndex = new HashMap<>();
     public RulesClock clock;
     protected int triggerCount;
     protected boolean trackLocationRules;
     protected Map<String, Set<GeofencePredicate>> assetStateLocationPredicateMap = null;
+    // Temporary facts ordered by expiry, entries of facts that were removed otherwise are skipped when polled
+    final protected PriorityQueue<ExpiringFact> expiryQueue = new PriorityQueue<>(Comparator.comparingLong(expiringFact -> expiringFact.expiryTimestamp));
+    // The temporary facts that have not been removed, temporary facts are only equal to themselves
+    final protected Set<TemporaryFact<?>> temporaryFacts = new HashSet<>();
+    // Matches large candidate sets in parallel, shared by all rules engines
+    protected static ForkJoinPool matchPool;
+    final protected Map<String, AssetQueryPredicate> compiledQueries = Collections.synchronizedMap(
+        new LinkedHashMap<String, AssetQueryPredicate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AssetQueryPredicate> eldest) {
+                return size() > MAX_COMPILED_QUERIES;
+            }
+        });
 
     public RulesFacts(TimerService timerService, AssetStorageService assetStorageService, Assets assetsFacade, Object loggingContext, Logger logger) {
         this.timerService = timerService;
@@ -80,8 +129,8 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        asMap().put(ASSET_STATES, new ArrayDeque(INITIAL_CAPACITY));
-        asMap().put(ASSET_EVENTS, new ArrayDeque(INITIAL_CAPACITY));
+        asMap().put(ASSET_STATES, new LinkedHashSet<>(INITIAL_CAPACITY));
+        asMap().put(ASSET_EVENTS, new LinkedHashSet<>(INITIAL_CAPACITY));
         asMap().put(EXECUTION_VARS, new HashMap());
         asMap().put(ANONYMOUS_FACTS, new ArrayDeque(INITIAL_CAPACITY));
     }
@@ -194,7 +243,14 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + name + " => " + fact + " - on: " + loggingContext);
         }
+        Object previous = asMap().get(name);
+        if (previous instanceof TemporaryFact) {
+            temporaryFacts.remove(previous);
+        }
         super.put(name, fact);
+        if (fact instanceof TemporaryFact) {
+            addTemporaryFact((TemporaryFact<?>) fact, name, false);
+        }
         return this;
     }
 
@@ -204,6 +260,9 @@ public class RulesFacts extends Facts implements RuleListener {
         }
         getAnonymousFacts().remove(o);
         getAnonymousFacts().add(o);
+        if (o instanceof TemporaryFact) {
+            addTemporaryFact((TemporaryFact<?>) o, null, false);
+        }
         return this;
     }
 
@@ -214,15 +273,15 @@ public class RulesFacts extends Facts implements RuleListener {
         getAssetStates().remove(assetState);
         getAssetStates().add(assetState);
 
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getTypeString(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getTypeString()).remove(assetState);
-        assetTypeIndex.get(assetState.getTypeString()).add(assetState);
+        // The previous state might have a different type or parent, remove it from all indexes first
+        Set<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
+        if (assetIdIndexCollection != null) {
+            assetIdIndexCollection.stream()
+                .filter(assetState::equals)
+                .findFirst()
+                .ifPresent(this::removeAssetStateIndex);
+        }
+        addAssetStateIndex(assetState);
 
         return this;
     }
@@ -232,20 +291,42 @@ public class RulesFacts extends Facts implements RuleListener {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
         getAssetStates().remove(assetState);
+        removeAssetStateIndex(assetState);
+        return this;
+    }
 
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
-        }
+    protected void addAssetStateIndex(AssetState assetState) {
+        addIndex(assetIdIndex, assetState.getId(), assetState);
+        addIndex(assetTypeIndex, assetState.getTypeString(), assetState);
+        addIndex(assetParentIdIndex, assetState.getParentId(), assetState);
+        addIndex(assetAttributeNameIndex, assetState.getAttributeName(), assetState);
+    }
+
+    protected void removeAssetStateIndex(AssetState assetState) {
+        removeIndex(assetIdIndex, assetState.getId(), assetState);
+        removeIndex(assetTypeIndex, assetState.getTypeString(), assetState);
+        removeIndex(assetParentIdIndex, assetState.getParentId(), assetState);
+        removeIndex(assetAttributeNameIndex, assetState.getAttributeName(), assetState);
+    }
 
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState> assetTypeIndexCollection = assetTypeIndex.get(assetState.getTypeString());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
+    protected static void addIndex(Map<String, Set<AssetState>> index, String key, AssetState assetState) {
+        if (key != null) {
+            Set<AssetState> assetStates = index.computeIfAbsent(key, k -> new LinkedHashSet<>());
+            assetStates.remove(assetState);
+            assetStates.add(assetState);
         }
+    }
 
-        return this;
+    protected static void removeIndex(Map<String, Set<AssetState>> index, String key, AssetState assetState) {
+        if (key != null) {
+            Set<AssetState> assetStates = index.get(key);
+            if (assetStates != null) {
+                assetStates.remove(assetState);
+                if (assetStates.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
     }
 
     public RulesFacts insertAssetEvent(String expires, AssetState assetState) {
@@ -258,6 +339,7 @@ public class RulesFacts extends Facts implements RuleListener {
             LOG.finest("Fact change (INSERT): " + fact + " - on: " + loggingContext);
         }
         getAssetEvents().add(fact);
+        addTemporaryFact(fact, null, true);
         return this;
     }
 
@@ -274,7 +356,9 @@ public class RulesFacts extends Facts implements RuleListener {
     }
 
     public RulesFacts putTemporary(long expires, Object value) {
-        getAnonymousFacts().add(new TemporaryFact<>((long) getClock().getTimestamp(), expires, value));
+        TemporaryFact<Object> fact = new TemporaryFact<>((long) getClock().getTimestamp(), expires, value);
+        getAnonymousFacts().add(fact);
+        addTemporaryFact(fact, null, false);
         return this;
     }
 
@@ -292,31 +376,63 @@ public class RulesFacts extends Facts implements RuleListener {
     }
 
     public boolean hasTemporaryFacts() {
-        return getTemporaryFacts().count() > 0;
+        return !temporaryFacts.isEmpty();
     }
 
     public Stream<TemporaryFact> getTemporaryFacts() {
-        return Stream.concat(
-                Stream.concat(
-                        getAssetEvents().stream().parallel(),
-                        getNamedFacts().values().stream().parallel().filter(fact -> fact instanceof TemporaryFact).map(fact -> (TemporaryFact) fact)
-                ),
-                getAnonymousFacts().stream().parallel().filter(fact -> fact instanceof TemporaryFact).map(fact -> (TemporaryFact) fact)
-        ).parallel();
+        return temporaryFacts.stream().map(fact -> (TemporaryFact) fact);
+    }
+
+    /**
+     * @return The timestamp after which the next temporary fact expires, {@link Long#MAX_VALUE} if there are none.
+     */
+    public long getNextExpiryTimestamp() {
+        ExpiringFact next = pollRemovedTemporaryFacts();
+        return next != null ? next.expiryTimestamp : Long.MAX_VALUE;
+    }
+
+    protected void addTemporaryFact(TemporaryFact<?> fact, String name, boolean assetEvent) {
+        temporaryFacts.add(fact);
+        expiryQueue.add(new ExpiringFact(fact, name, assetEvent));
+    }
+
+    /**
+     * Discard queue entries of temporary facts that are no longer present.
+     *
+     * @return The queue entry of the next temporary fact to expire.
+     */
+    protected ExpiringFact pollRemovedTemporaryFacts() {
+        ExpiringFact next = expiryQueue.peek();
+        while (next != null && !temporaryFacts.contains(next.fact)) {
+            expiryQueue.poll();
+            next = expiryQueue.peek();
+        }
+        return next;
     }
 
     @Override
     public RulesFacts remove(String name) {
+        Object fact = asMap().get(name);
+        if (fact instanceof TemporaryFact) {
+            temporaryFacts.remove(fact);
+        }
         super.remove(name);
         return this;
     }
 
     public RulesFacts remove(Object fact) {
         getAnonymousFacts().removeIf(anonFact -> {
+            Object anonFactValue = anonFact;
             if (anonFact instanceof TemporaryFact) {
-                anonFact = ((TemporaryFact) anonFact).getFact();
+                anonFactValue = ((TemporaryFact) anonFact).getFact();
+            }
+            if (anonFactValue.equals(fact)) {
+                if (anonFact instanceof TemporaryFact) {
+                    temporaryFacts.remove(anonFact);
+                }
+                return true;
             }
-            return anonFact.equals(fact);
+            return false;
         });
         return this;
     }
@@ -434,14 +550,179 @@ public class RulesFacts extends Facts implements RuleListener {
             storeLocationPredicates(getLocationPredicates(assetQuery.attributes));
         }
 
-        Predicate<AssetState> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        Predicate<AssetState> p = getAssetQueryPredicate(assetQuery);
+        return matchAssetState(getCandidateAssetStates(assetQuery), p);
+    }
+
+    /**
+     * Narrow the asset states that can match the query with the most selective index, any restriction by ID, exact
+     * type, parent ID or exact attribute name can be used. The query predicate must still be applied to the result.
+     */
+    protected Collection<AssetState> getCandidateAssetStates(AssetQuery assetQuery) {
+        List<Pair<Map<String, Set<AssetState>>, Collection<String>>> lookups = new ArrayList<>(4);
+
+        if (assetQuery.ids != null && assetQuery.ids.length > 0) {
+            lookups.add(new Pair<>(assetIdIndex, Arrays.asList(assetQuery.ids)));
+        }
+
+        if (assetQuery.types != null && assetQuery.types.length > 0) {
+            Set<String> types = new HashSet<>();
+            for (StringPredicate type : assetQuery.types) {
+                if (!isExactMatch(type)) {
+                    types = null;
+                    break;
+                }
+                types.add(type.value);
+            }
+            if (types != null) {
+                lookups.add(new Pair<>(assetTypeIndex, types));
+            }
+        }
+
+        if (assetQuery.parents != null && assetQuery.parents.length > 0
+            && Arrays.stream(assetQuery.parents).allMatch(parent -> parent.id != null)) {
+            lookups.add(new Pair<>(assetParentIdIndex, Arrays.stream(assetQuery.parents).map(parent -> parent.id).collect(Collectors.toSet())));
+        }
+
+        if (assetQuery.attributes != null) {
+            Set<String> attributeNames = getAttributeNames(assetQuery.attributes);
+            if (attributeNames != null) {
+                lookups.add(new Pair<>(assetAttributeNameIndex, attributeNames));
+            }
+        }
+
+        Pair<Map<String, Set<AssetState>>, Collection<String>> lookup = null;
+        int lookupSize = Integer.MAX_VALUE;
+        for (Pair<Map<String, Set<AssetState>>, Collection<String>> candidateLookup : lookups) {
+            int size = 0;
+            for (String key : candidateLookup.value) {
+                size += candidateLookup.key.getOrDefault(key, Collections.emptySet()).size();
+            }
+            if (size < lookupSize) {
+                lookup = candidateLookup;
+                lookupSize = size;
+            }
+        }
+
+        if (lookup == null) {
+            return getAssetStates();
+        }
+
+        List<AssetState> candidates = new ArrayList<>(lookupSize);
+        for (String key : new LinkedHashSet<>(lookup.value)) {
+            candidates.addAll(lookup.key.getOrDefault(key, Collections.emptySet()));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return The attribute names an asset state must have to match the attribute predicates, <code>null</code> if
+     * the attribute name is not restricted to exact names.
+     */
+    protected static Set<String> getAttributeNames(LogicGroup<AttributePredicate> group) {
+        boolean or = group.operator == LogicGroup.Operator.OR;
+        Set<String> attributeNames = null;
+
+        List<Set<String>> itemNames = new ArrayList<>();
+        for (AttributePredicate item : group.getItems()) {
+            itemNames.add(isExactMatch(item.name) ? Collections.singleton(item.name.value) : null);
+        }
+        if (group.groups != null) {
+            for (LogicGroup<AttributePredicate> subGroup : group.groups) {
+                itemNames.add(getAttributeNames(subGroup));
+            }
+        }
+
+        for (Set<String> names : itemNames) {
+            if (or) {
+                // Any item may match so all must be restricted
+                if (names == null) {
+                    return null;
+                }
+                if (attributeNames == null) {
+                    attributeNames = new HashSet<>();
+                }
+                attributeNames.addAll(names);
+            } else if (names != null && (attributeNames == null || names.size() < attributeNames.size())) {
+                // All items must match so any restriction applies
+                attributeNames = names;
+            }
+        }
+        return attributeNames;
+    }
+
+    protected static boolean isExactMatch(StringPredicate predicate) {
+        return predicate != null
+            && predicate.value != null
+            && predicate.match == AssetQuery.Match.EXACT
+            && predicate.caseSensitive
+            && !predicate.negate;
+    }
+
+    protected static ForkJoinPool getMatchPool() {
+        synchronized (RulesFacts.class) {
+            if (matchPool == null) {
+                matchPool = new ForkJoinPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("RulesFactsMatch-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    null,
+                    false
+                );
+            }
+            return matchPool;
+        }
     }
 
     public Stream<AssetState> matchAssetState(Predicate<AssetState> p) {
         // Match against all asset states by default
-        Stream<AssetState> assetStates = getAssetStates().stream();
-        return assetStates.parallel().filter(p);
+        return matchAssetState(getAssetStates(), p);
+    }
+
+    protected Stream<AssetState> matchAssetState(Collection<AssetState> candidates, Predicate<AssetState> p) {
+        if (candidates.size() < PARALLEL_MATCH_THRESHOLD) {
+            return candidates.stream().filter(p);
+        }
+
+        // Match on the dedicated pool, not the common pool shared with the rest of the system
+        List<AssetState> matched = getMatchPool().submit(() ->
+            candidates.parallelStream().filter(p).collect(Collectors.toList())
+        ).join();
+        return matched.stream();
+    }
+
+    /**
+     * @return The compiled predicate of the query, reused if an equal query was matched before. Queries are compared
+     * by their JSON representation so they may be created anew or modified for every match, a cached predicate is
+     * compiled from a copy of the query read from that JSON so later modifications of the query don't change it.
+     */
+    protected AssetQueryPredicate getAssetQueryPredicate(AssetQuery assetQuery) {
+        String key;
+        try {
+            key = Container.JSON.writeValueAsString(assetQuery);
+        } catch (JsonProcessingException e) {
+            return new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+        }
+
+        AssetQueryPredicate predicate = compiledQueries.get(key);
+        if (predicate == null) {
+            AssetQuery queryCopy;
+            try {
+                queryCopy = Container.JSON.readValue(key, AssetQuery.class);
+            } catch (IOException e) {
+                return new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+            }
+            predicate = new AssetQueryPredicate(timerService, assetStorageService, queryCopy);
+            // Predicates that loaded user asset links can't be reused as the links might change
+            if (predicate.isReusable()) {
+                compiledQueries.put(key, predicate);
+            }
+        }
+        return predicate;
     }
 
     public Optional<TemporaryFact<AssetState>> matchFirstAssetEvent(AssetQuery assetQuery) {
@@ -453,7 +734,7 @@ public class RulesFacts extends Facts implements RuleListener {
     }
 
     public Stream<TemporaryFact<AssetState>> matchAssetEvent(AssetQuery assetQuery) {
-        Predicate<AssetState> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+        Predicate<AssetState> p = getAssetQueryPredicate(assetQuery);
         return getAssetEvents().stream().parallel()
                 .filter(fact -> matchFact(fact, AssetState.class, p).isPresent());
     }
@@ -482,41 +763,26 @@ public class RulesFacts extends Facts implements RuleListener {
         return updateAssetState(assetId, attributeName, status.asValue());
     }
 
+    /**
+     * Removes the expired temporary facts, taking them from the expiry queue so only expired facts are visited.
+     */
     public void removeExpiredTemporaryFacts() {
         long currentTimestamp = (long) getClock().getTimestamp();
-        getAssetEvents().removeIf(fact -> {
-            boolean result = fact.isExpired(currentTimestamp);
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
-            }
-            return result;
-        });
-        asMap().entrySet().removeIf(entry -> {
-            if (entry.getKey().equals(CLOCK)
-                    || entry.getKey().equals(ASSET_STATES)
-                    || entry.getKey().equals(ASSET_EVENTS)
-                    || entry.getKey().equals(EXECUTION_VARS)
-                    || entry.getKey().equals(ANONYMOUS_FACTS)
-                    || !(entry.getValue() instanceof TemporaryFact)) {
-                return false;
-            }
-            boolean result = ((TemporaryFact) entry.getValue()).isExpired(currentTimestamp);
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + entry.getValue() + " - on: " + loggingContext);
+        ExpiringFact next;
+        while ((next = pollRemovedTemporaryFacts()) != null && next.fact.isExpired(currentTimestamp)) {
+            expiryQueue.poll();
+            temporaryFacts.remove(next.fact);
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Fact change (DELETE EXPIRED): " + next.fact + " - on: " + loggingContext);
             }
-            return result;
-        });
-        getAnonymousFacts().removeIf(fact -> {
-            boolean result = false;
-            if (fact instanceof TemporaryFact) {
-                TemporaryFact temporaryFact = (TemporaryFact) fact;
-                result = temporaryFact.isExpired((long) getClock().getTimestamp());
-            }
-            if (result && LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Fact change (DELETE EXPIRED): " + fact + " - on: " + loggingContext);
+            if (next.name != null) {
+                asMap().remove(next.name, next.fact);
+            } else if (next.assetEvent) {
+                getAssetEvents().remove(next.fact);
+            } else {
+                getAnonymousFacts().remove(next.fact);
             }
-            return result;
-        });
+        }
     }
 
     public boolean logFacts(Logger logger) {
@@ -611,26 +877,19 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Value value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getAttributeName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState> assetTypeIndexCollection = assetTypeIndex.get(assetState.getTypeString());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
+        Set<AssetState> assetIdIndexCollection = assetIdIndex.get(assetId);
+        if (assetIdIndexCollection != null) {
+            assetIdIndexCollection.stream()
+                .filter(assetState -> assetState.getAttributeName().equals(attributeName))
+                .findFirst()
+                .ifPresent(assetState -> {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
                     }
-                    return invalid;
+                    getAssetStates().remove(assetState);
+                    removeAssetStateIndex(assetState);
                 });
+        }
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
@@ -117,6 +117,7 @@ public class RulesHealthStatusProvider implements ContainerHealthStatusProvider
         }
         objectValue.put("tenant", tenantEngines);
         objectValue.put("asset", assetEngines);
+        objectValue.put("scriptCache", rulesService.scriptCache.getStatus());
         return objectValue;
     }
 
@@ -131,6 +132,7 @@ public class RulesHealthStatusProvider implements ContainerHealthStatusProvider
         val.put("totalDeployments", totalDeployments);
         val.put("executionErrorDeployments", executionErrorDeployments);
         val.put("compilationErrorDeployments", compilationErrorDeployments);
+        val.put("fireDurations", rulesEngine.getFireDurations().getStatus());
 
         ObjectValue deployments = Values.createObject();
 
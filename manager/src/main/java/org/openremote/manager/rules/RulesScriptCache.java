@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.rules;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.kohsuke.groovy.sandbox.SandboxTransformer;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches compiled Groovy script classes and Nashorn compiled scripts by a hash of their source, so deploying a
+ * ruleset with unchanged rules doesn't compile them again.
+ * <p>
+ * Each Groovy script is compiled in its own class loader. If a cache path is configured the generated Groovy
+ * bytecode is also stored on disk, and loaded from there after a restart. Nashorn scripts are compiled with a shared
+ * engine, each deployment evaluates the compiled script with its own bindings (and therefore its own global scope).
+ */
+public class RulesScriptCache {
+
+    private static final Logger LOG = Logger.getLogger(RulesScriptCache.class.getName());
+
+    public static final int MAX_SCRIPTS = 2048;
+    protected static final String CLASS_FILE_SUFFIX = ".class";
+
+    /**
+     * Defines the classes of a single compiled Groovy script.
+     */
+    protected static class ScriptClassLoader extends ClassLoader {
+
+        final protected Map<String, byte[]> classes;
+
+        protected ScriptClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    final protected CompilerConfiguration groovyConfig =
+        new CompilerConfiguration().addCompilationCustomizers(new SandboxTransformer());
+    final protected GroovyClassLoader groovyClassLoader = new GroovyClassLoader(RulesScriptCache.class.getClassLoader(), groovyConfig);
+    final protected ScriptEngine javascriptEngine;
+    final protected Path groovyCachePath;
+    final protected Map<String, Class<? extends Script>> groovyScripts = createCache();
+    final protected Map<String, CompiledScript> javascriptScripts = createCache();
+    final protected AtomicLong hitCount = new AtomicLong();
+    final protected AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param groovyCachePath The directory to store generated Groovy bytecode in, <code>null</code> to only cache in
+     *                        memory.
+     */
+    public RulesScriptCache(ScriptEngineManager scriptEngineManager, Path groovyCachePath) {
+        this.javascriptEngine = scriptEngineManager.getEngineByName("nashorn");
+        this.groovyCachePath = groovyCachePath;
+    }
+
+    protected static <V> Map<String, V> createCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_SCRIPTS;
+            }
+        });
+    }
+
+    /**
+     * @return A new instance of the compiled script, with an empty binding.
+     */
+    public Script createGroovyScript(String rules) throws Exception {
+        // Bytecode of a different Groovy version can't be reused
+        String hash = DigestUtils.sha256Hex(GroovySystem.getVersion() + "\n" + rules);
+        Class<? extends Script> scriptClass = groovyScripts.get(hash);
+        if (scriptClass != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            scriptClass = loadGroovyScript(hash, rules);
+            groovyScripts.put(hash, scriptClass);
+        }
+        return InvokerHelper.createScript(scriptClass, new Binding());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Class<? extends Script> loadGroovyScript(String hash, String rules) throws Exception {
+        String scriptClassName = "RulesetScript_" + hash;
+        Map<String, byte[]> classes = readGroovyClasses(hash);
+
+        if (classes == null) {
+            CompilationUnit compilationUnit = new CompilationUnit(groovyConfig, null, groovyClassLoader);
+            compilationUnit.addSource(scriptClassName + ".groovy", rules);
+            compilationUnit.compile(Phases.CLASS_GENERATION);
+            classes = new HashMap<>();
+            for (Object generated : compilationUnit.getClasses()) {
+                GroovyClass groovyClass = (GroovyClass) generated;
+                classes.put(groovyClass.getName(), groovyClass.getBytes());
+            }
+            writeGroovyClasses(hash, classes);
+        }
+
+        return (Class<? extends Script>) new ScriptClassLoader(groovyClassLoader, classes).loadClass(scriptClassName);
+    }
+
+    protected Map<String, byte[]> readGroovyClasses(String hash) {
+        if (groovyCachePath == null || !Files.isDirectory(groovyCachePath.resolve(hash))) {
+            return null;
+        }
+        Map<String, byte[]> classes = new HashMap<>();
+        try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(groovyCachePath.resolve(hash), "*" + CLASS_FILE_SUFFIX)) {
+            for (Path classFile : classFiles) {
+                String fileName = classFile.getFileName().toString();
+                classes.put(fileName.substring(0, fileName.length() - CLASS_FILE_SUFFIX.length()), Files.readAllBytes(classFile));
+            }
+            return classes;
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Failed to read cached script classes, compiling: " + hash, ex);
+            return null;
+        }
+    }
+
+    protected void writeGroovyClasses(String hash, Map<String, byte[]> classes) {
+        if (groovyCachePath == null) {
+            return;
+        }
+        try {
+            // Write into a temporary directory first, so a concurrent reader never sees a partial directory
+            Files.createDirectories(groovyCachePath);
+            Path tempPath = Files.createTempDirectory(groovyCachePath, hash + ".");
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                Files.write(tempPath.resolve(entry.getKey() + CLASS_FILE_SUFFIX), entry.getValue());
+            }
+            try {
+                Files.move(tempPath, groovyCachePath.resolve(hash), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // Another deployment stored the same script
+                try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(tempPath)) {
+                    for (Path classFile : classFiles) {
+                        Files.delete(classFile);
+                    }
+                }
+                Files.delete(tempPath);
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Failed to store script classes in cache: " + groovyCachePath, ex);
+        }
+    }
+
+    /**
+     * @return Bindings for evaluating a compiled script, with a new global scope.
+     */
+    public Bindings createJavascriptBindings() {
+        return javascriptEngine.createBindings();
+    }
+
+    public CompiledScript getJavascript(String script) throws ScriptException {
+        String hash = DigestUtils.sha256Hex(script);
+        CompiledScript compiledScript = javascriptScripts.get(hash);
+        if (compiledScript != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            compiledScript = ((Compilable) javascriptEngine).compile(script);
+            javascriptScripts.put(hash, compiledScript);
+        }
+        return compiledScript;
+    }
+
+    public ObjectValue getStatus() {
+        ObjectValue value = Values.createObject();
+        value.put("groovyScripts", groovyScripts.size());
+        value.put("javascriptScripts", javascriptScripts.size());
+        value.put("hitCount", hitCount.get());
+        value.put("missCount", missCount.get());
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "groovyScripts=" + groovyScripts.size() +
+            ", javascriptScripts=" + javascriptScripts.size() +
+            ", hitCount=" + hitCount.get() +
+            ", missCount=" + missCount.get() +
+            '}';
+    }
+}
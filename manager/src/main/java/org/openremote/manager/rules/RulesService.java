@@ -22,6 +22,8 @@ package org.openremote.manager.rules;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.concurrent.ContainerScheduledExecutor;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
@@ -57,8 +59,12 @@ import org.openremote.model.util.Pair;
 import org.openremote.model.value.ObjectValue;
 
 import javax.persistence.EntityManager;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -69,6 +75,7 @@ import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
 import static org.openremote.model.asset.AssetAttribute.getAddedOrModifiedAttributes;
@@ -99,13 +106,27 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     public static final int PRIORITY = AssetProcessingService.PRIORITY + 100;
     public static final String RULE_EVENT_EXPIRES = "RULE_EVENT_EXPIRES";
     public static final String RULE_EVENT_EXPIRES_DEFAULT = "1h";
+    /**
+     * Threads firing the rules engines, engines fire concurrently but each engine fires on one thread at a time.
+     */
+    public static final String RULES_FIRING_THREADS = "RULES_FIRING_THREADS";
+    public static final int RULES_FIRING_THREADS_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    /**
+     * Directory to store the compiled classes of Groovy rulesets in, so they are not compiled again after a restart.
+     */
+    public static final String RULES_SCRIPT_CACHE_PATH = "RULES_SCRIPT_CACHE_PATH";
+    public static final String RULES_SCRIPT_CACHE_PATH_DEFAULT = null;
     private static final Logger LOG = Logger.getLogger(RulesService.class.getName());
+    // Number of assets read at a time when loading the asset states at startup
+    protected static final int RULE_STATE_FETCH_SIZE = 1000;
 
     protected List<GeofenceAssetAdapter> geofenceAssetAdapters = new ArrayList<>();
     protected final Map<String, RulesEngine<TenantRuleset>> tenantEngines = new HashMap<>();
     protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
     protected TimerService timerService;
     protected ManagerExecutorService executorService;
+    protected ScheduledExecutorService rulesFiringExecutor;
+    protected RulesScriptCache scriptCache;
     protected PersistenceService persistenceService;
     protected RulesetStorageService rulesetStorageService;
     protected ManagerIdentityService identityService;
@@ -123,7 +144,15 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     // Keep global list of asset states that have been pushed to any engines
     // The objects are already in memory inside the rule engines but keeping them
     // here means we can quickly insert facts into newly started engines
-    protected Set<AssetState> assetStates = new HashSet<>();
+    protected Map<AssetState, AssetState> assetStates = new HashMap<>();
+    // Asset states by the ID of every asset in their path, so the states of a subtree are found without a full scan
+    protected Map<String, Set<AssetState>> assetStatesByPathId = new HashMap<>();
+    // Chain of engines in scope by realm and asset path, replaced when engines are added or removed
+    protected volatile Map<String, List<RulesEngine<?>>> engineChains = new ConcurrentHashMap<>();
+    // Guards asset state routing to the engines, structural changes to the engines require the global lock
+    protected final ScopedLock assetStateLock = new ScopedLock(RulesService.class.getSimpleName());
+    // Guards location predicate tracking, acquired by engines while firing so must never be held when calling an engine
+    protected final ScopedLock geofenceLock = new ScopedLock(RulesService.class.getSimpleName() + ":geofence");
     protected String configEventExpires;
     protected boolean initDone;
 
@@ -180,6 +209,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         geofenceAssetAdapters.sort(Comparator.comparingInt(GeofenceAssetAdapter::getPriority));
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
         configEventExpires = getString(container.getConfig(), RULE_EVENT_EXPIRES, RULE_EVENT_EXPIRES_DEFAULT);
+        String scriptCachePath = getString(container.getConfig(), RULES_SCRIPT_CACHE_PATH, RULES_SCRIPT_CACHE_PATH_DEFAULT);
+        scriptCache = new RulesScriptCache(
+            RulesetDeployment.scriptEngineManager, scriptCachePath != null ? Paths.get(scriptCachePath) : null
+        );
+        rulesFiringExecutor = new ContainerScheduledExecutor(
+            "Rules firing", getInteger(container.getConfig(), RULES_FIRING_THREADS, RULES_FIRING_THREADS_DEFAULT)
+        );
 
         container.getService(ManagerWebService.class).getApiSingletons().add(
                 new FlowResourceImpl(
@@ -268,18 +304,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             .count();//Needed in order to execute the stream. TODO: can this be done differently?
 
         LOG.info("Loading all assets with fact attributes to initialize state of rules engines");
-        Stream<Pair<Asset, Stream<AssetAttribute>>> stateAttributes = findRuleStateAttributes();
-
-        // Push each attribute as an asset update through the rule engine chain
-        // that will ensure the insert only happens to the engines in scope
-        stateAttributes
-            .forEach(pair -> {
-                Asset asset = pair.key;
-                pair.value.forEach(ruleAttribute -> {
-                    AssetState assetState = new AssetState(asset, ruleAttribute, Source.INTERNAL);
-                    updateAssetState(assetState);
-                });
-            });
+        List<AssetState> loadedAssetStates = new ArrayList<>();
+        findRuleStateAttributes(asset ->
+            asset.getAttributesStream()
+                .filter(AssetAttribute::isRuleState)
+                .forEach(ruleAttribute -> loadedAssetStates.add(new AssetState(asset, ruleAttribute, Source.INTERNAL)))
+        );
+        insertInitialAssetStates(loadedAssetStates);
 
         // Start the engines
         if (globalEngine != null) {
@@ -311,11 +342,15 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
 
             assetStates.clear();
+            assetStatesByPathId.clear();
+            invalidateEngineChains();
         });
 
         for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
             geofenceAssetAdapter.stop(container);
         }
+
+        rulesFiringExecutor.shutdownNow();
     }
 
     @Override
@@ -342,7 +377,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     public GeofenceDefinition[] getAssetGeofences(String assetId) {
-        return withLockReturning(getClass().getSimpleName() + "::getAssetGeofences", () -> {
+        return geofenceLock.withReadLockReturning(getClass().getSimpleName() + "::getAssetGeofences", () -> {
 
             LOG.finest("Requesting geofences for asset: " + assetId);
 
@@ -386,6 +421,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     entry.getValue().getId().getRealm().map(realm -> realm.equals(tenant.getRealm())).orElse(
                         false)
                 );
+                invalidateEngineChains();
 
             } else {
                 // Create tenant rules engines for this tenant if it has any rulesets
@@ -415,7 +451,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        assetStateLock.withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
 
             // We must load the asset from database (only when required), as the
             // persistence event might not contain a completely loaded asset
@@ -446,6 +482,11 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     break;
                 }
                 case UPDATE: {
+                    // The paths of the asset states in the moved subtree and the engines in their scope have changed
+                    if (!Objects.equals(persistenceEvent.getPreviousState("parentId"), persistenceEvent.getCurrentState("parentId"))) {
+                        moveAssetStates(asset.getId());
+                    }
+
                     int attributesIndex = Arrays.asList(persistenceEvent.getPropertyNames()).indexOf("attributes");
                     if (attributesIndex < 0) {
                         return;
@@ -522,7 +563,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
                     if (isNewEngine) {
                         // Push all existing facts into the engine
-                        assetStates.forEach(assetState -> engine.updateOrInsertAssetState(assetState, true));
+                        engine.insertAssetStates(new ArrayList<>(assetStates.keySet()));
                     }
 
                     engine.start();
@@ -534,11 +575,11 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
                     if (isNewEngine) {
                         // Push all existing facts into the engine
-                        assetStates.forEach(assetState -> {
-                            if (assetState.getRealm().equals(((TenantRuleset) ruleset).getRealm())) {
-                                engine.updateOrInsertAssetState(assetState, true);
-                            }
-                        });
+                        engine.insertAssetStates(
+                            assetStates.keySet().stream()
+                                .filter(assetState -> assetState.getRealm().equals(((TenantRuleset) ruleset).getRealm()))
+                                .collect(Collectors.toList())
+                        );
                     }
 
                     engine.start();
@@ -552,8 +593,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
 
                     if (isNewEngine) {
                         // Push all existing facts for this asset (and it's children into the engine)
-                        getAssetStatesInScope(((AssetRuleset) ruleset).getAssetId())
-                            .forEach(assetState -> engine.updateOrInsertAssetState(assetState, true));
+                        engine.insertAssetStates(getAssetStatesInScope(((AssetRuleset) ruleset).getAssetId()));
                     }
 
                     engine.start();
@@ -574,6 +614,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     timerService,
                     identityService,
                     executorService,
+                    rulesFiringExecutor,
+                    scriptCache,
                     assetStorageService,
                     assetProcessingService,
                     notificationService,
@@ -586,6 +628,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             }
 
             globalEngine.addRuleset(ruleset);
+            invalidateEngineChains();
 
             return globalEngine;
         });
@@ -600,6 +643,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             if (globalEngine.removeRuleset(ruleset)) {
                 globalEngine.stop();
                 globalEngine = null;
+                invalidateEngineChains();
             }
         });
     }
@@ -615,6 +659,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        rulesFiringExecutor,
+                        scriptCache,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -626,6 +672,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     ));
 
             tenantRulesEngine.addRuleset(ruleset);
+            invalidateEngineChains();
 
             return tenantRulesEngine;
         });
@@ -641,6 +688,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             if (rulesEngine.removeRuleset(ruleset)) {
                 rulesEngine.stop();
                 tenantEngines.remove(ruleset.getRealm());
+                invalidateEngineChains();
             }
         });
     }
@@ -690,6 +738,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        rulesFiringExecutor,
+                        scriptCache,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -701,6 +751,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     ));
 
             assetRulesEngine.addRuleset(ruleset);
+            invalidateEngineChains();
 
             return assetRulesEngine;
         });
@@ -716,12 +767,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             if (rulesEngine.removeRuleset(ruleset)) {
                 rulesEngine.stop();
                 assetEngines.remove(ruleset.getAssetId());
+                invalidateEngineChains();
             }
         });
     }
 
     protected void insertAssetEvent(AssetState assetState, String expires) {
-        withLock(getClass().getSimpleName() + "::insertAssetEvent", () -> {
+        assetStateLock.withLock(getClass().getSimpleName() + "::insertAssetEvent", () -> {
             // Get the chain of rule engines that we need to pass through
             List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
 
@@ -746,7 +798,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void updateAssetState(AssetState assetState) {
-        withLock(getClass().getSimpleName() + "::updateAssetState", () -> {
+        assetStateLock.withLock(getClass().getSimpleName() + "::updateAssetState", () -> {
             // TODO: implement rules processing error state handling
 
             LOG.fine("Updating asset state: " + assetState);
@@ -755,8 +807,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
 
             // Remove asset state with same attribute ref as new state, add new state
-            boolean inserted = !assetStates.remove(assetState);
-            assetStates.add(assetState);
+            boolean inserted = putAssetState(assetState) == null;
 
             // Pass through each rules engine
             for (RulesEngine<?> rulesEngine : rulesEngines) {
@@ -766,30 +817,97 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void retractAssetState(AssetState assetState) {
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
+        assetStateLock.withLock(getClass().getSimpleName() + "::retractAssetState", () -> {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine<?>> rulesEngines = getEnginesInScope(assetState.getRealm(), assetState.getPath());
 
-        // Remove asset state with same attribute ref
-        assetStates.remove(assetState);
+            // Remove asset state with same attribute ref
+            removeAssetState(assetState);
 
-        if (rulesEngines.size() == 0) {
-            LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
+            if (rulesEngines.size() == 0) {
+                LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
+            }
+
+            // Pass through each rules engine
+            for (RulesEngine<?> rulesEngine : rulesEngines) {
+                rulesEngine.removeAssetState(assetState);
+            }
+        });
+    }
+
+    /**
+     * @return The previous asset state with the same attribute ref, <code>null</code> if the asset state is new.
+     */
+    protected AssetState putAssetState(AssetState assetState) {
+        AssetState previous = removeAssetState(assetState);
+        assetStates.put(assetState, assetState);
+        for (String pathId : assetState.getPath()) {
+            assetStatesByPathId.computeIfAbsent(pathId, id -> new HashSet<>()).add(assetState);
         }
+        return previous;
+    }
 
-        // Pass through each rules engine
-        for (RulesEngine<?> rulesEngine : rulesEngines) {
-            rulesEngine.removeAssetState(assetState);
+    protected AssetState removeAssetState(AssetState assetState) {
+        AssetState previous = assetStates.remove(assetState);
+        if (previous != null) {
+            // The path of the previous state might be different if the asset was moved
+            for (String pathId : previous.getPath()) {
+                Set<AssetState> pathAssetStates = assetStatesByPathId.get(pathId);
+                if (pathAssetStates != null && pathAssetStates.remove(previous) && pathAssetStates.isEmpty()) {
+                    assetStatesByPathId.remove(pathId);
+                }
+            }
         }
+        return previous;
     }
 
+    /**
+     * @return The asset states of the asset and its descendants.
+     */
     protected List<AssetState> getAssetStatesInScope(String assetId) {
-        return assetStates
-            .stream()
-            .filter(assetState -> Arrays.asList(assetState.getPath()).contains(assetId))
-            .collect(Collectors.toList());
+        Set<AssetState> pathAssetStates = assetStatesByPathId.get(assetId);
+        return pathAssetStates != null ? new ArrayList<>(pathAssetStates) : new ArrayList<>();
     }
 
+    /**
+     * Retract the asset states of the moved asset and its descendants and insert them again with their new path.
+     */
+    protected void moveAssetStates(String assetId) {
+        invalidateEngineChains();
+        Map<String, Optional<Asset>> loadedAssets = new HashMap<>();
+        for (AssetState assetState : getAssetStatesInScope(assetId)) {
+            Optional<Asset> loadedAsset = loadedAssets.computeIfAbsent(
+                assetState.getId(),
+                id -> Optional.ofNullable(assetStorageService.find(id, true))
+            );
+            retractAssetState(assetState);
+            loadedAsset.ifPresent(movedAsset ->
+                movedAsset.getAttribute(assetState.getAttributeName())
+                    .filter(AssetAttribute::isRuleState)
+                    .ifPresent(attribute -> updateAssetState(new AssetState(movedAsset, attribute, Source.INTERNAL)))
+            );
+        }
+    }
+
+    protected void invalidateEngineChains() {
+        // Replace instead of clearing, a chain computed concurrently from the previous engines is then discarded
+        engineChains = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The engines in scope of the asset with the given path (starting with the asset's own ID), cached by
+     * realm and full path until engines are added or removed, so a moved asset gets the chain of its new parents.
+     */
     protected List<RulesEngine<?>> getEnginesInScope(String realm, String[] assetPath) {
+        if (assetPath == null || assetPath.length == 0) {
+            return findEnginesInScope(realm, new String[0]);
+        }
+        Map<String, List<RulesEngine<?>>> chains = engineChains;
+        String key = realm + ":" + String.join("/", assetPath);
+        return chains.computeIfAbsent(key, k -> Collections.unmodifiableList(findEnginesInScope(realm, assetPath)));
+    }
+
+    protected List<RulesEngine<?>> findEnginesInScope(String realm, String[] assetPath) {
         List<RulesEngine<?>> rulesEngines = new ArrayList<>();
 
         // Add global engine (if it exists)
@@ -815,19 +933,40 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         return rulesEngines;
     }
 
-    protected Stream<Pair<Asset, Stream<AssetAttribute>>> findRuleStateAttributes() {
-        List<Asset> assets = assetStorageService.findAll(
+    protected void findRuleStateAttributes(Consumer<Asset> assetConsumer) {
+        assetStorageService.findAll(
             new AssetQuery()
                 .attributeMeta(
                     new MetaPredicate(
                         MetaItemType.RULE_STATE,
                         new BooleanPredicate(true))
-                ));
+                ),
+            RULE_STATE_FETCH_SIZE,
+            assetConsumer
+        );
+    }
 
-        return assets.stream()
-            .map((Asset asset) ->
-                new Pair<>(asset, asset.getAttributesStream().filter(AssetAttribute::isRuleState))
-            );
+    /**
+     * Insert the asset states loaded at startup into the engines in scope with one bulk insert per engine, before the
+     * engines are started. A state that was updated while loading is newer than the loaded state and is kept.
+     */
+    protected void insertInitialAssetStates(List<AssetState> loadedAssetStates) {
+        assetStateLock.withLock(getClass().getSimpleName() + "::insertInitialAssetStates", () -> {
+            Map<RulesEngine<?>, List<AssetState>> engineAssetStates = new HashMap<>();
+
+            for (AssetState assetState : loadedAssetStates) {
+                if (assetStates.containsKey(assetState)) {
+                    continue;
+                }
+                putAssetState(assetState);
+                for (RulesEngine<?> rulesEngine : getEnginesInScope(assetState.getRealm(), assetState.getPath())) {
+                    engineAssetStates.computeIfAbsent(rulesEngine, engine -> new ArrayList<>()).add(assetState);
+                }
+            }
+
+            engineAssetStates.forEach(RulesEngine::insertAssetStates);
+            LOG.info("Inserted asset states into rules engines: " + loadedAssetStates.size());
+        });
     }
 
     /**
@@ -837,7 +976,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
      * notify the {@link GeofenceAssetAdapter}s.
      */
     protected void onEngineLocationRulesChanged(RulesEngine<?> rulesEngine, List<RulesEngine.AssetStateLocationPredicates> newEngineAssetStateLocationPredicates) {
-        withLock(getClass().getSimpleName() + "::onEngineLocationRulesChanged", () -> {
+        geofenceLock.withLock(getClass().getSimpleName() + "::onEngineLocationRulesChanged", () -> {
             int initialModifiedCount = assetsWithModifiedLocationPredicates.size();
 
             if (newEngineAssetStateLocationPredicates == null) {
@@ -913,7 +1052,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void processModifiedGeofences() {
-        withLock(getClass().getSimpleName() + "::processModifiedGeofences", () -> {
+        geofenceLock.withLock(getClass().getSimpleName() + "::processModifiedGeofences", () -> {
             LOG.finest("Processing geofence modifications: modified asset geofence count=" + assetsWithModifiedLocationPredicates.size());
 
             try {
@@ -984,13 +1123,12 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     }
 
     public void fireDeploymentsWithPredictedDataForAsset(String assetId) {
-        List<AssetState> assetStates = getAssetStatesInScope(assetId);
-        if (assetStates.size() > 0) {
-            String realm = assetStates.get(0).getRealm();
-            String[] assetPaths = assetStates.stream().flatMap(assetState -> Arrays.stream(assetState.getPath())).toArray(String[]::new);
-            for (RulesEngine<?> rulesEngine : getEnginesInScope(realm, assetPaths)) {
-                rulesEngine.fireAllDeploymentsWithPredictedData();
-            }
+        Set<RulesEngine<?>> rulesEngines = new LinkedHashSet<>();
+        for (AssetState assetState : getAssetStatesInScope(assetId)) {
+            rulesEngines.addAll(getEnginesInScope(assetState.getRealm(), assetState.getPath()));
+        }
+        for (RulesEngine<?> rulesEngine : rulesEngines) {
+            rulesEngine.fireAllDeploymentsWithPredictedData();
         }
     }
 
@@ -20,18 +20,16 @@
 package org.openremote.manager.rules;
 
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
-import org.codehaus.groovy.control.CompilerConfiguration;
 import org.jeasy.rules.api.Action;
 import org.jeasy.rules.api.Condition;
 import org.jeasy.rules.api.Rule;
 import org.jeasy.rules.api.Rules;
 import org.jeasy.rules.core.RuleBuilder;
 import org.kohsuke.groovy.sandbox.GroovyValueFilter;
-import org.kohsuke.groovy.sandbox.SandboxTransformer;
 import org.openremote.container.Container;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.concurrent.ManagerExecutorService;
@@ -50,7 +48,6 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.manager.rules.AssetQueryPredicate.getNextOrActiveFromTo;
 
 public class RulesetDeployment {
@@ -95,8 +92,6 @@ public class RulesetDeployment {
     // Share one JS script engine manager, it's thread-safe
     static final protected ScriptEngineManager scriptEngineManager;
 
-    static final protected GroovyShell groovyShell;
-
     static {
         scriptEngineManager = new ScriptEngineManager();
 
@@ -104,20 +99,6 @@ public class RulesetDeployment {
         // TODO Use a different logger for each RulesEngine and show messages in Manager UI for that engine
         scriptEngineManager.put("LOG", RulesEngine.RULES_LOG);
         scriptEngineManager.put("console", new JsConsole(RulesEngine.RULES_LOG));
-
-        /* TODO Sharing a static GroovyShell doesn't work, redeploying a ruleset which defines classes (e.g. Flight) is broken:
-
-        java.lang.RuntimeException: Error evaluating condition of rule '-Update flight facts when estimated landing time of flight asset is updated':
-        No signature of method: org.openremote.manager.setup.database.Script1$_run_closure2$_closure14$_closure17.doCall() is applicable for argument types: (org.openremote.manager.setup.database.Flight) values: [...]
-        Possible solutions: doCall(org.openremote.manager.setup.database.Flight), findAll(), findAll(), isCase(java.lang.Object), isCase(java.lang.Object)
-        The following classes appear as argument class and as parameter class, but are defined by different class loader:
-        org.openremote.manager.setup.database.Flight (defined by 'groovy.lang.GroovyClassLoader$InnerLoader@2cc34cd5' and 'groovy.lang.GroovyClassLoader$InnerLoader@1af957bc')
-        If one of the method suggestions matches the method you wanted to call,
-        then check your class loader setup.
-         */
-        groovyShell = new GroovyShell(
-                new CompilerConfiguration().addCompilationCustomizers(new SandboxTransformer())
-        );
     }
 
     final protected Ruleset ruleset;
@@ -131,17 +112,22 @@ public class RulesetDeployment {
     final protected HistoricDatapoints historicDatapointsFacade;
     final protected PredictedDatapoints predictedDatapointsFacade;
     final protected List<ScheduledFuture<?>> scheduledRuleActions = new ArrayList<>();
+    final protected ScopedLock engineLock;
+    final protected RulesScriptCache scriptCache;
     protected RulesetStatus status = RulesetStatus.READY;
     protected Throwable error;
     protected JsonRulesBuilder jsonRulesBuilder;
     protected FlowRulesBuilder flowRulesBuilder;
     protected CalendarEvent validity;
     protected Pair<Long, Long> nextValidity;
+    // Set when the deployment is started, it must then fire regardless of asset state changes
+    protected boolean fireRequired;
 
     public RulesetDeployment(Ruleset ruleset, TimerService timerService,
                              AssetStorageService assetStorageService, ManagerExecutorService executorService,
                              Assets assetsFacade, Users usersFacade, Notifications notificationsFacade,
-                             HistoricDatapoints historicDatapointsFacade, PredictedDatapoints predictedDatapointsFacade) {
+                             HistoricDatapoints historicDatapointsFacade, PredictedDatapoints predictedDatapointsFacade,
+                             ScopedLock engineLock, RulesScriptCache scriptCache) {
         this.ruleset = ruleset;
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
@@ -151,6 +137,8 @@ public class RulesetDeployment {
         this.notificationsFacade = notificationsFacade;
         this.historicDatapointsFacade = historicDatapointsFacade;
         this.predictedDatapointsFacade = predictedDatapointsFacade;
+        this.engineLock = engineLock;
+        this.scriptCache = scriptCache;
 
         if (ruleset.hasMeta(Ruleset.META_KEY_VALIDITY)) {
             validity = ruleset.getValidity();
@@ -227,6 +215,7 @@ public class RulesetDeployment {
      * Called when a ruleset is started (allows for initialisation tasks)
      */
     public void start(RulesFacts facts) {
+        fireRequired = true;
         if (jsonRulesBuilder != null) {
             jsonRulesBuilder.start(facts);
         }
@@ -247,6 +236,22 @@ public class RulesetDeployment {
         }
     }
 
+    /**
+     * Only JSON rules declare the asset states they depend on, other rules must fire whenever the engine fires.
+     *
+     * @return <code>true</code> if the rules must fire given the asset states changed since the engine last fired.
+     */
+    public boolean isFireRequired(Collection<AssetState> updatedAssetStates, Collection<AssetState> insertedOrRemovedAssetStates) {
+        return fireRequired
+            || jsonRulesBuilder == null
+            || jsonRulesBuilder.isTimeDependent()
+            || jsonRulesBuilder.dependsOn(updatedAssetStates, insertedOrRemovedAssetStates);
+    }
+
+    public void onFired() {
+        fireRequired = false;
+    }
+
     public void onAssetStatesChanged(RulesFacts facts, RulesEngine.AssetStateChangeEvent event) {
         if (jsonRulesBuilder != null) {
             jsonRulesBuilder.onAssetStatesChanged(facts, event);
@@ -254,9 +259,9 @@ public class RulesetDeployment {
     }
 
     protected void scheduleRuleAction(Runnable action, long delayMillis) {
-        withLock(toString() + "::scheduleRuleAction", () -> {
+        engineLock.withLock(toString() + "::scheduleRuleAction", () -> {
             ScheduledFuture<?> future = executorService.schedule(() ->
-                    withLock(toString() + "::scheduledRuleActionFire", () -> {
+                    engineLock.withLock(toString() + "::scheduledRuleActionFire", () -> {
                         scheduledRuleActions.removeIf(Future::isDone);
                         action.run();
                     }), delayMillis);
@@ -283,10 +288,7 @@ public class RulesetDeployment {
 
     protected boolean compileRulesJavascript(Ruleset ruleset, Assets assetsFacade, Users usersFacade, Notifications notificationsFacade, HistoricDatapoints historicDatapointsFacade, PredictedDatapoints predictedDatapointsFacade) {
         // TODO https://github.com/pfisterer/scripting-sandbox/blob/master/src/main/java/de/farberg/scripting/sandbox/ScriptingSandbox.java
-        ScriptEngine scriptEngine = scriptEngineManager.getEngineByName("nashorn");
-        ScriptContext newContext = new SimpleScriptContext();
-        newContext.setBindings(scriptEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
-        Bindings engineScope = newContext.getBindings(ScriptContext.ENGINE_SCOPE);
+        Bindings engineScope = scriptCache.createJavascriptBindings();
 
         engineScope.put("assets", assetsFacade);
         engineScope.put("users", usersFacade);
@@ -343,7 +345,7 @@ public class RulesetDeployment {
                 + script;
 
         try {
-            scriptEngine.eval(script, engineScope);
+            scriptCache.getJavascript(script).eval(engineScope);
 
             compileRulesJavascript((ScriptObjectMirror) engineScope.get("rules"));
             return true;
@@ -428,8 +430,8 @@ public class RulesetDeployment {
         try {
             // TODO Implement sandbox
             // new DenyAll().register();
-            Script script = groovyShell.parse(ruleset.getRules());
-            Binding binding = new Binding();
+            Script script = scriptCache.createGroovyScript(ruleset.getRules());
+            Binding binding = script.getBinding();
             RulesBuilder rulesBuilder = new RulesBuilder();
             binding.setVariable("LOG", RulesEngine.RULES_LOG);
             binding.setVariable("rules", rulesBuilder);
@@ -438,7 +440,6 @@ public class RulesetDeployment {
             binding.setVariable("notifications", notificationFacade);
             binding.setVariable("historicDatapoints", historicDatapointsFacade);
             binding.setVariable("predictedDatapoints", predictedDatapointsFacade);
-            script.setBinding(binding);
             script.run();
             for (Rule rule : rulesBuilder.build()) {
                 RulesEngine.LOG.fine("Registering groovy rule: " + rule.getName());
@@ -21,6 +21,7 @@ package org.openremote.manager.rules.geofence;
 
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
+import org.openremote.container.concurrent.ScopedLock;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.manager.asset.AssetStorageService;
@@ -51,7 +52,6 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.persistence.PersistenceEvent.*;
 import static org.openremote.model.asset.AssetResource.Util.WRITE_ATTRIBUTE_HTTP_METHOD;
 import static org.openremote.model.asset.AssetResource.Util.getWriteAttributeUrl;
@@ -80,6 +80,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     protected Map<String, String> consoleIdRealmMap;
     protected ScheduledFuture notifyAssetsScheduledFuture;
     protected Set<String> notifyAssets;
+    protected final ScopedLock adapterLock = new ScopedLock(ORConsoleGeofenceAssetAdapter.class.getSimpleName());
 
     @Override
     public int getPriority() {
@@ -142,7 +143,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
     @Override
     public void processLocationPredicates(List<RulesEngine.AssetStateLocationPredicates> modifiedAssetLocationPredicates) {
 
-        withLock(getClass().getSimpleName() + "::processLocationPredicates", () -> {
+        adapterLock.withLock(getClass().getSimpleName() + "::processLocationPredicates", () -> {
 
             AtomicBoolean notifierDebounce = new AtomicBoolean(false);
 
@@ -198,7 +199,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
             if (notifierDebounce.get()) {
                 if (notifyAssetsScheduledFuture == null || notifyAssetsScheduledFuture.cancel(false)) {
                     notifyAssetsScheduledFuture = executorService.schedule(() ->
-                            withLock(getClass().getSimpleName() + "::notifyAssets",
+                            adapterLock.withLock(getClass().getSimpleName() + "::notifyAssets",
                                 () -> {
                                     notifyAssetGeofencesChanged(notifyAssets);
                                     notifyAssets = null;
@@ -212,30 +213,32 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
 
     @Override
     public GeofenceDefinition[] getAssetGeofences(String assetId) {
-        String realm = consoleIdRealmMap.get(assetId);
+        return adapterLock.withReadLockReturning(getClass().getSimpleName() + "::getAssetGeofences", () -> {
+            String realm = consoleIdRealmMap.get(assetId);
 
-        if (realm == null) {
-            LOG.info("Console ID not found in map so cannot retrieve geofences");
-            // Asset not supported by this adapter
-            return null;
-        }
+            if (realm == null) {
+                LOG.info("Console ID not found in map so cannot retrieve geofences");
+                // Asset not supported by this adapter
+                return null;
+            }
 
-        RulesEngine.AssetStateLocationPredicates assetStateLocationPredicates = assetLocationPredicatesMap.get(assetId);
+            RulesEngine.AssetStateLocationPredicates assetStateLocationPredicates = assetLocationPredicatesMap.get(assetId);
 
-        if (assetStateLocationPredicates == null) {
-            // No geofences exist for this asset
-            LOG.info("Request for console '" + assetId + "' geofences: 0 found");
-            return new GeofenceDefinition[0];
-        }
+            if (assetStateLocationPredicates == null) {
+                // No geofences exist for this asset
+                LOG.info("Request for console '" + assetId + "' geofences: 0 found");
+                return new GeofenceDefinition[0];
+            }
 
-        GeofenceDefinition[] geofences = assetStateLocationPredicates.getLocationPredicates().stream()
-            .map(locationPredicate ->
-                locationPredicateToGeofenceDefinition(assetStateLocationPredicates.getAssetId(),
-                    locationPredicate))
-            .toArray(GeofenceDefinition[]::new);
+            GeofenceDefinition[] geofences = assetStateLocationPredicates.getLocationPredicates().stream()
+                .map(locationPredicate ->
+                    locationPredicateToGeofenceDefinition(assetStateLocationPredicates.getAssetId(),
+                        locationPredicate))
+                .toArray(GeofenceDefinition[]::new);
 
-        LOG.info("Request for console '" + assetId + "' geofences: " + geofences.length + " found");
-        return geofences;
+            LOG.info("Request for console '" + assetId + "' geofences: " + geofences.length + " found");
+            return geofences;
+        });
     }
 
     protected GeofenceDefinition locationPredicateToGeofenceDefinition(String assetId, GeofencePredicate geofencePredicate) {
@@ -282,7 +285,7 @@ public class ORConsoleGeofenceAssetAdapter extends RouteBuilder implements Geofe
 
     protected void processConsoleAssetChange(Asset asset, PersistenceEvent persistenceEvent) {
 
-        withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
+        adapterLock.withLock(getClass().getSimpleName() + "::processAssetChange", () -> {
             switch (persistenceEvent.getCause()) {
 
                 case CREATE:
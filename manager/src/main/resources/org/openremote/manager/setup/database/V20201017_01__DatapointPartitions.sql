@@ -0,0 +1,53 @@
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+/*
+  Daily partitions of ASSET_DATAPOINT are child tables named ASSET_DATAPOINT_PYYYYMMDD, created ahead of
+  time by the application. Rows without a partition (e.g. existing rows) are stored in the parent table.
+ */
+create or replace function CREATE_ASSET_DATAPOINT_PARTITION(PARTITION_DATE date)
+  returns boolean as
+$$
+declare
+  PARTITION_NAME text := 'asset_datapoint_p' || to_char(PARTITION_DATE, 'YYYYMMDD');
+begin
+  if to_regclass(PARTITION_NAME) is not null then
+    return false;
+  end if;
+  execute format(
+      'create table %I ('
+      || 'check (TIMESTAMP >= %L::timestamp and TIMESTAMP < %L::timestamp), '
+      || 'primary key (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME), '
+      || 'foreign key (ENTITY_ID) references ASSET (ID) on delete cascade'
+      || ') inherits (ASSET_DATAPOINT)',
+      PARTITION_NAME, PARTITION_DATE, PARTITION_DATE + 1);
+  return true;
+end;
+$$
+language plpgsql;
+
+create or replace function INSERT_ASSET_DATAPOINT_PARTITION()
+  returns trigger as
+$$
+declare
+  PARTITION_NAME text := 'asset_datapoint_p' || to_char(NEW.TIMESTAMP, 'YYYYMMDD');
+begin
+  if to_regclass(PARTITION_NAME) is null then
+    return NEW;
+  end if;
+  execute format(
+      'insert into %I select ($1).* '
+      || 'on conflict (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME) do update set VALUE = excluded.VALUE',
+      PARTITION_NAME) using NEW;
+  return null;
+end;
+$$
+language plpgsql;
+
+/*
+  ############################# TRIGGERS #############################
+ */
+create trigger ASSET_DATAPOINT_PARTITION
+  before insert on ASSET_DATAPOINT
+  for each row execute procedure INSERT_ASSET_DATAPOINT_PARTITION();
@@ -0,0 +1,27 @@
+/*
+  ############################# TABLES #############################
+ */
+
+/*
+  Rollups of numeric and boolean (as 0 and 1) datapoints per attribute, maintained by the application.
+ */
+create table ASSET_DATAPOINT_ROLLUP (
+  ENTITY_ID      varchar(36)  not null,
+  ATTRIBUTE_NAME varchar(255) not null,
+  RESOLUTION     varchar(15)  not null,
+  TIMESTAMP      timestamp    not null,
+  MIN_VALUE      numeric,
+  MAX_VALUE      numeric,
+  SUM_VALUE      numeric,
+  COUNT_VALUE    int8         not null,
+  LAST_VALUE     jsonb,
+  LAST_TIMESTAMP timestamp    not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, RESOLUTION, TIMESTAMP)
+);
+
+/*
+  ############################# CONSTRAINTS #############################
+ */
+
+alter table ASSET_DATAPOINT_ROLLUP
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
@@ -0,0 +1,76 @@
+/*
+  The path of an asset, ordered from the asset itself to the root asset, is stored in ASSET.PATH and
+  maintained by triggers on insert and when the parent changes, so reading it doesn't walk the tree.
+ */
+alter table ASSET
+  add column PATH text [];
+
+update ASSET
+set PATH = GET_ASSET_TREE_PATH(ID);
+
+alter table ASSET
+  alter column PATH set not null;
+
+create index ASSET_PATH on ASSET using gin (PATH);
+
+/*
+  ############################# FUNCTIONS #############################
+ */
+create or replace function GET_ASSET_TREE_PATH(ASSET_ID text)
+  returns text [] as
+$$
+select PATH
+from ASSET
+where ID = ASSET_ID;
+$$
+language sql stable;
+
+create or replace function SET_ASSET_PATH()
+  returns trigger as
+$$
+declare
+  PARENT_PATH text [];
+begin
+  if NEW.PARENT_ID is not null then
+    -- Lock the parent so a concurrent move of the parent can't leave a stale path
+    select PATH into PARENT_PATH from ASSET where ID = NEW.PARENT_ID for share;
+    if PARENT_PATH @> array [text(NEW.ID)] then
+      raise exception 'Asset % can not be moved into its own subtree', NEW.ID;
+    end if;
+  end if;
+  NEW.PATH := array [text(NEW.ID)] || PARENT_PATH;
+  return NEW;
+end;
+$$
+language plpgsql;
+
+create or replace function UPDATE_DESCENDANT_ASSET_PATHS()
+  returns trigger as
+$$
+begin
+  update ASSET
+  set PATH = PATH [1:array_position(PATH, text(NEW.ID)) - 1] || NEW.PATH
+  where PATH @> array [text(NEW.ID)] and ID != NEW.ID;
+  return null;
+end;
+$$
+language plpgsql;
+
+/*
+  ############################# TRIGGERS #############################
+ */
+create trigger ASSET_PATH_INSERT
+  before insert on ASSET
+  for each row execute procedure SET_ASSET_PATH();
+
+create trigger ASSET_PATH_UPDATE
+  before update of PARENT_ID on ASSET
+  for each row
+  when (OLD.PARENT_ID is distinct from NEW.PARENT_ID)
+  execute procedure SET_ASSET_PATH();
+
+create trigger ASSET_PATH_UPDATE_DESCENDANTS
+  after update of PARENT_ID on ASSET
+  for each row
+  when (OLD.PARENT_ID is distinct from NEW.PARENT_ID)
+  execute procedure UPDATE_DESCENDANT_ASSET_PATHS();
@@ -0,0 +1,28 @@
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+/*
+  The distinct meta item names of all attributes, indexed so queries for assets with a meta item (e.g. rule state,
+  agent link or store datapoints) don't have to expand the attributes of every asset.
+ */
+create or replace function ASSET_META_ITEM_NAMES(ATTRIBUTES jsonb)
+  returns text [] as
+$$
+select coalesce(array_agg(distinct AM.VALUE #>> '{name}'), '{}')
+from jsonb_each(ATTRIBUTES) as AX,
+     jsonb_array_elements(
+         case when jsonb_typeof(AX.VALUE -> 'meta') = 'array' then AX.VALUE -> 'meta' else '[]' end
+       ) as AM;
+$$
+language sql immutable;
+
+/*
+  ############################# INDICES #############################
+ */
+
+create index ASSET_REALM on ASSET (REALM);
+
+create index ASSET_TYPE on ASSET (ASSET_TYPE);
+
+create index ASSET_META_ITEM_NAMES on ASSET using gin (ASSET_META_ITEM_NAMES(ATTRIBUTES));
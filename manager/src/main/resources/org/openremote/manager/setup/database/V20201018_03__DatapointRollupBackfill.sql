@@ -0,0 +1,33 @@
+/*
+  ############################# TABLES #############################
+ */
+
+/*
+  Progress of computing the rollups of the datapoints that were stored before rollups were maintained, a single row
+  with the last day to compute and the last day that was computed (null before the first day).
+ */
+create table ASSET_DATAPOINT_ROLLUP_BACKFILL (
+  ID       int  not null default 1,
+  END_DAY  date not null,
+  LAST_DAY date,
+  primary key (ID),
+  check (ID = 1)
+);
+
+/*
+  ############################# DATA #############################
+ */
+
+/*
+  Existing rollups were computed by a completed backfill, which only ran when there were no rollups.
+ */
+insert into ASSET_DATAPOINT_ROLLUP_BACKFILL (END_DAY, LAST_DAY)
+select max(TIMESTAMP)::date, max(TIMESTAMP)::date
+from ASSET_DATAPOINT_ROLLUP
+having count(*) > 0;
+
+/*
+  Rollups of attributes without numeric or boolean datapoints, no longer computed.
+ */
+delete from ASSET_DATAPOINT_ROLLUP
+where COUNT_VALUE = 0;
@@ -0,0 +1,50 @@
+/*
+  ############################# FUNCTIONS #############################
+ */
+
+/*
+  Create the partition of the day if it doesn't exist and move the rows of the day stored in the parent table into
+  it, so a datapoint is never stored in both. A row already in the partition is newer than the row in the parent
+  table and is kept.
+ */
+create or replace function CREATE_ASSET_DATAPOINT_PARTITION(PARTITION_DATE date)
+  returns boolean as
+$$
+declare
+  PARTITION_NAME text := 'asset_datapoint_p' || to_char(PARTITION_DATE, 'YYYYMMDD');
+  CREATED        boolean := false;
+begin
+  if to_regclass(PARTITION_NAME) is null then
+    execute format(
+        'create table %I ('
+        || 'check (TIMESTAMP >= %L::timestamp and TIMESTAMP < %L::timestamp), '
+        || 'primary key (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME), '
+        || 'foreign key (ENTITY_ID) references ASSET (ID) on delete cascade'
+        || ') inherits (ASSET_DATAPOINT)',
+        PARTITION_NAME, PARTITION_DATE, PARTITION_DATE + 1);
+    CREATED := true;
+  end if;
+  execute format(
+      'with MOVED as ('
+      || 'delete from only ASSET_DATAPOINT where TIMESTAMP >= %L::timestamp and TIMESTAMP < %L::timestamp '
+      || 'returning TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE) '
+      || 'insert into %I (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE) select * from MOVED '
+      || 'on conflict (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME) do nothing',
+      PARTITION_DATE, PARTITION_DATE + 1, PARTITION_NAME);
+  return CREATED;
+end;
+$$
+language plpgsql;
+
+/*
+  ############################# DATA #############################
+ */
+
+/*
+  Move the rows stored in the parent table into the partitions of their days, where a partition exists or will be
+  created by the application (today and ahead). Older rows stay in the parent table until they are purged.
+ */
+select CREATE_ASSET_DATAPOINT_PARTITION(D.DAY)
+from (select distinct TIMESTAMP::date as DAY from only ASSET_DATAPOINT) D
+where D.DAY >= current_date
+   or to_regclass('asset_datapoint_p' || to_char(D.DAY, 'YYYYMMDD')) is not null;
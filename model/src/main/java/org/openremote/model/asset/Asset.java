@@ -23,7 +23,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.annotations.Check;
-import org.hibernate.annotations.Formula;
 import org.openremote.model.AbstractValueHolder;
 import org.openremote.model.IdentifiableEntity;
 import org.openremote.model.ValidationFailure;
@@ -271,9 +270,9 @@ public class Asset implements IdentifiableEntity {
     @JsonIgnore
     protected ObservableList<AssetAttribute> attributeList;
 
-    // The following are expensive to query, so if they are null, they might not have been loaded
+    // The path is maintained by the database, it is null until the asset has been loaded
 
-    @Formula("get_asset_tree_path(ID)")
+    @Column(name = "PATH", insertable = false, updatable = false)
     @org.hibernate.annotations.Type(type = "org.openremote.container.persistence.ArrayUserType")
     protected String[] path;
 
@@ -19,6 +19,7 @@
  */
 package org.openremote.model.asset;
 
+import com.google.gwt.core.shared.GwtIncompatible;
 import jsinterop.annotations.JsType;
 import org.openremote.model.Constants;
 import org.openremote.model.attribute.AttributeRef;
@@ -30,6 +31,7 @@ import org.openremote.model.query.AssetQuery;
 import javax.annotation.security.RolesAllowed;
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
 
 import java.util.List;
 
@@ -262,6 +264,21 @@ public interface AssetResource {
     @SuppressWarnings("unusable-by-js")
     Asset[] queryAssets(@BeanParam RequestParams requestParams, AssetQuery query);
 
+    /**
+     * Retrieve assets using an {@link AssetQuery}, with the same access rules as {@link #queryAssets}. The JSON array
+     * of assets is written while the assets are read from the database, so the result set doesn't have to fit in
+     * memory. Use this to export or synchronize many assets, or page through them with {@link AssetQuery#after} and
+     * {@link AssetQuery#limit}.
+     */
+    @POST
+    @Path("query/stream")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @RolesAllowed({Constants.READ_ASSETS_ROLE})
+    @SuppressWarnings("unusable-by-js")
+    @GwtIncompatible
+    Response streamAssets(@BeanParam RequestParams requestParams, AssetQuery query);
+
     /**
      * Retrieve public assets using an {@link AssetQuery}.
      * <p>
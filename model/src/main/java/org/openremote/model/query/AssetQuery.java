@@ -19,6 +19,7 @@
  */
 package org.openremote.model.query;
 
+import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetDescriptor;
 import org.openremote.model.asset.AssetType;
 import org.openremote.model.attribute.MetaItemDescriptor;
@@ -186,6 +187,32 @@ public class AssetQuery {
         }
     }
 
+    /**
+     * The position after which the next page of results starts, the value of the {@link OrderBy} property and the ID
+     * of the last asset of the previous page. A {@link OrderBy.Property#CREATED_ON} value is the epoch milliseconds.
+     */
+    public static class Cursor {
+
+        public String value;
+        public String id;
+
+        public Cursor() {
+        }
+
+        public Cursor(String value, String id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" +
+                    "value='" + value + '\'' +
+                    ", id='" + id + '\'' +
+                    '}';
+        }
+    }
+
     public enum Access {
         PRIVATE,
         PROTECTED,
@@ -250,6 +277,8 @@ public class AssetQuery {
     // Ordering
     public OrderBy orderBy;
     public int limit;
+    // Keyset pagination
+    public Cursor after;
 
     public AssetQuery() {
     }
@@ -422,6 +451,41 @@ public class AssetQuery {
         return this;
     }
 
+    public AssetQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public AssetQuery after(Cursor after) {
+        this.after = after;
+        return this;
+    }
+
+    /**
+     * Continue after the given asset, the last asset of the previous page of results of this query.
+     */
+    public AssetQuery after(Asset asset) {
+        OrderBy.Property property = orderBy != null && orderBy.property != null ? orderBy.property : OrderBy.Property.CREATED_ON;
+        String value;
+        switch (property) {
+            case NAME:
+                value = asset.getName();
+                break;
+            case ASSET_TYPE:
+                value = asset.getType();
+                break;
+            case PARENT_ID:
+                value = asset.getParentId();
+                break;
+            case REALM:
+                value = asset.getRealm();
+                break;
+            default:
+                value = asset.getCreatedOn() != null ? Long.toString(asset.getCreatedOn().getTime()) : null;
+        }
+        return after(new Cursor(value, asset.getId()));
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -436,6 +500,8 @@ public class AssetQuery {
                 ", attribute=" + (attributes != null ? attributes.toString() : "null") +
                 ", attributeMeta=" + Arrays.toString(attributeMeta) +
                 ", orderBy=" + orderBy +
+                ", limit=" + limit +
+                ", after=" + after +
                 ", recursive=" + recursive +
                 '}';
     }
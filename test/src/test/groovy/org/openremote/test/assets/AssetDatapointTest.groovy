@@ -1,7 +1,9 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
+import org.openremote.container.persistence.PersistenceService
 import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointIngester
 import org.openremote.manager.datapoint.AssetDatapointService
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.ManagerTestSetup
@@ -282,4 +284,34 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert datapoints.isEmpty()
         }
     }
+
+    def "Store a batch of buffered datapoints with a datapoint that can't be stored"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def attributeRef = new AttributeRef(managerTestSetup.thingId, "ingesterTest")
+
+        and: "an ingester with a batch of datapoints, one of an asset that doesn't exist"
+        def ingester = new AssetDatapointIngester(persistenceService, 10, 10, 0)
+        def timestamp = System.currentTimeMillis() - 10000
+        assert ingester.offer(new AssetDatapointIngester.PendingDatapoint(attributeRef.entityId, attributeRef.attributeName, "1", timestamp))
+        assert ingester.offer(new AssetDatapointIngester.PendingDatapoint("missingAsset", attributeRef.attributeName, "2", timestamp + 1000))
+        assert ingester.offer(new AssetDatapointIngester.PendingDatapoint(attributeRef.entityId, attributeRef.attributeName, "3", timestamp + 2000))
+
+        when: "the buffer is drained"
+        ingester.drain()
+
+        then: "the datapoints of the existing asset should be stored and only the failing datapoint dropped"
+        def datapoints = assetDatapointService.getDatapoints(attributeRef)
+        datapoints.size() == 2
+        Values.getNumber(datapoints.get(0).value).orElse(null) == 3d
+        Values.getNumber(datapoints.get(1).value).orElse(null) == 1d
+        ingester.getStatus().getNumber("storedCount").orElse(null) == 2d
+        ingester.getStatus().getNumber("droppedCount").orElse(null) == 1d
+        ingester.getStatus().getNumber("failedBatchCount").orElse(null) == 1d
+        ingester.getBufferSize() == 0
+    }
 }
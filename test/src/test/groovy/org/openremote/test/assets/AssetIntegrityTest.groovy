@@ -1,5 +1,7 @@
 package org.openremote.test.assets
 
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.setup.SetupService
 import org.openremote.manager.setup.builtin.KeycloakTestSetup
 import org.openremote.manager.setup.builtin.ManagerTestSetup
@@ -8,11 +10,14 @@ import org.openremote.model.asset.Asset
 import org.openremote.model.asset.AssetAttribute
 import org.openremote.model.asset.AssetType
 import org.openremote.model.attribute.AttributeValueType
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.PathPredicate
 import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import javax.persistence.PersistenceException
 import javax.ws.rs.WebApplicationException
 
 import static org.openremote.container.util.MapAccess.getString
@@ -144,4 +149,59 @@ class AssetIntegrityTest extends Specification implements ManagerContainerTrait
         ex = thrown()
         ex.response.status == 400
     }
+
+    def "Maintain asset paths when assets are moved"() {
+        given: "the server container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def realm = keycloakTestSetup.masterTenant.realm
+
+        when: "a tree of assets and another root asset are created"
+        def assetA = assetStorageService.merge(new Asset("Path A", AssetType.THING, null, realm))
+        def assetB = assetStorageService.merge(new Asset("Path B", AssetType.THING, assetA))
+        def assetC = assetStorageService.merge(new Asset("Path C", AssetType.THING, assetB))
+        def assetD = assetStorageService.merge(new Asset("Path D", AssetType.THING, null, realm))
+
+        then: "the paths should start with the asset and end with the root"
+        assetStorageService.find(assetA.id, true).path as List == [assetA.id]
+        assetStorageService.find(assetB.id, true).path as List == [assetB.id, assetA.id]
+        assetStorageService.find(assetC.id, true).path as List == [assetC.id, assetB.id, assetA.id]
+        assetStorageService.find(assetD.id, true).path as List == [assetD.id]
+
+        when: "the middle asset is moved to the other root"
+        assetB = assetStorageService.find(assetB.id, true)
+        assetB.setParentId(assetD.id)
+        assetStorageService.merge(assetB)
+
+        then: "the paths of the moved asset and its descendants should be updated"
+        assetStorageService.find(assetB.id, true).path as List == [assetB.id, assetD.id]
+        assetStorageService.find(assetC.id, true).path as List == [assetC.id, assetB.id, assetD.id]
+        assetStorageService.find(assetA.id, true).path as List == [assetA.id]
+
+        and: "path queries should find the assets in their new location"
+        assetStorageService.findAll(new AssetQuery().paths(new PathPredicate(assetD.id))).collect { it.id } as Set == [assetD.id, assetB.id, assetC.id] as Set
+        assetStorageService.findAll(new AssetQuery().paths(new PathPredicate(assetA.id))).collect { it.id } == [assetA.id]
+        assetStorageService.isDescendantAsset(assetD.id, assetC.id)
+        !assetStorageService.isDescendantAsset(assetA.id, assetC.id)
+
+        when: "the root is moved into its own subtree bypassing the service checks"
+        persistenceService.doTransaction { em ->
+            em.createNativeQuery("update ASSET set PARENT_ID = ?1 where ID = ?2")
+                .setParameter(1, assetC.id)
+                .setParameter(2, assetD.id)
+                .executeUpdate()
+        }
+
+        then: "the database should reject the change"
+        thrown(PersistenceException)
+        assetStorageService.find(assetD.id, true).parentId == null
+        assetStorageService.find(assetD.id, true).path as List == [assetD.id]
+        assetStorageService.find(assetC.id, true).path as List == [assetC.id, assetB.id, assetD.id]
+
+        cleanup: "the assets are removed"
+        assetStorageService.delete([assetC.id, assetB.id, assetA.id, assetD.id])
+    }
 }
+
@@ -1,6 +1,7 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.AbstractProtocol
+import org.openremote.container.timer.TimerService
 import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.*
 import org.openremote.manager.datapoint.AssetDatapointService
@@ -20,6 +21,7 @@ import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
 import javax.persistence.EntityManager
+import java.util.concurrent.TimeUnit
 import java.util.logging.Logger
 
 class AssetProcessingTest extends Specification implements ManagerContainerTrait {
@@ -302,4 +304,61 @@ class AssetProcessingTest extends Specification implements ManagerContainerTrait
         }
 
     }
+
+    def "Process attribute events of each asset in order with a partitioned asset queue"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 20, delay: 0.2)
+
+        and: "a processor recording the processed values by asset"
+        def processedValues = [:].asSynchronized()
+        AssetUpdateProcessor recordingProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset asset, AssetAttribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (attribute.name == "light1PowerConsumption" || attribute.name == "co2Level") {
+                    processedValues.computeIfAbsent(asset.id, { [].asSynchronized() }).add(attribute.valueAsInteger.orElse(null))
+                }
+                false
+            }
+        }
+
+        when: "the container is started with a partitioned asset queue"
+        def container = startContainer(defaultConfig() << [(AssetProcessingService.ASSET_QUEUE_PARTITIONS): "4"], defaultServices())
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+
+        then: "the container should be running and initialised"
+        assetProcessingService.getPartitions().size() == 4
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "the recording processor is registered"
+        assetProcessingService.processors.add(0, recordingProcessor)
+        def processedBefore = assetProcessingService.getPartitions().sum { it.getProcessedCount() }
+
+        and: "interleaved attribute events of two assets are sent"
+        def count = 100
+        def timerService = container.getService(TimerService.class)
+        def timestamp = timerService.getCurrentTimeMillis()
+        // The test clock doesn't advance by itself, events must not be in the future and not older than stored values
+        timerService.getClock().advanceTime(count, TimeUnit.MILLISECONDS)
+        (1..count).each { i ->
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(managerTestSetup.thingId, "light1PowerConsumption", Values.create(i), timestamp + i))
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(managerTestSetup.apartment2LivingroomId, "co2Level", Values.create(1000 + i), timestamp + i))
+        }
+
+        then: "the events of each asset should have been processed in the order they were sent"
+        conditions.eventually {
+            assert processedValues[managerTestSetup.thingId] == (1..count).toList()
+            assert processedValues[managerTestSetup.apartment2LivingroomId] == (1..count).collect { 1000 + it }
+        }
+
+        and: "the events should have been processed by the partitions"
+        assetProcessingService.getPartitions().sum { it.getProcessedCount() } - processedBefore >= count * 2
+
+        cleanup: "the recording processor is removed"
+        assetProcessingService.processors.remove(recordingProcessor)
+    }
 }
+
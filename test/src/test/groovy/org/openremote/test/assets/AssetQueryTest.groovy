@@ -992,4 +992,47 @@ class AssetQueryTest extends Specification implements ManagerContainerTrait {
         assets.size() == 1
         assets[0].id == lobby.id
     }
+
+    def "Keyset pagination queries"() {
+        given: "a function to fetch all pages of a query"
+        def fetchPages = { Function<AssetQuery, AssetQuery> queryFactory, int pageSize ->
+            def pages = []
+            def page = assetStorageService.findAll(queryFactory.apply(new AssetQuery()).limit(pageSize))
+            while (!page.isEmpty()) {
+                assert page.size() <= pageSize
+                pages.add(page)
+                page = assetStorageService.findAll(queryFactory.apply(new AssetQuery()).limit(pageSize).after(page.last()))
+                assert pages.size() < 100
+            }
+            pages
+        }
+
+        when: "all assets of the master realm are fetched in pages without an explicit order"
+        def expected = assetStorageService.findAll(
+            new AssetQuery().tenant(new TenantPredicate(keycloakTestSetup.masterTenant.realm))
+        ).collect { it.id }
+        def pages = fetchPages({ it.tenant(new TenantPredicate(keycloakTestSetup.masterTenant.realm)) } as Function, 3)
+
+        then: "each asset should be returned once in creation order"
+        expected.size() > 3
+        pages.size() == Math.ceil(expected.size() / 3d) as int
+        pages.flatten().collect { it.id } == expected
+
+        when: "all assets of the master realm are fetched in pages ordered by name descending"
+        expected = assetStorageService.findAll(
+            new AssetQuery().tenant(new TenantPredicate(keycloakTestSetup.masterTenant.realm)).orderBy(new OrderBy(NAME, true))
+        ).collect { it.id }
+        pages = fetchPages({ it.tenant(new TenantPredicate(keycloakTestSetup.masterTenant.realm)).orderBy(new OrderBy(NAME, true)) } as Function, 2)
+
+        then: "each asset should be returned once in name order"
+        pages.flatten().collect { it.id } == expected
+
+        when: "a cursor is used with a query of asset IDs that isn't recursive"
+        assetStorageService.findAll(
+            new AssetQuery().ids(managerTestSetup.thingId, managerTestSetup.lobbyId).after(new AssetQuery.Cursor("0", managerTestSetup.thingId))
+        )
+
+        then: "the query should be rejected"
+        thrown(IllegalArgumentException)
+    }
 }
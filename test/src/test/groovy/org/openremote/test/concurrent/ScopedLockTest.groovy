@@ -0,0 +1,144 @@
+package org.openremote.test.concurrent
+
+import org.openremote.container.Container
+import org.openremote.container.concurrent.GlobalLock
+import org.openremote.container.concurrent.ScopedLock
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ScopedLockTest extends Specification {
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def "Nest scoped locks and the global lock"() {
+
+        given: "two scoped locks"
+        def outer = new ScopedLock("outer")
+        def inner = new ScopedLock("inner")
+
+        when: "the locks are nested and reentered"
+        def result = outer.withLockReturning("outer", {
+            inner.withLockReturning("inner", {
+                outer.withLockReturning("outer reentered", {
+                    outer.isHeldByCurrentThread() && inner.isHeldByCurrentThread() && GlobalLock.getLock().isHeldByCurrentThread()
+                })
+            })
+        })
+
+        then: "all locks should be held, including the global lock in shared mode"
+        result
+        !outer.isHeldByCurrentThread()
+        !inner.isHeldByCurrentThread()
+        !GlobalLock.getLock().isHeldByCurrentThread()
+
+        when: "a scoped lock is obtained while holding the global lock"
+        result = GlobalLock.withLockReturning("global", {
+            outer.withLockReturning("outer", { outer.isHeldByCurrentThread() })
+        })
+
+        then: "it should be granted"
+        result
+    }
+
+    def "Share the read lock and exclude the write lock"() {
+
+        given: "a scoped lock"
+        def lock = new ScopedLock("readWrite")
+        def conditions = new PollingConditions(timeout: 5)
+
+        and: "a thread holding the read lock until released"
+        def readerHolding = new CountDownLatch(1)
+        def releaseReader = new CountDownLatch(1)
+        def reader = CompletableFuture.runAsync({
+            lock.withReadLock("reader", {
+                readerHolding.countDown()
+                releaseReader.await(10, TimeUnit.SECONDS)
+            })
+        })
+        assert readerHolding.await(5, TimeUnit.SECONDS)
+
+        when: "another thread obtains the read lock"
+        def sharedRead = CompletableFuture.supplyAsync({
+            lock.withReadLockReturning("second reader", { true })
+        }).get(5, TimeUnit.SECONDS)
+
+        then: "it should be granted while the first reader holds the lock"
+        sharedRead
+
+        when: "another thread obtains the write lock"
+        def writer = CompletableFuture.supplyAsync({
+            lock.withLockReturning("writer", { true })
+        })
+
+        then: "it should wait for the reader"
+        conditions.eventually {
+            assert lock.getStatus().getNumber("contendedCount").orElse(0d) >= 1d
+            assert !writer.isDone()
+        }
+
+        when: "the reader releases the lock"
+        releaseReader.countDown()
+
+        then: "the writer should obtain the lock"
+        writer.get(5, TimeUnit.SECONDS)
+        reader.get(5, TimeUnit.SECONDS) == null
+    }
+
+    def "Fail fast when a lock can not be obtained without dead-locking"() {
+
+        given: "a scoped lock"
+        def lock = new ScopedLock("failFast")
+
+        when: "the global lock is obtained while holding the scoped lock"
+        def start = System.currentTimeMillis()
+        lock.withLock("scoped", {
+            GlobalLock.withLock("global", {})
+        })
+
+        then: "it should fail immediately"
+        thrown(IllegalStateException)
+        System.currentTimeMillis() - start < GlobalLock.getLockTimeoutMillis()
+        !lock.isHeldByCurrentThread()
+        !GlobalLock.getLock().isHeldByCurrentThread()
+
+        when: "the read lock is upgraded to the write lock"
+        lock.withReadLock("read", {
+            lock.withLock("write", {})
+        })
+
+        then: "it should fail immediately"
+        thrown(IllegalStateException)
+        !lock.isHeldByCurrentThread()
+    }
+
+    def "Record lock statistics"() {
+
+        given: "a scoped lock"
+        def lock = new ScopedLock("instrumented")
+
+        expect: "the lock should be registered"
+        ScopedLock.getScopes().contains(lock)
+        ScopedLock.getScopes().contains(GlobalLock.getLock())
+
+        when: "the lock is obtained and reentered"
+        def owner = lock.withLockReturning("instrumented work", {
+            lock.withLockReturning("reentered", { lock.getStatus().getString("owner").orElse(null) })
+        })
+
+        then: "the owner should have been reported while the lock was held"
+        owner == Thread.currentThread().getName() + " executing instrumented work"
+
+        and: "only the first acquisition should be counted"
+        lock.getStatus().getNumber("acquiredCount").orElse(null) == 1d
+        lock.getStatus().getNumber("contendedCount").orElse(null) == 0d
+        lock.getStatus().getNumber("maxHoldMillis").orElse(-1d) >= 0d
+        !lock.getStatus().hasKey("owner")
+    }
+}
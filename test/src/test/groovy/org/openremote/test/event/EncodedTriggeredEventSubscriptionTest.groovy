@@ -0,0 +1,56 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.manager.event.EncodedTriggeredEventSubscription
+import org.openremote.manager.event.EventTypeConverters
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetEvent
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class EncodedTriggeredEventSubscriptionTest extends Specification {
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def "Write the same TRIGGERED messages as the serialized triggered subscription"() {
+
+        given: "the events of a published event"
+        def asset = new Asset("Some Asset", AssetType.THING, null, "master")
+        asset.setId("someAssetId")
+        List<SharedEvent> events = [
+            new AttributeEvent("someAssetId", "someAttribute", Values.create(123.456), 1000L),
+            new AttributeEvent("someAssetId", "otherAttribute", Values.createObject().put("text", "Quoted \"value\" ü"), 2000L),
+            new AssetEvent(AssetEvent.Cause.UPDATE, asset, ["name"] as String[])
+        ]
+        def encodedEvents = new EncodedTriggeredEventSubscription.EncodedEvents<SharedEvent>(events)
+        def converters = new EventTypeConverters()
+
+        expect: "the message of each subscriber to be byte-identical to the serialized triggered subscription"
+        [null, "someSubscriptionId", "Quoted \"subscription\" ü"].each { subscriptionId ->
+            def encoded = converters.writeTriggeredEventSubscription(
+                new EncodedTriggeredEventSubscription<SharedEvent>(encodedEvents, subscriptionId, EncodedTriggeredEventSubscription.toJsonString(subscriptionId)),
+                null
+            )
+            def expected = TriggeredEventSubscription.MESSAGE_PREFIX + Container.JSON.writeValueAsString(
+                new TriggeredEventSubscription<SharedEvent>(events, subscriptionId)
+            )
+            assert encoded.getBytes(StandardCharsets.UTF_8) == expected.getBytes(StandardCharsets.UTF_8)
+        }
+
+        and: "each event to be serialized once and shared by all subscribers"
+        events.eachWithIndex { event, i ->
+            assert encodedEvents.getEventJson(i) == Container.JSON.writeValueAsString(event)
+            assert encodedEvents.getEventJson(i).is(encodedEvents.getEventJson(i))
+            assert encodedEvents.getEventBytes(i).is(encodedEvents.getEventBytes(i))
+        }
+    }
+}
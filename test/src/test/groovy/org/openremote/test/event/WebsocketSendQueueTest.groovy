@@ -0,0 +1,126 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.container.web.socket.WebsocketSendQueue
+import spock.lang.Specification
+
+import javax.websocket.CloseReason
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+
+class WebsocketSendQueueTest extends Specification {
+
+    List<String> sentMessages
+    List<SendHandler> sendHandlers
+    List<CloseReason> closeReasons
+    List<WebsocketSendQueue> closedQueues
+    Session session
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        given: "a session that completes sends when the test calls their handlers"
+        sentMessages = []
+        sendHandlers = []
+        closeReasons = []
+        closedQueues = []
+        def asyncRemote = Stub(RemoteEndpoint.Async) {
+            sendText(_ as String, _ as SendHandler) >> { String text, SendHandler handler ->
+                sentMessages.add(text)
+                sendHandlers.add(handler)
+            }
+        }
+        session = Stub(Session) {
+            getId() >> "session1"
+            getAsyncRemote() >> asyncRemote
+            close(_ as CloseReason) >> { CloseReason reason -> closeReasons.add(reason) }
+        }
+    }
+
+    def "Conflate queued messages with the same key"() {
+
+        given: "a send queue"
+        def sendQueue = new WebsocketSendQueue(session, 10, 0, { closedQueues.add(it) })
+
+        when: "messages are offered while the first message is being sent"
+        sendQueue.offer("a1", "a")
+        sendQueue.offer("a2", "a")
+        sendQueue.offer("b1", "b")
+        sendQueue.offer("a3", "a")
+        sendQueue.offer("c1", null)
+
+        then: "only the first message should be sent and the superseded message should be replaced"
+        sentMessages == ["a1"]
+        sendQueue.getQueueSize() == 3
+        sendQueue.getStatus().getNumber("conflatedCount").orElse(null) == 1d
+
+        when: "the sends complete"
+        while (sendHandlers.size() > 0) {
+            sendHandlers.remove(0).onResult(new SendResult())
+        }
+
+        then: "the latest message of each key should be sent in queue order"
+        sentMessages == ["a1", "a3", "b1", "c1"]
+        sendQueue.getQueueSize() == 0
+        sendQueue.getStatus().getNumber("sentCount").orElse(null) == 4d
+        closeReasons.isEmpty()
+        closedQueues.isEmpty()
+    }
+
+    def "Close the session of a slow consumer"() {
+
+        given: "a send queue of two messages"
+        def sendQueue = new WebsocketSendQueue(session, 2, 0, { closedQueues.add(it) })
+
+        when: "more messages are offered than the queue can hold while the first message is being sent"
+        sendQueue.offer("m1", null)
+        sendQueue.offer("m2", null)
+        sendQueue.offer("m3", null)
+        sendQueue.offer("m4", null)
+
+        then: "the session should be closed and the queued, rejected and in-flight messages dropped"
+        sentMessages == ["m1"]
+        closeReasons.size() == 1
+        closeReasons[0].closeCode == CloseReason.CloseCodes.TRY_AGAIN_LATER
+        closedQueues == [sendQueue]
+        sendQueue.getQueueSize() == 0
+        sendQueue.getDroppedCount() == 4
+
+        when: "another message is offered"
+        sendQueue.offer("m5", null)
+
+        then: "it should be dropped"
+        sentMessages == ["m1"]
+        sendQueue.getDroppedCount() == 5
+
+        when: "the in-flight send completes"
+        sendHandlers.remove(0).onResult(new SendResult())
+
+        then: "it should not be counted again"
+        sendQueue.getDroppedCount() == 5
+        sendQueue.getStatus().getNumber("sentCount").orElse(null) == 0d
+    }
+
+    def "Close the session when a send fails"() {
+
+        given: "a send queue"
+        def sendQueue = new WebsocketSendQueue(session, 10, 0, { closedQueues.add(it) })
+
+        when: "messages are offered and the first send fails"
+        sendQueue.offer("m1", null)
+        sendQueue.offer("m2", null)
+        sendHandlers.remove(0).onResult(new SendResult(new IOException("Broken pipe")))
+
+        then: "the session should be closed, the queue deregistered and the messages dropped"
+        sentMessages == ["m1"]
+        closeReasons.size() == 1
+        closeReasons[0].closeCode == CloseReason.CloseCodes.UNEXPECTED_CONDITION
+        closedQueues == [sendQueue]
+        sendQueue.getDroppedCount() == 2
+    }
+}
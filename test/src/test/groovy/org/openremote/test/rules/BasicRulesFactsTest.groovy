@@ -9,6 +9,15 @@ import org.openremote.manager.rules.RulesClock
 import org.openremote.manager.rules.RulesEngine
 import org.openremote.manager.rules.RulesFacts
 import org.openremote.manager.rules.facade.AssetsFacade
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeValueType
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.StringPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.value.Values
 import spock.lang.Specification
 
 import java.util.stream.Collectors
@@ -398,4 +407,33 @@ class BasicRulesFactsTest extends Specification {
         assert !rulesFacts.hasTemporaryFacts()
         assert rulesFacts.match(AnonFact).count() == 0
     }
+
+    def "Match asset states with a query that is modified between matches"() {
+
+        given: "the asset states of two rooms"
+        ["Kitchen", "Bedroom"].each { name ->
+            def asset = new Asset(name, AssetType.ROOM)
+            asset.setId(name.toLowerCase())
+            asset.setRealm("master")
+            def attribute = new AssetAttribute("temperature", AttributeValueType.NUMBER, Values.create(20))
+            asset.addAttributes(attribute)
+            rulesFacts.putAssetState(new AssetState(asset, attribute, AttributeEvent.Source.SENSOR))
+        }
+
+        when: "a query of the kitchen is matched"
+        def namePredicate = new StringPredicate("Kitchen")
+        def assetQuery = new AssetQuery().names(namePredicate)
+
+        then: "the kitchen should match"
+        assert rulesFacts.matchAssetState(assetQuery).map { it.id }.collect(Collectors.toList()) == ["kitchen"]
+
+        when: "the query is modified to match the bedroom"
+        namePredicate.value = "Bedroom"
+
+        then: "the bedroom should match"
+        assert rulesFacts.matchAssetState(assetQuery).map { it.id }.collect(Collectors.toList()) == ["bedroom"]
+
+        and: "a new query of the kitchen should still match the kitchen"
+        assert rulesFacts.matchAssetState(new AssetQuery().names(new StringPredicate("Kitchen"))).map { it.id }.collect(Collectors.toList()) == ["kitchen"]
+    }
 }
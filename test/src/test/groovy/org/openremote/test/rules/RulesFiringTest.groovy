@@ -0,0 +1,86 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.rules.RulesService
+import org.openremote.manager.rules.RulesetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.manager.setup.builtin.KeycloakTestSetup
+import org.openremote.model.rules.GlobalRuleset
+import org.openremote.model.rules.TenantRuleset
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.openremote.model.rules.Ruleset.Lang.GROOVY
+
+class RulesFiringTest extends Specification implements ManagerContainerTrait {
+
+    @SuppressWarnings("GroovyAccessibility")
+    def "Fire rules engines concurrently"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def rulesService = container.getService(RulesService.class)
+        def rulesetStorageService = container.getService(RulesetStorageService.class)
+
+        and: "a global and a tenant ruleset are deployed"
+        def rules = getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates2.groovy").text
+        rulesetStorageService.merge(new GlobalRuleset("Some global rules", GROOVY, rules))
+        rulesetStorageService.merge(new TenantRuleset(keycloakTestSetup.masterTenant.realm, "Some master tenant rules", GROOVY, rules))
+
+        expect: "the rules engines to be running"
+        conditions.eventually {
+            assert rulesService.globalEngine != null
+            assert rulesService.globalEngine.isRunning()
+            assert rulesService.tenantEngines.get(keycloakTestSetup.masterTenant.realm) != null
+            assert rulesService.tenantEngines.get(keycloakTestSetup.masterTenant.realm).isRunning()
+        }
+
+        when: "the global engine is blocked by a thread holding its lock"
+        def globalEngine = rulesService.globalEngine
+        def tenantEngine = rulesService.tenantEngines.get(keycloakTestSetup.masterTenant.realm)
+        def blocking = new CountDownLatch(1)
+        def releaseBlocking = new CountDownLatch(1)
+        def blocker = CompletableFuture.runAsync({
+            globalEngine.engineLock.withLock("blocking", {
+                blocking.countDown()
+                releaseBlocking.await(30, TimeUnit.SECONDS)
+            })
+        })
+        assert blocking.await(5, TimeUnit.SECONDS)
+        def globalFiredCount = globalEngine.engineLock.getStatus().getNumber("acquiredCount").orElse(0d)
+        def tenantFiredCount = tenantEngine.engineLock.getStatus().getNumber("acquiredCount").orElse(0d)
+
+        and: "both engines are fired"
+        globalEngine.scheduleFire()
+        tenantEngine.scheduleFire()
+
+        then: "the global engine should wait for its lock on a firing thread"
+        conditions.eventually {
+            assert !globalEngine.fireScheduled.get()
+            assert globalEngine.engineLock.getStatus().getNumber("queueLength").orElse(0d) >= 1d
+        }
+
+        and: "the tenant engine should fire without waiting for the global engine"
+        conditions.eventually {
+            assert tenantEngine.engineLock.getStatus().getNumber("acquiredCount").orElse(0d) > tenantFiredCount
+        }
+        globalEngine.engineLock.getStatus().getNumber("acquiredCount").orElse(0d) == globalFiredCount
+
+        when: "the global engine is released"
+        releaseBlocking.countDown()
+        blocker.get(5, TimeUnit.SECONDS)
+
+        then: "the global engine should fire"
+        conditions.eventually {
+            assert globalEngine.engineLock.getStatus().getNumber("acquiredCount").orElse(0d) > globalFiredCount
+        }
+    }
+}